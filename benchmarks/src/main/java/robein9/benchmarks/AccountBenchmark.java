@@ -0,0 +1,55 @@
+/**
+ * Description
+ * Benchmarks of deposits and withdrawals on savings and credit accounts. The account is opened with a balance
+ * large enough for every withdrawal of an iteration to go through, so the benchmarks measure the successful
+ * path including the transaction that is added to the history. A new bank is created for every iteration so
+ * the history doesn't grow across iterations.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import org.openjdk.jmh.annotations.*;
+import robein9.BankLogic;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AccountBenchmark {
+
+    @Param({"savings", "credit"})
+    public String accountType;
+
+    private static final String PNO = CustomerBenchmark.personnummer(0);
+    private static final int OPENING_DEPOSITS = 100;
+
+    private BankLogic bank;
+    private int accountNumber;
+
+    @Setup(Level.Iteration)
+    public void openAccount() {
+        bank = new BankLogic();
+        bank.createCustomer("Förnamn", "Efternamn", PNO);
+        accountNumber = accountType.equals("savings") ? bank.createSavingsAccount(PNO) : bank.createCreditAccount(PNO);
+        for(int i = 0; i < OPENING_DEPOSITS; i++) {
+            bank.deposit(PNO, accountNumber, Integer.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return bank.deposit(PNO, accountNumber, 100);
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        return bank.withdraw(PNO, accountNumber, 100);
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Description
+ * This is the main class of benchmarks.jar. It takes the same arguments as the JMH command line, and always
+ * adds the GC profiler so every benchmark also reports the bytes allocated per operation. Without arguments
+ * all benchmarks are run and the results are written to jmh-result.json as well as printed. With -h the
+ * options are printed and with -l or -lp the benchmarks are listed, without running anything.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if(commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if(commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+        if(commandLine.shouldListWithParams()) {
+            new Runner(commandLine).listWithParams(commandLine);
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        builder.addProfiler(GCProfiler.class);
+        if(!commandLine.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        if(!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
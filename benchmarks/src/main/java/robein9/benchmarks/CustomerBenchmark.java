@@ -0,0 +1,70 @@
+/**
+ * Description
+ * Benchmarks of the customer operations of BankLogic at different bank sizes: creating a customer, finding a
+ * customer by personnummer, and getting a customer with all their accounts formatted. Every customer in the
+ * bank has one savings account and one credit account.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import org.openjdk.jmh.annotations.*;
+import robein9.BankLogic;
+import robein9.Customer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CustomerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int bankSize;
+
+    private BankLogic bank;
+    private String[] pNos;
+    private long nextPNo;
+
+    // A new bank is filled for every iteration, since creating customers makes the bank grow
+    @Setup(Level.Iteration)
+    public void fillBank() {
+        bank = new BankLogic();
+        pNos = new String[bankSize];
+        for(int i = 0; i < bankSize; i++) {
+            pNos[i] = personnummer(i);
+            bank.createCustomer("Förnamn" + i, "Efternamn" + i, pNos[i]);
+            bank.createSavingsAccount(pNos[i]);
+            bank.createCreditAccount(pNos[i]);
+        }
+        nextPNo = bankSize;
+    }
+
+    @Benchmark
+    public boolean createCustomer() {
+        String pNo = personnummer(nextPNo++);
+        return bank.createCustomer("Förnamn", "Efternamn", pNo);
+    }
+
+    @Benchmark
+    public Customer findCustomer() {
+        return bank.findCustomer(pNos[ThreadLocalRandom.current().nextInt(bankSize)]);
+    }
+
+    @Benchmark
+    public List<String> getCustomer() {
+        return bank.getCustomer(pNos[ThreadLocalRandom.current().nextInt(bankSize)]);
+    }
+
+    // Personnummer that are unique for every index, the same length as a real one
+    static String personnummer(long index) {
+        return String.valueOf(190000000000L + index);
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Description
+ * This is a headless load test of the bank. It fills a BankLogic with customers that each have a number of
+ * savings and credit accounts, then runs a mix of operations from several threads for a while and reports the
+ * throughput and the p50, p99 and p999 latency of every operation as JSON, so the numbers of two builds can
+ * be compared.
+ *
+ * Each thread works on its own share of the customers. When an account is closed or a customer is deleted, the
+ * thread replaces it with a new one outside of the measured time, so the size of the bank stays the same.
+ *
+ * With a target rate the threads send operations on a fixed schedule, and the latency of an operation is
+ * measured from when it was scheduled to start. An operation that is delayed by a slow one before it is then
+ * counted as slow as well, instead of being left out of the percentiles. Without a rate every thread runs its
+ * operations back to back.
+ *
+ * Usage: java -cp benchmarks.jar robein9.benchmarks.LoadTest [--option value]...
+ *   --customers N     number of customers (default 10000)
+ *   --accounts M      accounts per customer, every other one a credit account (default 2)
+ *   --threads K       number of threads (default 4)
+ *   --rate R          operations per second over all threads, 0 for as fast as possible (default 0)
+ *   --warmup S        seconds to run before measuring (default 5)
+ *   --duration S      seconds to measure (default 30)
+ *   --mix LIST        weights of the operations (default deposit=40,withdraw=30,getAccount=20,
+ *                     getTransactions=8,closeAccount=1,deleteCustomer=1)
+ *   --report FILE     file to write the report to, it is always printed
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import robein9.BankLogic;
+import robein9.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadTest {
+
+    // Instance variables
+    private final int customers;
+    private final int accountsPerCustomer;
+    private final int threads;
+    private final long rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int[] weights = new int[Operation.values().length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] failures = new LongAdder[Operation.values().length];
+    private final BankLogic bank = new BankLogic();
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+
+    // Constants
+    private static final String DEFAULT_MIX = "deposit=40,withdraw=30,getAccount=20,getTransactions=8,closeAccount=1,deleteCustomer=1";
+    private static final int OPENING_DEPOSIT = 10_000;
+    private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+    /**
+     * The operations of the mix
+     */
+    enum Operation {
+        deposit, withdraw, getAccount, getTransactions, closeAccount, deleteCustomer
+    }
+
+    private LoadTest(Map<String, String> options) {
+        this.customers = Integer.parseInt(options.getOrDefault("customers", "10000"));
+        this.accountsPerCustomer = Integer.parseInt(options.getOrDefault("accounts", "2"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        this.rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        if(customers < threads || accountsPerCustomer < 1) {
+            throw new IllegalArgumentException("Every thread needs at least one customer with at least one account");
+        }
+        for(String entry : options.getOrDefault("mix", DEFAULT_MIX).split(",")) {
+            String[] nameAndWeight = entry.split("=");
+            weights[Operation.valueOf(nameAndWeight[0].trim()).ordinal()] = Integer.parseInt(nameAndWeight[1].trim());
+        }
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            failures[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LoadTest loadTest = new LoadTest(options);
+        String report = loadTest.run();
+        System.out.println(report);
+        if(options.containsKey("report")) {
+            Files.write(Paths.get(options.get("report")), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Fills the bank, runs the warmup and the measurement and returns the report
+    private String run() throws InterruptedException {
+        Worker[] workers = new Worker[threads];
+        for(int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t);
+        }
+        CountDownLatch finished = new CountDownLatch(threads);
+        for(Worker worker : workers) {
+            Thread thread = new Thread(() -> {
+                worker.run();
+                finished.countDown();
+            }, "load-" + worker.index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            failures[i].reset();
+        }
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        finished.await();
+        return report(elapsed);
+    }
+
+    // Formats the results as JSON, latencies in microseconds
+    private String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = 0;
+        StringBuilder operations = new StringBuilder();
+        for(Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            long count = histogram.getCount();
+            if(count == 0) {
+                continue;
+            }
+            total += count;
+            long[] values = histogram.getValuesAtPercentiles(PERCENTILES);
+            if(operations.length() > 0) {
+                operations.append(",\n");
+            }
+            operations.append(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"failed\": %d, \"throughput\": %.1f, "
+                            + "\"meanMicros\": %.3f, \"p50Micros\": %.3f, \"p99Micros\": %.3f, \"p999Micros\": %.3f, \"maxMicros\": %.3f}",
+                    operation, count, failures[operation.ordinal()].sum(), count / seconds, histogram.getMean() / 1e3,
+                    values[0] / 1e3, values[1] / 1e3, values[2] / 1e3, histogram.getMax() / 1e3));
+        }
+        return String.format(Locale.ROOT, "{\n  \"customers\": %d,\n  \"accountsPerCustomer\": %d,\n  \"threads\": %d,\n"
+                        + "  \"targetRate\": %d,\n  \"seconds\": %.3f,\n  \"operations\": %d,\n  \"throughput\": %.1f,\n"
+                        + "  \"byOperation\": {\n%s\n  }\n}",
+                customers, accountsPerCustomer, threads, rate, seconds, total, total / seconds, operations);
+    }
+
+    /**
+     * A thread of the load test with its own customers. The customers of thread t are the ones with an index
+     * that leaves the remainder t when divided by the number of threads.
+     */
+    private final class Worker {
+        private final int index;
+        private final String[] pNos;
+        private final int[][] accountNumbers;
+        private final SplittableRandom random;
+        private final int totalWeight;
+        private long nextPNo;
+
+        private Worker(int index) {
+            this.index = index;
+            int share = customers / threads + (index < customers % threads ? 1 : 0);
+            this.pNos = new String[share];
+            this.accountNumbers = new int[share][accountsPerCustomer];
+            this.random = new SplittableRandom(index);
+            int weightSum = 0;
+            for(int weight : weights) {
+                weightSum += weight;
+            }
+            this.totalWeight = weightSum;
+            this.nextPNo = index;
+            for(int c = 0; c < share; c++) {
+                openCustomer(c);
+            }
+        }
+
+        private void run() {
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+            long scheduled = System.nanoTime();
+            while(running) {
+                if(interval > 0) {
+                    scheduled += interval;
+                    long wait = scheduled - System.nanoTime();
+                    if(wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    scheduled = System.nanoTime();
+                }
+                Operation operation = pickOperation();
+                int c = random.nextInt(pNos.length);
+                int a = random.nextInt(accountsPerCustomer);
+                boolean succeeded = perform(operation, c, a);
+                long latency = System.nanoTime() - scheduled;
+                if(measuring) {
+                    latencies[operation.ordinal()].record(latency);
+                    if(!succeeded) {
+                        failures[operation.ordinal()].increment();
+                    }
+                }
+                replaceRemoved(operation, c, a, succeeded);
+            }
+        }
+
+        // Calls the bank, returns false if the bank turned the operation down
+        private boolean perform(Operation operation, int c, int a) {
+            switch(operation) {
+                case deposit:
+                    return bank.deposit(pNos[c], accountNumbers[c][a], 1 + random.nextInt(1000));
+                case withdraw:
+                    return bank.withdraw(pNos[c], accountNumbers[c][a], 1 + random.nextInt(1000));
+                case getAccount:
+                    return bank.getAccount(pNos[c], accountNumbers[c][a]) != null;
+                case getTransactions:
+                    return bank.getTransactions(pNos[c], accountNumbers[c][a]) != null;
+                case closeAccount:
+                    return bank.closeAccount(pNos[c], accountNumbers[c][a]) != null;
+                default:
+                    return bank.deleteCustomer(pNos[c]) != null;
+            }
+        }
+
+        // Replaces a closed account or a deleted customer, which isn't measured
+        private void replaceRemoved(Operation operation, int c, int a, boolean succeeded) {
+            if(succeeded && operation == Operation.closeAccount) {
+                accountNumbers[c][a] = openAccount(pNos[c], a);
+            } else if(succeeded && operation == Operation.deleteCustomer) {
+                openCustomer(c);
+            }
+        }
+
+        private Operation pickOperation() {
+            int pick = random.nextInt(totalWeight);
+            for(Operation operation : Operation.values()) {
+                pick -= weights[operation.ordinal()];
+                if(pick < 0) {
+                    return operation;
+                }
+            }
+            return Operation.deposit;
+        }
+
+        // Creates a new customer in slot c, personnummer are never reused so a deleted customer isn't found again
+        private void openCustomer(int c) {
+            pNos[c] = String.valueOf(190000000000L + nextPNo);
+            nextPNo += threads;
+            bank.createCustomer("Förnamn", "Efternamn", pNos[c]);
+            for(int a = 0; a < accountsPerCustomer; a++) {
+                accountNumbers[c][a] = openAccount(pNos[c], a);
+            }
+        }
+
+        private int openAccount(String pNo, int a) {
+            int accountNumber = a % 2 == 0 ? bank.createSavingsAccount(pNo) : bank.createCreditAccount(pNo);
+            bank.deposit(pNo, accountNumber, OPENING_DEPOSIT);
+            return accountNumber;
+        }
+    }
+}
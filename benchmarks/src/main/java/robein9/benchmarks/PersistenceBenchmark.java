@@ -0,0 +1,97 @@
+/**
+ * Description
+ * Benchmarks of saving the bank to its snapshot and loading it again. BankLogic uses the robein9_files
+ * directory of the working directory, so the benchmarks must be run from a directory without a bank in it.
+ * The setup refuses to start if there already is a saved bank there, and the files are deleted afterwards.
+ *
+ * A save after the first only writes the customers that changed, so a few customers are changed before
+ * each save. The same bank is used by all benchmarks, since every bank merges its saves in a thread of its own.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import org.openjdk.jmh.annotations.*;
+import robein9.BankLogic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int bankSize;
+
+    private static final Path FILES_DIR = Paths.get("robein9_files");
+    private static final Path SNAPSHOT = FILES_DIR.resolve("bank.dat");
+    private static final int TRANSACTIONS_PER_ACCOUNT = 10;
+    private static final int CHANGED_PER_SAVE = 10;
+
+    private BankLogic bank;
+    private int[] accountNumbers;
+    private int nextChanged;
+
+    @Setup(Level.Trial)
+    public void saveBank() throws IOException {
+        if(Files.exists(SNAPSHOT)) {
+            throw new IllegalStateException(SNAPSHOT.toAbsolutePath() + " already exists, run the benchmarks from an empty directory");
+        }
+        Files.createDirectories(FILES_DIR);
+        bank = new BankLogic();
+        accountNumbers = new int[bankSize];
+        for(int i = 0; i < bankSize; i++) {
+            String pNo = CustomerBenchmark.personnummer(i);
+            bank.createCustomer("Förnamn" + i, "Efternamn" + i, pNo);
+            accountNumbers[i] = bank.createSavingsAccount(pNo);
+            for(int j = 0; j < TRANSACTIONS_PER_ACCOUNT; j++) {
+                bank.deposit(pNo, accountNumbers[i], 100 + j);
+            }
+        }
+        bank.writeCustomersToFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        try(Stream<Path> files = Files.walk(FILES_DIR)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean writeCustomersToFile() throws IOException {
+        changeCustomers();
+        return bank.writeCustomersToFile();
+    }
+
+    @Benchmark
+    public boolean loadCustomerFromFile() throws IOException, ClassNotFoundException {
+        return bank.loadCustomerFromFile();
+    }
+
+    @Benchmark
+    public boolean roundTrip() throws IOException, ClassNotFoundException {
+        changeCustomers();
+        return bank.writeCustomersToFile() && bank.loadCustomerFromFile();
+    }
+
+    // Makes a deposit for the next few customers, so the next save has something to write
+    private void changeCustomers() {
+        for(int i = 0; i < CHANGED_PER_SAVE; i++) {
+            int changed = nextChanged++ % bankSize;
+            bank.deposit(CustomerBenchmark.personnummer(changed), accountNumbers[changed], 1);
+        }
+    }
+}
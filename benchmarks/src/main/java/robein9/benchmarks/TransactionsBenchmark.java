@@ -0,0 +1,61 @@
+/**
+ * Description
+ * Benchmarks of reading the transaction history of an account with a long history. getTransactions formats
+ * the whole history, while the first page and the latest transactions only copy a few of them, which shows
+ * what the paginated queries save.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.benchmarks;
+
+// Imports
+import org.openjdk.jmh.annotations.*;
+import robein9.BankLogic;
+import robein9.TransactionPage;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TransactionsBenchmark {
+
+    @Param({"1000", "100000"})
+    public int historyLength;
+
+    private static final String PNO = CustomerBenchmark.personnummer(0);
+    private static final int PAGE_SIZE = 50;
+
+    private BankLogic bank;
+    private int accountNumber;
+
+    @Setup(Level.Trial)
+    public void fillHistory() {
+        bank = new BankLogic();
+        bank.createCustomer("Förnamn", "Efternamn", PNO);
+        accountNumber = bank.createSavingsAccount(PNO);
+        for(int i = 0; i < historyLength; i++) {
+            bank.deposit(PNO, accountNumber, 1 + i % 1000);
+        }
+    }
+
+    @Benchmark
+    public List<String> getTransactions() {
+        return bank.getTransactions(PNO, accountNumber);
+    }
+
+    @Benchmark
+    public TransactionPage getFirstPage() {
+        return bank.getTransactionPage(PNO, accountNumber, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public TransactionPage getLatestTransactions() {
+        return bank.getLatestTransactions(PNO, accountNumber, PAGE_SIZE);
+    }
+}
@@ -2,6 +2,12 @@
  * Description
  * This class represents an account that a customer owns. The major functionality includes
  * methods for depositing and withdrawing money from the account and for calculating interest.
+ * The balance is kept as a long in minor units (öre), see the Money class, and converted to
+ * BigDecimal only by the methods that take or return BigDecimal.
+ * The balance and the transactions are guarded by the lock of the account object itself, so every
+ * method that reads or changes them is synchronized.
+ * With Java serialization an account keeps the fields of the first release, a BigDecimal balance and
+ * the formatted transactions, so bank files saved back then are read into öre and a TransactionLog.
  *
  * @author Robert Einer, robein-9
  */
@@ -9,41 +15,59 @@
 package robein9;
 
 // Imports
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.math.BigDecimal;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public abstract class Account implements Serializable {
 
     // Instance variables
-    private BigDecimal balance;
-    private final int accountNumber;
-    private final String accountType;
-    private final List<String> transactions = new LinkedList<>();
+    private long balance;
+    // not final, since readObject sets them
+    private int accountNumber;
+    private String accountType;
+    private TransactionLog transactions = new TransactionLog();
 
-    // Class variable
-    private static int lastAssignedAccountNumber = 1000;
+    // Constants
+    // the version of the first release, so bank files saved with Java serialization back then still load
+    private static final long serialVersionUID = -2842125861740105715L;
+    // the serialized fields of the first release
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("accountNumber", int.class),
+            new ObjectStreamField("accountType", String.class),
+            new ObjectStreamField("balance", BigDecimal.class),
+            new ObjectStreamField("transactions", List.class)
+    };
 
     /**
      * Constructor for the account class
+     * @param accountType the name of the type of account
+     * @param accountNumber the number of the account, handed out by an AccountNumberAllocator
      */
-    public Account(String accountType) {
-        this.balance = new BigDecimal("0");
+    public Account(String accountType, int accountNumber) {
+        this.balance = 0;
         this.accountType = accountType;
-        lastAssignedAccountNumber++;
-        this.accountNumber = lastAssignedAccountNumber;
+        this.accountNumber = accountNumber;
     }
 
     /**
      * Getters for balance, interest rate, account number and account type.
      */
 
-    public BigDecimal getBalance() {
+    public synchronized BigDecimal getBalance() {
+        return Money.toBigDecimal(this.balance);
+    }
+    public synchronized long getBalanceMinor() {
         return this.balance;
     }
     public abstract BigDecimal getInterestRate();
+    public abstract long getInterestRateBasisPoints();
     public int getAccountNumber() {
         return this.accountNumber;
     }
@@ -51,28 +75,75 @@ public abstract class Account implements Serializable {
         return this.accountType;
     }
     public List<String> getTransactions() {
-        return this.transactions;
+        return this.copyTransactionLog().asFormattedList();
     }
-    public int getLastAssignedAccountNumber() {
-        return lastAssignedAccountNumber;
+    public synchronized TransactionLog copyTransactionLog() {
+        return this.transactions.copy();
     }
-    
+
     /**
-     * Setters
+     * Copies a page of the transactions that were made in a time range. The range is found with a
+     * binary search, so only the transactions on the page are copied.
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @param offset the number of transactions in the range to skip
+     * @param limit the largest number of transactions on the page
+     * @return the page
      */
-    // setBalance uses protected access modifier to only be accessible from subclasses
-    protected void setBalance(BigDecimal amount) {
-        this.balance = this.balance.subtract(amount);
+    public synchronized TransactionPage getTransactionPage(long fromTime, long toTime, int offset, int limit) {
+        if(offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit can't be negative");
+        }
+        int first = this.transactions.indexOfTime(fromTime);
+        int end = Math.max(first, this.transactions.indexOfTime(toTime));
+        int start = (int) Math.min((long) first + offset, end);
+        int stop = (int) Math.min((long) start + limit, end);
+        return new TransactionPage(end - first, start - first, this.transactions.copyRange(start, stop));
     }
-    public void setLastAssignedAccountNumber(int newAccNr) {
-        lastAssignedAccountNumber = newAccNr;
+
+    /**
+     * Copies the latest transactions of the account
+     * @param limit the largest number of transactions to copy
+     * @return the page, with the transactions in the order they were made
+     */
+    public synchronized TransactionPage getLatestTransactions(int limit) {
+        if(limit < 0) {
+            throw new IllegalArgumentException("Limit can't be negative");
+        }
+        int size = this.transactions.size();
+        int start = Math.max(0, size - limit);
+        return new TransactionPage(size, start, this.transactions.copyRange(start, size));
     }
 
     /**
      * Method for calculating the interest
      * @return the interest as Big Decimal
      */
-    public abstract BigDecimal calculateInterest();
+    public BigDecimal calculateInterest() {
+        return Money.toBigDecimal(this.calculateInterestMinor());
+    }
+
+    /**
+     * Method for calculating the interest on the current balance, rounded to whole öre
+     * @return the interest in öre
+     */
+    public synchronized long calculateInterestMinor() {
+        return Money.percentOf(this.balance, this.getInterestRateBasisPoints());
+    }
+
+    /**
+     * Calculates the interest on the current balance and adds it to the account. Interest on a
+     * negative balance is negative and is charged to the account.
+     * @return the interest in öre that was posted, 0 if there was nothing to post
+     */
+    public synchronized long postInterest() {
+        long interest = this.calculateInterestMinor();
+        if(interest != 0) {
+            this.balance += interest;
+            this.addTransaction(interest);
+        }
+        return interest;
+    }
 
     /**
      * This method will deposit money in the account
@@ -80,8 +151,27 @@ public abstract class Account implements Serializable {
      * @return balance which is the updated balance
      */
     public BigDecimal depositMoney(BigDecimal amount) {
-        this.balance = this.balance.add(amount);
-        this.addTransaction(amount);
+        return Money.toBigDecimal(this.depositMinor(Money.fromBigDecimal(amount)));
+    }
+
+    /**
+     * This method will deposit money in the account
+     * @param amount is the amount in öre to add to the account
+     * @return the updated balance in öre
+     */
+    public long depositMinor(long amount) {
+        return this.depositMinor(amount, TransactionLog.NO_LINK);
+    }
+
+    /**
+     * This method will deposit money in the account as part of linked transactions
+     * @param amount is the amount in öre to add to the account
+     * @param link the id shared by the linked transactions
+     * @return the updated balance in öre
+     */
+    public synchronized long depositMinor(long amount, long link) {
+        this.balance += amount;
+        this.addTransaction(amount, link);
         return this.balance;
     }
 
@@ -90,21 +180,163 @@ public abstract class Account implements Serializable {
      * @param amount is the amount to withdraw
      * @return true if withdrawal was successful, false otherwise.
      */
-    public abstract boolean withdrawMoney(BigDecimal amount);
+    public boolean withdrawMoney(BigDecimal amount) {
+        return this.withdrawMinor(Money.fromBigDecimal(amount));
+    }
+
+    /**
+     * This method will withdraw money from the account
+     * @param amount is the amount in öre to withdraw
+     * @return true if withdrawal was successful, false otherwise.
+     */
+    public boolean withdrawMinor(long amount) {
+        return this.withdrawMinor(amount, TransactionLog.NO_LINK);
+    }
 
+    /**
+     * This method will withdraw money from the account as part of linked transactions. The rules
+     * of the type of account decide if the withdrawal is allowed and how much is debited.
+     * @param amount is the amount in öre to withdraw
+     * @param link the id shared by the linked transactions
+     * @return true if withdrawal was successful, false otherwise.
+     */
+    public synchronized boolean withdrawMinor(long amount, long link) {
+        long debit = this.debitFor(amount);
+        if(debit < 0) {
+            return false;
+        }
+        this.balance -= debit;
+        this.addTransaction(-debit, link);
+        this.withdrawalMade();
+        return true;
+    }
 
     /**
-     * Saves each successful transaction in a list
-     * @param amount the amount that was deposited/withdrawn in the transaction
+     * Decides how much to debit the account when the specified amount is withdrawn. Called with
+     * the lock of the account held.
+     * @param amount is the amount in öre to withdraw
+     * @return the amount in öre to debit, including any fees, or -1 if the withdrawal isn't allowed
      */
-    public void addTransaction(BigDecimal amount) {
-        NumberFormat percentFormat = NumberFormat.getPercentInstance(new Locale("sv","SE"));
-        percentFormat.setMaximumFractionDigits(1);
+    protected abstract long debitFor(long amount);
+
+    /**
+     * Called with the lock of the account held after a withdrawal has been debited
+     */
+    protected void withdrawalMade() {
+    }
+
+    /**
+     * Tells if withdrawalMade has been called, for accounts whose rules depend on it
+     * @return true if a withdrawal has been made and remembered, false otherwise
+     */
+    protected boolean isWithdrawalMade() {
+        return false;
+    }
+
+
+    /**
+     * Saves each successful transaction in the transaction log. Only the time, amount and
+     * resulting balance are recorded, formatting is done when the transaction is displayed.
+     * @param amount the amount in öre that was deposited/withdrawn in the transaction
+     */
+    protected synchronized void addTransaction(long amount) {
+        this.addTransaction(amount, TransactionLog.NO_LINK);
+    }
+
+    // Saves a transaction that is linked to other transactions by the link id. The log is kept in
+    // time order even if the clock is turned back, so it can be searched by time.
+    private void addTransaction(long amount, long link) {
+        long timestamp = System.currentTimeMillis();
+        int size = transactions.size();
+        if(size > 0) {
+            timestamp = Math.max(timestamp, transactions.getTimestamp(size - 1));
+        }
+        transactions.add(timestamp, amount, this.balance, link);
+    }
+
+    /**
+     * Appends the last transaction of the account to the journal
+     * @param journal the journal to append to
+     * @param kind the kind of transaction, Journal.DEPOSIT, WITHDRAWAL or INTEREST
+     * @return the sequence number of the journal record
+     */
+    synchronized long journalLastTransaction(Journal journal, byte kind) {
+        int last = transactions.size() - 1;
+        return journal.transaction(this.accountNumber, kind, transactions.getAmount(last),
+                transactions.getTimestamp(last), transactions.getLink(last));
+    }
+
+    /**
+     * Applies a transaction read back from the journal exactly as it was recorded
+     * @param kind the kind of transaction, Journal.DEPOSIT, WITHDRAWAL or INTEREST
+     * @param amount the amount in öre that was added to the balance, negative for withdrawals
+     * @param timestamp the time of the transaction
+     * @param link the id shared by linked transactions
+     */
+    synchronized void replayTransaction(byte kind, long amount, long timestamp, long link) {
+        this.balance += amount;
+        transactions.add(timestamp, amount, this.balance, link);
+        if(kind == Journal.WITHDRAWAL) {
+            this.withdrawalMade();
+        }
+    }
+
+    /**
+     * Gets the transaction log itself, the caller holds the lock of the account
+     */
+    TransactionLog transactionLog() {
+        return this.transactions;
+    }
+
+    /**
+     * Restores the state of an account read back from a snapshot
+     * @param balance the balance in öre
+     * @param transactions the transaction log
+     * @param withdrawalMade true if a withdrawal had been made
+     */
+    synchronized void restore(long balance, TransactionLog transactions, boolean withdrawalMade) {
+        this.balance = balance;
+        this.transactions = transactions;
+        if(withdrawalMade) {
+            this.withdrawalMade();
+        }
+    }
+
+    /**
+     * Moves the transactions of the account to a transaction store, which keeps them from then on
+     * @param store the transaction store
+     */
+    synchronized void storeTransactionsIn(TransactionStore store) {
+        this.transactions = this.transactions.moveTo(store, this.accountNumber);
+    }
+
+    // Serializes the account in the fields of the first release while holding its lock so the balance and
+    // transactions are consistent
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("accountNumber", this.accountNumber);
+        fields.put("accountType", this.accountType);
+        fields.put("balance", Money.toBigDecimal(this.balance));
+        fields.put("transactions", new ArrayList<>(this.transactions.asFormattedList()));
+        out.writeFields();
+    }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String strDate = sdf.format(new Date());
-        String newTransaction = strDate + " " + NumberFormat.getCurrencyInstance(new Locale("sv","SE")).format(amount) + " Saldo: " + NumberFormat.getCurrencyInstance(new Locale("sv","SE")).format(this.balance);
-        transactions.add(newTransaction);
+    // Reads an account in the fields of the first release and converts the balance and the transactions
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        BigDecimal legacyBalance = (BigDecimal) fields.get("balance", null);
+        Object legacyTransactions = fields.get("transactions", null);
+        if(legacyBalance == null || !(legacyTransactions instanceof List)) {
+            throw new InvalidObjectException("The account has no balance or transactions");
+        }
+        this.accountNumber = fields.get("accountNumber", 0);
+        this.accountType = (String) fields.get("accountType", null);
+        try {
+            this.balance = Money.fromBigDecimal(legacyBalance);
+        } catch (ArithmeticException e) {
+            throw new InvalidObjectException("The balance of account " + this.accountNumber + " is too large");
+        }
+        this.transactions = TransactionLog.parseFormatted((List<?>) legacyTransactions);
     }
 
 }
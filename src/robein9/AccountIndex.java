@@ -0,0 +1,218 @@
+/**
+ * Description
+ * This class is a bank-wide index from account number to the account and the customer that owns it.
+ * It is an open addressing hash table keyed directly on the primitive account number, so a lookup
+ * is a single probe sequence without boxing the key or copying any account lists. The account numbers
+ * of customers that aren't loaded are in the index with only their owner, see CustomerPager.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.Arrays;
+
+public class AccountIndex {
+
+    // Instance variables
+    private int[] keys;
+    private Account[] accounts;
+    private Customer[] owners;
+    private int size = 0;
+
+    // Constants
+    private static final int FREE = 0;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Constructor
+     */
+    public AccountIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the number of accounts in the index
+     * @return the number of accounts
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the account with the specified account number
+     * @param accountNumber the account number
+     * @return the account, or null if there is no such account
+     */
+    public Account get(int accountNumber) {
+        int slot = find(accountNumber);
+        return slot < 0 ? null : accounts[slot];
+    }
+
+    /**
+     * Gets the customer that owns the account with the specified account number
+     * @param accountNumber the account number
+     * @return the owner, or null if there is no such account
+     */
+    public Customer getOwner(int accountNumber) {
+        int slot = find(accountNumber);
+        return slot < 0 ? null : owners[slot];
+    }
+
+    /**
+     * Gets the account with the specified account number if it is owned by the customer
+     * with the specified personnummer
+     * @param pNo personnummer of the customer
+     * @param accountNumber the account number
+     * @return the account, or null if there is no such account or it belongs to someone else
+     */
+    public Account get(String pNo, int accountNumber) {
+        int slot = find(accountNumber);
+        if(slot < 0 || !owners[slot].getPNo().equals(pNo)) {
+            return null;
+        }
+        return accounts[slot];
+    }
+
+    /**
+     * Adds an account to the index, replacing any account with the same number
+     * @param account the account to add
+     * @param owner the customer that owns the account
+     */
+    public void put(Account account, Customer owner) {
+        insert(account.getAccountNumber(), account, owner);
+    }
+
+    /**
+     * Adds an account number that belongs to a customer whose accounts aren't loaded, replacing any
+     * account with the same number. Getting the account returns null until it is put in the index.
+     * @param accountNumber the account number
+     * @param owner the customer that owns the account
+     */
+    public void putOwner(int accountNumber, Customer owner) {
+        insert(accountNumber, null, owner);
+    }
+
+    /**
+     * Removes the account with the specified account number from the index
+     * @param accountNumber the account number
+     * @return the removed account, or null if there was no such account
+     */
+    public Account remove(int accountNumber) {
+        int slot = find(accountNumber);
+        if(slot < 0) {
+            return null;
+        }
+        Account removed = accounts[slot];
+        // shift the following entries of the probe sequence back so no lookups are broken
+        int mask = keys.length - 1;
+        int next = (slot + 1) & mask;
+        while(keys[next] != FREE) {
+            int home = mix(keys[next]) & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                accounts[slot] = accounts[next];
+                owners[slot] = owners[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = FREE;
+        accounts[slot] = null;
+        owners[slot] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Copies all accounts in the index to an array, leaving out the accounts that aren't loaded
+     * @return the accounts, in no particular order
+     */
+    public Account[] toArray() {
+        Account[] copy = new Account[size];
+        int next = 0;
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != FREE && accounts[i] != null) {
+                copy[next++] = accounts[i];
+            }
+        }
+        return next == size ? copy : Arrays.copyOf(copy, next);
+    }
+
+    /**
+     * Removes all accounts from the index
+     */
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Puts the entry in its slot, replacing any entry with the same account number
+    private void insert(int accountNumber, Account account, Customer owner) {
+        if(accountNumber == FREE) {
+            throw new IllegalArgumentException("Account number " + FREE + " can't be indexed");
+        }
+        if((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = mix(accountNumber) & mask;
+        while(keys[slot] != FREE && keys[slot] != accountNumber) {
+            slot = (slot + 1) & mask;
+        }
+        if(keys[slot] == FREE) {
+            size++;
+        }
+        keys[slot] = accountNumber;
+        accounts[slot] = account;
+        owners[slot] = owner;
+    }
+
+    // Returns the slot of the account number, or -1 if it isn't in the index
+    private int find(int accountNumber) {
+        if(accountNumber == FREE) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(accountNumber) & mask;
+        while(keys[slot] != FREE) {
+            if(keys[slot] == accountNumber) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Spreads sequential account numbers over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Creates empty arrays with the given capacity, which must be a power of two
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        accounts = new Account[capacity];
+        owners = new Customer[capacity];
+    }
+
+    // Moves all entries to a table with the new capacity
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Account[] oldAccounts = accounts;
+        Customer[] oldOwners = owners;
+        allocate(capacity);
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != FREE) {
+                insert(oldKeys[i], oldAccounts[i], oldOwners[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Description
+ * This class hands out account numbers. Each thread reserves a block of numbers from a shared atomic
+ * counter and then assigns numbers from its own block, so threads creating accounts at the same time
+ * rarely touch shared state and never get the same number. The highest number that has actually been
+ * assigned is tracked separately so it can be saved with the bank and restored when the bank is loaded.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+public class AccountNumberAllocator {
+
+    // Instance variables
+    private final AtomicInteger reserved;
+    private final LongAccumulator lastAssigned = new LongAccumulator(Math::max, 0);
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+    private volatile int generation = 0;
+
+    // Constants
+    public static final int FIRST_ACCOUNT_NUMBER = 1001;
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * Constructor
+     */
+    public AccountNumberAllocator() {
+        this.reserved = new AtomicInteger(FIRST_ACCOUNT_NUMBER - 1);
+        this.lastAssigned.accumulate(FIRST_ACCOUNT_NUMBER - 1);
+    }
+
+    /**
+     * Assigns the next account number for the calling thread
+     * @return a number that hasn't been assigned to any other account
+     */
+    public int next() {
+        Block block = blocks.get();
+        if(block.generation != generation || block.next > block.last) {
+            reserveBlock(block);
+        }
+        int accountNumber = block.next++;
+        lastAssigned.accumulate(accountNumber);
+        return accountNumber;
+    }
+
+    /**
+     * Gets the highest account number that has been assigned. This is what is saved with the bank.
+     * @return the last assigned account number
+     */
+    public int getLastAssigned() {
+        return (int) lastAssigned.get();
+    }
+
+    /**
+     * Continues numbering after the specified account number, for example when a saved bank is loaded.
+     * Blocks that threads have reserved before the reset are thrown away.
+     * @param lastAssignedNumber the last account number that was assigned
+     */
+    public synchronized void reset(int lastAssignedNumber) {
+        reserved.set(lastAssignedNumber);
+        lastAssigned.reset();
+        lastAssigned.accumulate(lastAssignedNumber);
+        generation++;
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Reserves a new block of numbers from the shared counter for the calling thread
+    private void reserveBlock(Block block) {
+        int currentGeneration = generation;
+        int last = reserved.addAndGet(BLOCK_SIZE);
+        block.next = last - BLOCK_SIZE + 1;
+        block.last = last;
+        block.generation = currentGeneration;
+    }
+
+    // The numbers that one thread has reserved
+    private static class Block {
+        private int next = 1;
+        private int last = 0;
+        private int generation = -1;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Description
+ * This is the Java Flight Recorder event of a deposit, a withdrawal, or an account that is opened or closed,
+ * so slow bank operations can be lined up with the GC pauses and lock contention of the same recording.
+ * The event has the account number and type and the outcome of the operation.
+ *
+ * Only operations slower than the threshold are recorded, 1 ms by default, which can be changed in the
+ * recording settings. When nothing is recording, beginning and committing an event costs next to nothing.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("robein9.AccountOperation")
+@Label("Account Operation")
+@Category({"Bank", "Accounts"})
+@Description("A deposit, withdrawal, opening or closing of an account")
+@Threshold("1 ms")
+@StackTrace(false)
+final class AccountOperationEvent extends Event {
+
+    // Instance variables
+    @Label("Operation")
+    String operation;
+    @Label("Account Number")
+    int accountNumber;
+    @Label("Account Type")
+    String accountType;
+    @Label("Amount")
+    @Description("The amount in kronor, 0 when an account is opened or closed")
+    long amount;
+    @Label("Outcome")
+    String outcome;
+
+    // Constants
+    static final String DEPOSIT = "Deposit";
+    static final String WITHDRAW = "Withdraw";
+    static final String OPEN = "Open";
+    static final String CLOSE = "Close";
+    static final String SUCCEEDED = "Succeeded";
+    static final String REJECTED = "Rejected";
+    static final String NO_SUCH_ACCOUNT = "No such account";
+    static final String NO_SUCH_CUSTOMER = "No such customer";
+
+    private AccountOperationEvent(String operation, int accountNumber, long amount) {
+        this.operation = operation;
+        this.accountNumber = accountNumber;
+        this.amount = amount;
+    }
+
+    /**
+     * Begins timing an operation
+     * @param operation the operation, one of the operation constants
+     * @param accountNumber the account number, or -1 if the account isn't opened yet
+     * @param amount the amount in kronor, or 0
+     * @return the event to end when the operation is done
+     */
+    static AccountOperationEvent begin(String operation, int accountNumber, long amount) {
+        AccountOperationEvent event = new AccountOperationEvent(operation, accountNumber, amount);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the operation and commits the event if it is recorded and slower than the threshold
+     * @param account the account, or null if there was no such account
+     * @param outcome the outcome, one of the outcome constants
+     */
+    void end(Account account, String outcome) {
+        end();
+        if(shouldCommit()) {
+            if(account != null) {
+                this.accountNumber = account.getAccountNumber();
+                this.accountType = account.getAccountType();
+            }
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Description
+ * This class is an immutable view of an account, returned by the typed queries of BankLogic. It holds the
+ * account number, type, balance, interest rate and the interest on the balance as they were when the view
+ * was taken, unformatted, so the values are only formatted when they are shown.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+public final class AccountView {
+
+    // Instance variables
+    private final int accountNumber;
+    private final String accountType;
+    private final long balance;
+    private final long interestRateBasisPoints;
+    private final long interest;
+
+    // Constants
+    private static final ThreadLocal<NumberFormat> CURRENCY_FORMAT =
+            ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(new Locale("sv","SE")));
+    private static final ThreadLocal<NumberFormat> PERCENT_FORMAT = ThreadLocal.withInitial(() -> {
+        NumberFormat percentFormat = NumberFormat.getPercentInstance(new Locale("sv","SE"));
+        percentFormat.setMaximumFractionDigits(1);
+        return percentFormat;
+    });
+
+    private AccountView(int accountNumber, String accountType, long balance, long interestRateBasisPoints, long interest) {
+        this.accountNumber = accountNumber;
+        this.accountType = accountType;
+        this.balance = balance;
+        this.interestRateBasisPoints = interestRateBasisPoints;
+        this.interest = interest;
+    }
+
+    /**
+     * Takes a view of an account, reading the balance and the rate together so they match each other
+     * @param account the account
+     * @return the view
+     */
+    static AccountView of(Account account) {
+        synchronized(account) {
+            return new AccountView(account.getAccountNumber(), account.getAccountType(), account.getBalanceMinor(),
+                    account.getInterestRateBasisPoints(), account.calculateInterestMinor());
+        }
+    }
+
+    /**
+     * Getters for the account number, the account type, the balance in öre, the interest rate in basis
+     * points and the interest on the balance in öre
+     */
+    public int getAccountNumber() {
+        return this.accountNumber;
+    }
+    public String getAccountType() {
+        return this.accountType;
+    }
+    public long getBalance() {
+        return this.balance;
+    }
+    public long getInterestRateBasisPoints() {
+        return this.interestRateBasisPoints;
+    }
+    public long getInterest() {
+        return this.interest;
+    }
+
+    /**
+     * Methods that format the values of the account for display
+     */
+    public String formatBalance() {
+        return CURRENCY_FORMAT.get().format(BigDecimal.valueOf(balance, 2));
+    }
+    public String formatInterestRate() {
+        return PERCENT_FORMAT.get().format(BigDecimal.valueOf(interestRateBasisPoints, 4));
+    }
+    public String formatInterest() {
+        return CURRENCY_FORMAT.get().format(BigDecimal.valueOf(interest, 2));
+    }
+
+    /**
+     * Formats the account the way BankLogic.getAccount presents it, with the interest rate
+     * @return account number, balance, account type and interest rate separated by spaces
+     */
+    public String format() {
+        return accountNumber + " " + formatBalance() + " " + accountType + " " + formatInterestRate();
+    }
+
+    /**
+     * Formats the account the way BankLogic.closeAccount presents it, with the interest on the balance
+     * @return account number, balance, account type and interest separated by spaces
+     */
+    public String formatClosed() {
+        return accountNumber + " " + formatBalance() + " " + accountType + " " + formatInterest();
+    }
+}
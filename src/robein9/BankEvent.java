@@ -0,0 +1,152 @@
+/**
+ * Description
+ * This class is one change to the bank as an immutable domain event: a customer created, renamed or
+ * deleted, an account opened or closed, or a transaction made on an account. Every change that BankLogic
+ * makes is appended to the journal as one of these events, and the state of the bank is rebuilt by
+ * applying the events in order to a Journal.Handler, the reducer of the bank.
+ *
+ * Every event has the time it happened, in milliseconds since the epoch, so the state of the bank can be
+ * rebuilt as it was at any point in time. Events that were journaled before the journal had timestamps
+ * have the time 0, except transactions that always had their own timestamp.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+public final class BankEvent {
+
+    // Instance variables
+    private final byte type;
+    private final long timestamp;
+    private final String pNo;
+    private final String firstName;
+    private final String lastName;
+    private final int accountNumber;
+    private final byte accountType;
+    private final byte kind;
+    private final long amount;
+    private final long link;
+
+    private BankEvent(byte type, long timestamp, String pNo, String firstName, String lastName, int accountNumber,
+                      byte accountType, byte kind, long amount, long link) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.pNo = pNo;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.accountNumber = accountNumber;
+        this.accountType = accountType;
+        this.kind = kind;
+        this.amount = amount;
+        this.link = link;
+    }
+
+    /**
+     * Methods that create an event for each kind of change, the types are the record types of the journal
+     */
+    public static BankEvent customerCreated(long timestamp, String pNo, String firstName, String lastName) {
+        return new BankEvent(Journal.CUSTOMER_CREATED, timestamp, pNo, firstName, lastName, 0, (byte) 0, (byte) 0, 0, 0);
+    }
+    public static BankEvent customerRenamed(long timestamp, String pNo, String firstName, String lastName) {
+        return new BankEvent(Journal.CUSTOMER_RENAMED, timestamp, pNo, firstName, lastName, 0, (byte) 0, (byte) 0, 0, 0);
+    }
+    public static BankEvent customerDeleted(long timestamp, String pNo) {
+        return new BankEvent(Journal.CUSTOMER_DELETED, timestamp, pNo, null, null, 0, (byte) 0, (byte) 0, 0, 0);
+    }
+    public static BankEvent accountOpened(long timestamp, String pNo, int accountNumber, byte accountType) {
+        return new BankEvent(Journal.ACCOUNT_OPENED, timestamp, pNo, null, null, accountNumber, accountType, (byte) 0, 0, 0);
+    }
+    public static BankEvent accountClosed(long timestamp, String pNo, int accountNumber) {
+        return new BankEvent(Journal.ACCOUNT_CLOSED, timestamp, pNo, null, null, accountNumber, (byte) 0, (byte) 0, 0, 0);
+    }
+    public static BankEvent transaction(int accountNumber, byte kind, long amount, long timestamp, long link) {
+        return new BankEvent(Journal.TRANSACTION, timestamp, null, null, null, accountNumber, (byte) 0, kind, amount, link);
+    }
+
+    /**
+     * Getters, the fields that don't belong to the type of the event are null or 0
+     */
+    public byte getType() {
+        return this.type;
+    }
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+    public String getPNo() {
+        return this.pNo;
+    }
+    public String getFirstName() {
+        return this.firstName;
+    }
+    public String getLastName() {
+        return this.lastName;
+    }
+    public int getAccountNumber() {
+        return this.accountNumber;
+    }
+    public byte getAccountType() {
+        return this.accountType;
+    }
+    public byte getKind() {
+        return this.kind;
+    }
+    public long getAmount() {
+        return this.amount;
+    }
+    public long getLink() {
+        return this.link;
+    }
+
+    /**
+     * Checks if the event is a transaction, the only kind of event that names an account but not a customer
+     * @return true if the event is a transaction
+     */
+    public boolean isTransaction() {
+        return this.type == Journal.TRANSACTION;
+    }
+
+    /**
+     * Applies the event to a reducer
+     * @param handler the reducer
+     */
+    public void applyTo(Journal.Handler handler) {
+        switch(type) {
+            case Journal.CUSTOMER_CREATED:
+                handler.customerCreated(pNo, firstName, lastName);
+                break;
+            case Journal.CUSTOMER_RENAMED:
+                handler.customerRenamed(pNo, firstName, lastName);
+                break;
+            case Journal.CUSTOMER_DELETED:
+                handler.customerDeleted(pNo);
+                break;
+            case Journal.ACCOUNT_OPENED:
+                handler.accountOpened(pNo, accountNumber, accountType);
+                break;
+            case Journal.ACCOUNT_CLOSED:
+                handler.accountClosed(pNo, accountNumber);
+                break;
+            default:
+                handler.transaction(accountNumber, kind, amount, timestamp, link);
+                break;
+        }
+    }
+
+    public String toString() {
+        switch(type) {
+            case Journal.CUSTOMER_CREATED:
+                return "Customer created " + pNo + " " + firstName + " " + lastName;
+            case Journal.CUSTOMER_RENAMED:
+                return "Customer renamed " + pNo + " " + firstName + " " + lastName;
+            case Journal.CUSTOMER_DELETED:
+                return "Customer deleted " + pNo;
+            case Journal.ACCOUNT_OPENED:
+                return "Account opened " + pNo + " " + accountNumber;
+            case Journal.ACCOUNT_CLOSED:
+                return "Account closed " + pNo + " " + accountNumber;
+            default:
+                return "Transaction " + accountNumber + " " + amount;
+        }
+    }
+}
@@ -5,31 +5,121 @@
  * customer and their accounts, editing that information, adding and removing customers
  * as well as depositing and withdrawing money.
  *
+ * The class is safe to use from many threads. The customer registry and the account index are
+ * guarded by a read/write lock: account lifecycle operations take the write lock, all other operations
+ * share the read lock. Balances are guarded by the lock of each account, so deposits and withdrawals
+ * on different accounts never wait for each other.
+ *
+ * Customers can be found while their personnummer or name is typed with searchCustomers(), which reads a
+ * search index that the customer registry keeps up to date, see CustomerSearchIndex.
+ *
+ * When a journal is opened with openJournal(), every change is appended to a write-ahead journal
+ * before the method returns, and saving the bank writes a snapshot and empties the journal. Loading
+ * the bank replays the journal on top of the last snapshot. The records of the journal are the events
+ * of the bank, see BankEvent, and they are applied by one reducer in parallel partitions of customers.
+ *
+ * When the history is kept with openHistory(), the journal is archived instead of thrown away when it is
+ * emptied, and every now and then a base with the whole bank is written next to it. stateAsOf() rebuilds
+ * the bank as it was at a point in time from the last base before it and the events that followed.
+ *
+ * When a transaction store is opened with openTransactionStore(), the transaction history of the
+ * accounts is kept in memory-mapped files instead of on the heap and is not written to the snapshot.
+ *
+ * When paging is turned on with usePagedCustomers(), loading the bank only reads the offset index of
+ * the snapshot, and the accounts of a customer are read when the customer is first used. Only a bounded
+ * number of customers stay in memory, the least recently used ones are evicted, see CustomerPager.
+ * Customers are loaded under the write lock, which is then downgraded to the read lock so the customers
+ * can't be evicted while they are used.
+ *
+ * When metrics are turned on with enableMetrics(), the calls to the public operations are counted and timed
+ * and published as a platform MXBean, see BankMetrics. With metrics off, each call reads one volatile field.
+ *
+ * close() closes the journal, the pager and the transaction store and leaves the bank empty, so it can be
+ * opened again the same way to load what was saved.
+ *
  * @author Robert Einer, robein-9
  */
 
 package robein9;
 
 // Imports
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
-import java.math.BigDecimal;
-import java.text.NumberFormat;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class BankLogic {
+public class BankLogic implements Closeable {
 
     // Instance variables
-    private final List<Customer> customers;
-    final private int FIRST_INDEX = 0;
+    private final CustomerRegistry customers;
+    private final AccountIndex accounts;
+    private final AccountNumberAllocator accountNumbers;
+    private final AtomicLong transferIds;
+    private final ReentrantReadWriteLock registryLock;
+    private final Lock readLock;
+    private final Lock writeLock;
+    private volatile Journal journal;
+    private long journalGeneration = 0;
+    private TransactionStore transactionStore;
+    private volatile CustomerPager pager;
+    private final Set<String> changedCustomers = ConcurrentHashMap.newKeySet();
+    private final Object checkpointLock = new Object();
+    private volatile boolean fullCheckpointNeeded = true;
+    private long checkpointGeneration = 0;
+    private boolean mergeScheduled = false;
+    private volatile IOException mergeFailure;
+    private volatile long skippedEvents = 0;
+    private ExecutorService merger;
+    private volatile BankMetrics metrics;
+    private Path history;
+    private ObjectName metricsName;
     final private String SAV_ACC_TYPE = "Sparkonto";
     final private String CRED_ACC_TYPE = "Kreditkonto";
+    final private String SNAPSHOT_FILE = "robein9_files/bank.dat";
+    final private String JOURNAL_FILE = "robein9_files/bank.journal";
+    final private String TRANSACTION_STORE_DIR = "robein9_files/transactions";
+    final private String SPILL_DIR = "robein9_files";
+    final private String HISTORY_DIR = "robein9_files/history";
+    final private String TRANSACTIONS_FILE = "robein9_files/transactions.txt";
+    final private String TRANSACTIONS_CSV_FILE = "robein9_files/transactions.csv";
+    private static final int FULL_CHECKPOINT_DIVISOR = 4;
+    private static final int MERGE_AFTER_DELTAS = 8;
+    private static final int SEGMENTS_PER_HISTORY_BASE = 16;
+    private static final String HISTORY_SEGMENT = "events-";
+    private static final String HISTORY_BASE = "base-";
+    private static final AtomicInteger BANK_IDS = new AtomicInteger();
 
     /**
      * Constructor
      */
     public BankLogic() {
-        this.customers = new LinkedList<>();
+        this.customers = new CustomerRegistry();
+        this.accounts = new AccountIndex();
+        this.accountNumbers = new AccountNumberAllocator();
+        // start from the current time so ids don't repeat ids from a bank saved earlier
+        this.transferIds = new AtomicLong(System.currentTimeMillis() << 20);
+        this.registryLock = new ReentrantReadWriteLock();
+        this.readLock = registryLock.readLock();
+        this.writeLock = registryLock.writeLock();
     }
 
     /**
@@ -38,12 +128,49 @@ public class BankLogic {
      */
     public List<String> getAllCustomers(){
         List<String> presOfCustomers = new ArrayList<>();
-        for(Customer currCustomer : customers) {
+        for(Customer currCustomer : getCustomerList()) {
             presOfCustomers.add(currCustomer.getPNo() + " " + currCustomer.getFirstName() + " " + currCustomer.getLastName());
         }
         return presOfCustomers;
     }
 
+    /**
+     * This method will get all the customers in the bank without formatting them. Only the references
+     * are copied, so views can read the names of the customers they show when they show them.
+     * @return the customers in the order they were added
+     */
+    public List<Customer> getCustomerList() {
+        readLock.lock();
+        try {
+            List<Customer> customerList = new ArrayList<>(customers.size());
+            for(Customer customer : customers) {
+                customerList.add(customer);
+            }
+            return Collections.unmodifiableList(customerList);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * This method will find the customers whose personnummer starts with the query or whose names match it,
+     * for searching while the query is typed. A name matches if every word of the query starts a word of the
+     * first or last name, ignoring case and accents.
+     * @param query the start of a personnummer, or the start of one or more names
+     * @param limit the most customers to return
+     * @return the matching customers, the ones that match by personnummer first
+     */
+    public List<Customer> searchCustomers(String query, int limit) {
+        long start = startTiming();
+        readLock.lock();
+        try {
+            return timed(BankMetrics.Operation.SEARCH_CUSTOMERS, start,
+                    Collections.unmodifiableList(customers.search(query, limit)));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     /**
      * This method will create a new customer and add it to the bank.
      * @param name first name of customer
@@ -52,12 +179,28 @@ public class BankLogic {
      * @return true if customer was successfully created, false otherwise.
      */
     public boolean createCustomer(String name, String surname, String pNo){
-        if(this.containsCustomer(pNo)) {
-            return false;
+        long start = startTiming();
+        long seq;
+        writeLock.lock();
+        try {
+            if(this.containsCustomer(pNo)) {
+                return timed(BankMetrics.Operation.CREATE_CUSTOMER, start, false);
+            }
+            Customer newCustomer = new Customer(name, surname, pNo);
+            customers.add(newCustomer);
+            Journal current = journal;
+            seq = current == null ? 0 : current.customerCreated(pNo, name, surname);
+            CustomerPager currentPager = pager;
+            if(currentPager != null) {
+                currentPager.adopt(newCustomer);
+                evictCustomers(currentPager, Collections.singleton(pNo));
+            }
+            markChanged(pNo);
+        } finally {
+            writeLock.unlock();
         }
-        Customer newCustomer = new Customer(name, surname, pNo);
-        customers.add(newCustomer);
-        return true;
+        awaitJournal(seq);
+        return timed(BankMetrics.Operation.CREATE_CUSTOMER, start, true);
     }
 
     /**
@@ -66,26 +209,44 @@ public class BankLogic {
      * @return a list with the information about the customer
      */
     public List<String> getCustomer(String pNo){
-        if(!this.containsCustomer(pNo)) {
+        CustomerView customerView = getCustomerView(pNo);
+        if(customerView == null) {
             return null;
         }
         List<String> customerInfo = new ArrayList<>();
-        Customer tempCustomer = this.findCustomer(pNo);
-        String nameAndPNo = tempCustomer.getPNo() + " " + tempCustomer.getFirstName() + " " + tempCustomer.getLastName();
-        List<Account> accounts = tempCustomer.getAccounts();
-
-        NumberFormat percentFormat = NumberFormat.getPercentInstance(new Locale("sv","SE"));
-        percentFormat.setMaximumFractionDigits(1);
-
         // simply add name and personnummer to the first index of the list
-        customerInfo.add(0, nameAndPNo);
-        for (int i = 0; i < tempCustomer.getNumOfAccounts(); i++) {
-            Account tempAccount = accounts.get(i);
-            customerInfo.add(this.getAccount(tempCustomer.getPNo(), tempAccount.getAccountNumber()));
+        customerInfo.add(customerView.format());
+        for(AccountView accountView : customerView.getAccounts()) {
+            customerInfo.add(accountView.format());
         }
         return customerInfo;
     }
 
+    /**
+     * This method will get a view of a specific customer and their accounts, with nothing formatted
+     * @param pNo personnummer of the customer to get info about
+     * @return the view of the customer, or null if there is no such customer
+     */
+    public CustomerView getCustomerView(String pNo) {
+        long start = startTiming();
+        lockLoaded(pNo);
+        try {
+            Customer tempCustomer = this.findCustomer(pNo);
+            if(tempCustomer == null) {
+                lookupMissed();
+                return timed(BankMetrics.Operation.GET_CUSTOMER, start, null);
+            }
+            List<AccountView> accountViews = new ArrayList<>();
+            for(Account tempAccount : tempCustomer.getAccounts()) {
+                accountViews.add(AccountView.of(tempAccount));
+            }
+            return timed(BankMetrics.Operation.GET_CUSTOMER, start,
+                    new CustomerView(tempCustomer.getPNo(), tempCustomer.getFirstName(), tempCustomer.getLastName(), accountViews));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     /**
      * This method will change the name of the customer
      * @param name first name to change
@@ -94,19 +255,35 @@ public class BankLogic {
      * @return true if name was changed successfully, false otherwise.
      */
     public boolean changeCustomerName(String name, String surname, String pNo) {
-        if(!containsCustomer(pNo) || (Objects.equals(name, "") && Objects.equals(surname, ""))) {
-            return false;
+        long start = startTiming();
+        if(Objects.equals(name, "") && Objects.equals(surname, "")) {
+            return timed(BankMetrics.Operation.CHANGE_CUSTOMER_NAME, start, false);
         }
-        Customer tempCustomer = findCustomer(pNo);
-        if(!name.equals("") && surname.equals("")) {
-            tempCustomer.setFirstName(name);
-        } else if(name.equals("") && !surname.equals("")) {
-            tempCustomer.setLastName(surname);
-        } else {
-            tempCustomer.setFirstName(name);
-            tempCustomer.setLastName(surname);
+        long seq;
+        writeLock.lock();
+        try {
+            Customer tempCustomer = findCustomer(pNo);
+            if(tempCustomer == null) {
+                lookupMissed();
+                return timed(BankMetrics.Operation.CHANGE_CUSTOMER_NAME, start, false);
+            }
+            if(!name.equals("") && surname.equals("")) {
+                tempCustomer.setFirstName(name);
+            } else if(name.equals("") && !surname.equals("")) {
+                tempCustomer.setLastName(surname);
+            } else {
+                tempCustomer.setFirstName(name);
+                tempCustomer.setLastName(surname);
+            }
+            customers.nameChanged(tempCustomer);
+            Journal current = journal;
+            seq = current == null ? 0 : current.customerRenamed(pNo, tempCustomer.getFirstName(), tempCustomer.getLastName());
+            markChanged(pNo);
+        } finally {
+            writeLock.unlock();
         }
-        return true;
+        awaitJournal(seq);
+        return timed(BankMetrics.Operation.CHANGE_CUSTOMER_NAME, start, true);
     }
 
     /**
@@ -115,37 +292,77 @@ public class BankLogic {
      * @return a list with information about the customer and their accounts
      */
     public List<String> deleteCustomer(String pNo) {
-        if(!containsCustomer(pNo)) {
+        CustomerView deletedView = removeCustomer(pNo);
+        if(deletedView == null) {
             return null;
         }
         List<String> deletedCustomer = new ArrayList<>();
-        Customer tempCustomer = findCustomer(pNo);
-        int numOfAccounts = tempCustomer.getNumOfAccounts();
-
-        String nameAndPNo = tempCustomer.getPNo() + " " + tempCustomer.getFirstName() + " " + tempCustomer.getLastName();
-        deletedCustomer.add(0, nameAndPNo);
-        for(int i = 0; i < numOfAccounts; i++) {
-            deletedCustomer.add(this.closeAccount(tempCustomer.getPNo(), findAccount(tempCustomer)));
+        deletedCustomer.add(deletedView.format());
+        for(AccountView accountView : deletedView.getAccounts()) {
+            deletedCustomer.add(accountView.formatClosed());
         }
-        customers.remove(tempCustomer);
         return deletedCustomer;
     }
 
+    /**
+     * This method will delete a customer from the bank, like deleteCustomer, and return a view of what
+     * was deleted
+     * @param pNo personnummer of the customer to be deleted
+     * @return the view of the customer and their closed accounts, or null if there is no such customer
+     */
+    public CustomerView removeCustomer(String pNo) {
+        long start = startTiming();
+        CustomerView deletedView;
+        long seq;
+        writeLock.lock();
+        try {
+            Customer tempCustomer = findCustomer(pNo);
+            if(tempCustomer == null) {
+                lookupMissed();
+                return timed(BankMetrics.Operation.DELETE_CUSTOMER, start, null);
+            }
+
+            // the accounts are closed here rather than through removeAccount, so the journal is only waited
+            // for once, after the write lock is released
+            Journal current = journal;
+            List<AccountView> closedAccounts = new ArrayList<>();
+            for(Account account : tempCustomer.getAccounts()) {
+                accounts.remove(account.getAccountNumber());
+                closedAccounts.add(AccountView.of(account));
+                if(current != null) {
+                    current.accountClosed(pNo, account.getAccountNumber());
+                }
+            }
+            tempCustomer.removeAllAccounts();
+            deletedView = new CustomerView(tempCustomer.getPNo(), tempCustomer.getFirstName(), tempCustomer.getLastName(), closedAccounts);
+            customers.remove(pNo);
+            seq = current == null ? 0 : current.customerDeleted(pNo);
+            markChanged(pNo);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitJournal(seq);
+        return timed(BankMetrics.Operation.DELETE_CUSTOMER, start, deletedView);
+    }
+
     /**
      * This method will create a new savings account for a customer
      * @param pNo personnummer of the customer where the account should be created
      * @return account number of the newly created account
      */
     public int createSavingsAccount(String pNo) {
-        int accountNumber;
+        long start = startTiming();
+        AccountOperationEvent event = AccountOperationEvent.begin(AccountOperationEvent.OPEN, -1, 0);
         if(!containsCustomer(pNo)) {
-            return -1;
+            lookupMissed();
+            event.end(null, AccountOperationEvent.NO_SUCH_CUSTOMER);
+            return timed(BankMetrics.Operation.CREATE_SAVINGS_ACCOUNT, start, -1);
         }
-        Customer tempCustomer = findCustomer(pNo);
-        Account newSavingsAccount = new SavingsAccount(SAV_ACC_TYPE);
-        tempCustomer.addAccount(newSavingsAccount);
-        accountNumber = newSavingsAccount.getAccountNumber();
-        return accountNumber;
+        // the account number is assigned before the write lock is taken
+        Account newSavingsAccount = new SavingsAccount(SAV_ACC_TYPE, accountNumbers.next());
+        int accountNumber = addAccount(pNo, newSavingsAccount);
+        event.end(newSavingsAccount, accountNumber < 0 ? AccountOperationEvent.NO_SUCH_CUSTOMER : AccountOperationEvent.SUCCEEDED);
+        return timed(BankMetrics.Operation.CREATE_SAVINGS_ACCOUNT, start, accountNumber);
     }
 
     /**
@@ -154,13 +371,17 @@ public class BankLogic {
      * @return account number of the newly created account
      */
     public int createCreditAccount(String pNo) {
+        long start = startTiming();
+        AccountOperationEvent event = AccountOperationEvent.begin(AccountOperationEvent.OPEN, -1, 0);
         if(!containsCustomer(pNo)) {
-            return -1;
+            lookupMissed();
+            event.end(null, AccountOperationEvent.NO_SUCH_CUSTOMER);
+            return timed(BankMetrics.Operation.CREATE_CREDIT_ACCOUNT, start, -1);
         }
-        Customer tempCustomer = findCustomer(pNo);
-        Account newCreditAccount = new CreditAccount(CRED_ACC_TYPE);
-        tempCustomer.addAccount(newCreditAccount);
-        return newCreditAccount.getAccountNumber();
+        Account newCreditAccount = new CreditAccount(CRED_ACC_TYPE, accountNumbers.next());
+        int accountNumber = addAccount(pNo, newCreditAccount);
+        event.end(newCreditAccount, accountNumber < 0 ? AccountOperationEvent.NO_SUCH_CUSTOMER : AccountOperationEvent.SUCCEEDED);
+        return timed(BankMetrics.Operation.CREATE_CREDIT_ACCOUNT, start, accountNumber);
     }
 
 
@@ -172,31 +393,23 @@ public class BankLogic {
      * @return the information about the account
      */
     public String getAccount(String pNo, int accountId) {
-        if(!containsCustomer(pNo) || !customerOwnsAccount(pNo, accountId)) {
-            return null;
-        }
-        String accountInfo = "";
-        BigDecimal interest;
-        String balance;
-        String accountType;
-        NumberFormat percentFormat = NumberFormat.getPercentInstance(new Locale("sv","SE"));
-        percentFormat.setMaximumFractionDigits(1);
-
-        // find customer and get all of their accounts
-        Customer tempCustomer = findCustomer(pNo);
-        List<Account> accounts = tempCustomer.getAccounts();
+        AccountView accountView = getAccountView(pNo, accountId);
+        return accountView == null ? null : accountView.format();
+    }
 
-        for(Account account : accounts) {
-            if(account.getAccountNumber() == accountId) {
-                interest = account.getInterestRate();
-                String percentStr = percentFormat.format(interest.divide(new BigDecimal("100")));
-                balance = NumberFormat.getCurrencyInstance(new Locale("sv","SE")).format(account.getBalance());
-                accountType = account.getAccountType();
-                accountId = account.getAccountNumber();
-                accountInfo = accountId + " " + balance + " " + accountType + " " + percentStr;
-            }
+    /**
+     * The method will get a view of a specific account for a specific customer, with nothing formatted
+     * @param pNo personnummer of the customer
+     * @param accountId account number of the account
+     * @return the view of the account, or null if the customer doesn't own the account
+     */
+    public AccountView getAccountView(String pNo, int accountId) {
+        long start = startTiming();
+        Account account = lookupAccount(pNo, accountId);
+        if(account == null) {
+            return timed(BankMetrics.Operation.GET_ACCOUNT, start, null);
         }
-        return accountInfo;
+        return timed(BankMetrics.Operation.GET_ACCOUNT, start, AccountView.of(account));
     }
 
     /**
@@ -206,15 +419,76 @@ public class BankLogic {
      * @return a list with the transactions made
      */
     public ArrayList<String> getTransactions(String pNo, int accountId) {
-        if(!containsCustomer(pNo)) {
-            return null;
+        long start = startTiming();
+        Account account = lookupAccount(pNo, accountId);
+        if(account == null) {
+            return timed(BankMetrics.Operation.GET_TRANSACTIONS, start, null);
         }
-        if(!customerOwnsAccount(pNo, accountId)) {
+        return timed(BankMetrics.Operation.GET_TRANSACTIONS, start, new ArrayList<>(account.getTransactions()));
+    }
+
+    /**
+     * This method will get a copy of the transaction log of an account, with the transactions
+     * kept as unformatted records
+     * @param pNo personal number of the customer that the account belongs to
+     * @param accountId id of the account
+     * @return the transaction log, or null if the customer doesn't own the account
+     */
+    public TransactionLog getTransactionLog(String pNo, int accountId) {
+        Account account = lookupAccount(pNo, accountId);
+        if(account == null) {
             return null;
-        } else {
-            Customer tempCustomer = findCustomer(pNo);
-            return new ArrayList<>(tempCustomer.getTransactions(accountId));
         }
+        return account.copyTransactionLog();
+    }
+
+    /**
+     * This method will get a page of the transactions made in an account, in the order they were made
+     * @param pNo personal number of the customer that the account belongs to
+     * @param accountId id of the account
+     * @param offset the number of transactions to skip
+     * @param limit the largest number of transactions on the page
+     * @return the page, or null if the customer doesn't own the account
+     */
+    public TransactionPage getTransactionPage(String pNo, int accountId, int offset, int limit) {
+        return this.getTransactionPage(pNo, accountId, Long.MIN_VALUE, Long.MAX_VALUE, offset, limit);
+    }
+
+    /**
+     * This method will get a page of the transactions made in an account during a time range. The range
+     * is found with a binary search over the transactions, which are in time order.
+     * @param pNo personal number of the customer that the account belongs to
+     * @param accountId id of the account
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @param offset the number of transactions in the range to skip
+     * @param limit the largest number of transactions on the page
+     * @return the page, or null if the customer doesn't own the account
+     */
+    public TransactionPage getTransactionPage(String pNo, int accountId, long fromTime, long toTime, int offset, int limit) {
+        long start = startTiming();
+        Account account = lookupAccount(pNo, accountId);
+        if(account == null) {
+            return timed(BankMetrics.Operation.GET_TRANSACTION_PAGE, start, null);
+        }
+        return timed(BankMetrics.Operation.GET_TRANSACTION_PAGE, start, account.getTransactionPage(fromTime, toTime, offset, limit));
+    }
+
+    /**
+     * This method will get the latest transactions made in an account
+     * @param pNo personal number of the customer that the account belongs to
+     * @param accountId id of the account
+     * @param limit the largest number of transactions to get
+     * @return the page, with the transactions in the order they were made, or null if the customer
+     * doesn't own the account
+     */
+    public TransactionPage getLatestTransactions(String pNo, int accountId, int limit) {
+        long start = startTiming();
+        Account account = lookupAccount(pNo, accountId);
+        if(account == null) {
+            return timed(BankMetrics.Operation.GET_TRANSACTION_PAGE, start, null);
+        }
+        return timed(BankMetrics.Operation.GET_TRANSACTION_PAGE, start, account.getLatestTransactions(limit));
     }
 
     /**
@@ -225,15 +499,34 @@ public class BankLogic {
      * @return true if money was deposited, false otherwise
      */
     public boolean deposit(String pNo, int accountId, int amount) {
-        if(!containsCustomer(pNo)) {
-            return false;
+        long start = startTiming();
+        AccountOperationEvent event = AccountOperationEvent.begin(AccountOperationEvent.DEPOSIT, accountId, amount);
+        if(amount <= 0) {
+            event.end(null, AccountOperationEvent.REJECTED);
+            return timed(BankMetrics.Operation.DEPOSIT, start, false);
         }
-        if(amount > 0) {
-            Customer tempCustomer = findCustomer(pNo);
-            return tempCustomer.depositMoney(accountId, amount);
-        } else {
-            return false;
+        Account account;
+        long seq;
+        // the read lock is held so the account can't be closed while money is deposited
+        lockLoaded(pNo);
+        try {
+            account = accounts.get(pNo, accountId);
+            if(account == null) {
+                lookupMissed();
+                event.end(null, AccountOperationEvent.NO_SUCH_ACCOUNT);
+                return timed(BankMetrics.Operation.DEPOSIT, start, false);
+            }
+            synchronized(account) {
+                account.depositMinor(Money.fromKronor(amount));
+                seq = journalTransaction(account, Journal.DEPOSIT);
+            }
+            markChanged(pNo);
+        } finally {
+            readLock.unlock();
         }
+        awaitJournal(seq);
+        event.end(account, AccountOperationEvent.SUCCEEDED);
+        return timed(BankMetrics.Operation.DEPOSIT, start, true);
     }
 
     /**
@@ -244,11 +537,113 @@ public class BankLogic {
      * @return true if money was withdrawn, false otherwise
      */
     public boolean withdraw(String pNo, int accountId, int amount) {
-        if(!containsCustomer(pNo)) {
-            return false;
+        long start = startTiming();
+        AccountOperationEvent event = AccountOperationEvent.begin(AccountOperationEvent.WITHDRAW, accountId, amount);
+        Account account;
+        long seq;
+        lockLoaded(pNo);
+        try {
+            account = accounts.get(pNo, accountId);
+            if(account == null) {
+                lookupMissed();
+                event.end(null, AccountOperationEvent.NO_SUCH_ACCOUNT);
+                return timed(BankMetrics.Operation.WITHDRAW, start, false);
+            }
+            synchronized(account) {
+                if(!account.withdrawMinor(Money.fromKronor(amount))) {
+                    rejectedWithdrawal();
+                    event.end(account, AccountOperationEvent.REJECTED);
+                    return timed(BankMetrics.Operation.WITHDRAW, start, false);
+                }
+                seq = journalTransaction(account, Journal.WITHDRAWAL);
+            }
+            markChanged(pNo);
+        } finally {
+            readLock.unlock();
+        }
+        awaitJournal(seq);
+        event.end(account, AccountOperationEvent.SUCCEEDED);
+        return timed(BankMetrics.Operation.WITHDRAW, start, true);
+    }
+
+    /**
+     * This method will apply a batch of deposits and withdrawals. The operations are grouped by account
+     * so each account is looked up and locked once, and different accounts are processed in parallel.
+     * Operations on the same account are applied in the order they have in the batch. When the customers are
+     * paged, the batch is applied a part of the customers at a time, so they all fit in memory.
+     * @param operations the operations to apply
+     * @return one result code per operation, in the same order: BatchOperation.APPLIED, REJECTED or NO_SUCH_ACCOUNT
+     */
+    public byte[] applyBatch(List<BatchOperation> operations) {
+        long start = startTiming();
+        byte[] results = new byte[operations.size()];
+        long lastSeq = 0;
+        for(int[] part : batchParts(operations, pager)) {
+            lastSeq = Math.max(lastSeq, applyBatchPart(operations, part, results));
+        }
+        // the whole batch waits for one journal flush
+        awaitJournal(lastSeq);
+        countBatchResults(operations, results);
+        return timed(BankMetrics.Operation.APPLY_BATCH, start, results);
+    }
+
+    /**
+     * This method will apply a stream of deposits and withdrawals as one batch, see applyBatch(List)
+     * @param operations the operations to apply
+     * @return one result code per operation, in stream order
+     */
+    public byte[] applyBatch(Stream<BatchOperation> operations) {
+        return applyBatch(operations.collect(Collectors.toList()));
+    }
+
+    /**
+     * This method will transfer money between two accounts. The money is withdrawn from the first
+     * account following the rules of that type of account, so a savings account may be charged a fee.
+     * Both accounts are locked for the whole transfer, always in order of account number, so
+     * transfers in opposite directions can't deadlock. The two transactions share a link id.
+     * @param fromPNo personnummer of the customer to transfer from
+     * @param fromAccountId account number of the account to transfer from
+     * @param toPNo personnummer of the customer to transfer to
+     * @param toAccountId account number of the account to transfer to
+     * @param amount the amount of money to transfer
+     * @return true if the money was transferred, false otherwise
+     */
+    public boolean transfer(String fromPNo, int fromAccountId, String toPNo, int toAccountId, int amount) {
+        long start = startTiming();
+        if(amount <= 0 || fromAccountId == toAccountId) {
+            return timed(BankMetrics.Operation.TRANSFER, start, false);
+        }
+        long seq;
+        lockLoaded(fromPNo, toPNo);
+        try {
+            Account from = accounts.get(fromPNo, fromAccountId);
+            Account to = accounts.get(toPNo, toAccountId);
+            if(from == null || to == null) {
+                lookupMissed();
+                return timed(BankMetrics.Operation.TRANSFER, start, false);
+            }
+            Account first = fromAccountId < toAccountId ? from : to;
+            Account second = first == from ? to : from;
+            synchronized(first) {
+                synchronized(second) {
+                    long link = transferIds.incrementAndGet();
+                    long minorUnits = Money.fromKronor(amount);
+                    if(!from.withdrawMinor(minorUnits, link)) {
+                        rejectedWithdrawal();
+                        return timed(BankMetrics.Operation.TRANSFER, start, false);
+                    }
+                    to.depositMinor(minorUnits, link);
+                    journalTransaction(from, Journal.WITHDRAWAL);
+                    seq = journalTransaction(to, Journal.DEPOSIT);
+                }
+            }
+            markChanged(fromPNo);
+            markChanged(toPNo);
+        } finally {
+            readLock.unlock();
         }
-        Customer tempCustomer = findCustomer(pNo);
-        return tempCustomer.withdrawMoney(accountId, amount);
+        awaitJournal(seq);
+        return timed(BankMetrics.Operation.TRANSFER, start, true);
     }
 
     /**
@@ -258,45 +653,624 @@ public class BankLogic {
      * @return information about the deleted account
      */
     public String closeAccount(String pNo, int accountId) {
-        if(!containsCustomer(pNo)) {
-            return null;
+        AccountView closedView = removeAccount(pNo, accountId);
+        if(closedView != null) {
+            return closedView.formatClosed();
         }
-        Customer tempCustomer = findCustomer(pNo);
-        return tempCustomer.removeAccount(accountId);
+        return containsCustomer(pNo) ? "" : null;
     }
 
-    // Method to save all the customers in the bank to a file
+    /**
+     * This method will close an account and delete it, like closeAccount, and return a view of the account
+     * as it was when it was closed
+     * @param pNo personnummer of the customer
+     * @param accountId account number of the account
+     * @return the view of the deleted account, or null if the customer doesn't own the account
+     */
+    public AccountView removeAccount(String pNo, int accountId) {
+        long start = startTiming();
+        AccountOperationEvent event = AccountOperationEvent.begin(AccountOperationEvent.CLOSE, accountId, 0);
+        Account account;
+        AccountView closedView;
+        long seq;
+        writeLock.lock();
+        try {
+            Customer tempCustomer = findCustomer(pNo);
+            if(tempCustomer == null) {
+                lookupMissed();
+                event.end(null, AccountOperationEvent.NO_SUCH_CUSTOMER);
+                return timed(BankMetrics.Operation.CLOSE_ACCOUNT, start, null);
+            }
+            account = accounts.get(pNo, accountId);
+            if(account == null) {
+                lookupMissed();
+                event.end(null, AccountOperationEvent.NO_SUCH_ACCOUNT);
+                return timed(BankMetrics.Operation.CLOSE_ACCOUNT, start, null);
+            }
+            accounts.remove(accountId);
+            tempCustomer.removeAccount(accountId);
+            closedView = AccountView.of(account);
+            Journal current = journal;
+            seq = current == null ? 0 : current.accountClosed(pNo, accountId);
+            markChanged(pNo);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitJournal(seq);
+        event.end(account, AccountOperationEvent.SUCCEEDED);
+        return timed(BankMetrics.Operation.CLOSE_ACCOUNT, start, closedView);
+    }
+
+    /**
+     * This method will post interest to every savings and credit account in the bank. Credit accounts
+     * with a negative balance are charged the debt interest rate. The accounts are processed in parallel
+     * and each account is only locked while its own interest is posted. Accounts that are closed during
+     * the run are skipped.
+     * @return the number of accounts and the total interest credited and charged
+     * @throws java.io.UncheckedIOException if the interest couldn't be journaled
+     */
+    public InterestRun postInterest() {
+        long start = startTiming();
+        CustomerPager currentPager = pager;
+        if(currentPager != null) {
+            return timed(BankMetrics.Operation.POST_INTEREST, start, postPagedInterest(currentPager));
+        }
+        Account[] allAccounts;
+        // only hold the read lock while taking a copy of the accounts, so accounts can be created
+        // and closed during the run
+        readLock.lock();
+        try {
+            allAccounts = accounts.toArray();
+        } finally {
+            readLock.unlock();
+        }
+        InterestRun run = InterestRun.post(allAccounts, new InterestLedger(false));
+        if(run.getAccountsPosted() > 0) {
+            // interest changes most accounts, so the next checkpoint writes the whole bank
+            fullCheckpointNeeded = true;
+        }
+        return timed(BankMetrics.Operation.POST_INTEREST, start, run);
+    }
+
+    // Posts interest to the customers a part at a time, so no more customers than the pager allows are
+    // loaded. Each part is posted while the read lock keeps it loaded.
+    private InterestRun postPagedInterest(CustomerPager currentPager) {
+        List<String> allPNos = allCustomerPNos();
+        int partSize = Math.max(1, currentPager.getMaxLoadedCustomers() / 2);
+        InterestRun total = InterestRun.post(new Account[0], new InterestLedger(true));
+        for(int from = 0; from < allPNos.size(); from += partSize) {
+            List<String> part = allPNos.subList(from, Math.min(from + partSize, allPNos.size()));
+            lockLoaded(part);
+            try {
+                List<Account> partAccounts = new ArrayList<>();
+                for(String pNo : part) {
+                    Customer customer = customers.get(pNo);
+                    if(customer != null) {
+                        partAccounts.addAll(customer.getAccounts());
+                    }
+                }
+                total = total.plus(InterestRun.post(partAccounts.toArray(new Account[0]), new InterestLedger(true)));
+            } finally {
+                readLock.unlock();
+            }
+        }
+        if(total.getAccountsPosted() > 0) {
+            fullCheckpointNeeded = true;
+        }
+        return total;
+    }
+
+    /**
+     * This method will start counting and timing the calls to the operations of the bank, and publish the
+     * metrics as a platform MXBean named robein9:type=Bank,name=bank-N that JMX clients can read
+     * @return the metrics, which are the same if metrics are already enabled
+     * @throws JMException if the MXBean can't be registered
+     */
+    public synchronized BankMetrics enableMetrics() throws JMException {
+        if(metrics == null) {
+            BankMetrics newMetrics = new BankMetrics();
+            ObjectName name = new ObjectName("robein9:type=Bank,name=bank-" + BANK_IDS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(newMetrics, name);
+            metricsName = name;
+            metrics = newMetrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * This method will stop counting and timing the calls and unregister the MXBean
+     * @throws JMException if the MXBean can't be unregistered
+     */
+    public synchronized void disableMetrics() throws JMException {
+        if(metrics != null) {
+            metrics = null;
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            metricsName = null;
+        }
+    }
+
+    /**
+     * This method will page the customers, so only the specified number of customers are kept in memory
+     * and the rest are loaded from the snapshot when they are used. It has to be called before any
+     * customers are created or loaded.
+     * @param maxLoadedCustomers the number of customers to keep in memory
+     * @throws IOException if the spill file for evicted customers can't be created
+     * @throws IllegalStateException if the bank already has customers
+     */
+    public void usePagedCustomers(int maxLoadedCustomers) throws IOException {
+        writeLock.lock();
+        try {
+            if(customers.size() > 0) {
+                throw new IllegalStateException("Paging must be turned on before any customers are created");
+            }
+            CustomerPager previous = pager;
+            pager = new CustomerPager(Paths.get(SPILL_DIR), maxLoadedCustomers);
+            if(previous != null) {
+                previous.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the pager of the customers
+     * @return the pager, or null if the customers aren't paged
+     */
+    CustomerPager getPager() {
+        return pager;
+    }
+
+    /**
+     * This method will keep the transaction history of all accounts in a memory-mapped transaction
+     * store. It has to be called before any accounts are created or loaded.
+     * @throws IOException if the store can't be opened
+     * @throws IllegalStateException if the bank already has accounts
+     */
+    public void openTransactionStore() throws IOException {
+        writeLock.lock();
+        try {
+            if(transactionStore != null) {
+                return;
+            }
+            if(accounts.size() > 0) {
+                throw new IllegalStateException("The transaction store must be opened before any accounts are created");
+            }
+            if(history != null) {
+                throw new IllegalStateException("The transaction store can't be opened while the history is kept");
+            }
+            transactionStore = new TransactionStore(Paths.get(TRANSACTION_STORE_DIR));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * This method will close the files of the bank, in the order they depend on each other: the journal is
+     * flushed and closed, a merge of the snapshot that runs is waited for, the pager deletes its spill file
+     * and the transaction store forces its transactions to disk. Afterwards the bank is empty, like a new
+     * bank, and can be opened again to load what was saved.
+     * @throws IOException if a file can't be closed, after the other files have been closed
+     */
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            IOException failure = closeFile(journal, null);
+            journal = null;
+            history = null;
+            ExecutorService currentMerger;
+            synchronized(checkpointLock) {
+                currentMerger = merger;
+                merger = null;
+                mergeFailure = null;
+            }
+            if(currentMerger != null) {
+                currentMerger.shutdown();
+                try {
+                    currentMerger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            failure = closeFile(pager, failure);
+            pager = null;
+            failure = closeFile(transactionStore, failure);
+            transactionStore = null;
+            customers.clear();
+            accounts.clear();
+            changedCustomers.clear();
+            fullCheckpointNeeded = true;
+            accountNumbers.reset(AccountNumberAllocator.FIRST_ACCOUNT_NUMBER - 1);
+            journalGeneration = 0;
+            if(failure != null) {
+                throw failure;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * This method will open the write-ahead journal. The bank is first recovered from the last snapshot
+     * and the journal, and from then on every change is appended to the journal.
+     * @return true if any customers were recovered, false otherwise
+     */
+    public boolean openJournal() throws IOException, ClassNotFoundException {
+        writeLock.lock();
+        try {
+            if(journal != null) {
+                return customers.size() > 0;
+            }
+            boolean recovered = recover();
+            Path file = Paths.get(JOURNAL_FILE);
+            if(Journal.generationOf(file) < journalGeneration) {
+                // the changes of the journal are already in the snapshot, see recover()
+                Files.deleteIfExists(file);
+            }
+            journal = new Journal(file, journalGeneration);
+            return recovered;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * This method will tell if the journal has stopped working. The changes after that are only kept in
+     * memory until the bank is saved, which writes the whole bank and starts a new journal.
+     * @return the error that stopped the journal, or null if it works or there is no journal
+     */
+    public IOException getJournalFailure() {
+        Journal current = journal;
+        return current == null ? null : current.getFailure();
+    }
+
+    /**
+     * This method will tell if merging the deltas of the snapshot into a new base has failed. The deltas
+     * are kept, so nothing is lost, and the next save writes the whole bank instead.
+     * @return the error of the merge, or null if no merge has failed since the whole bank was last saved
+     */
+    public IOException getMergeFailure() {
+        return mergeFailure;
+    }
+
+    /**
+     * This method will tell how many events of the journal were skipped the last time the bank was recovered,
+     * since the customer or account they change didn't exist then, such as interest journaled after its
+     * account was closed. The other events are still replayed.
+     * @return the number of skipped events, 0 if every event was replayed
+     */
+    public long getSkippedEvents() {
+        return skippedEvents;
+    }
+
+    /**
+     * This method will keep the history of the bank, so it can be rebuilt as it was at any point in time after
+     * this with stateAsOf(). The journal is archived each time the bank is saved, and every few saves a base
+     * with the whole bank is written, so a rebuild only replays the events after the last base before the
+     * point in time. The history starts with the base that is written the next time the bank is saved.
+     * The bases have the transactions of the accounts, so the history can't be kept with a transaction store.
+     * @throws IOException if the history directory can't be created
+     */
+    public void openHistory() throws IOException {
+        writeLock.lock();
+        try {
+            if(journal == null) {
+                throw new IllegalStateException("The journal must be opened before the history is kept");
+            }
+            if(transactionStore != null) {
+                throw new IllegalStateException("The history can't be kept with a transaction store");
+            }
+            Path directory = Paths.get(HISTORY_DIR);
+            Files.createDirectories(directory);
+            history = directory;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * This method will rebuild the bank as it was at a point in time, from the last base of the history
+     * before that time and the events that followed it. The events are replayed in parallel partitions of
+     * customers. The bank itself isn't changed.
+     * @param time the point in time, in milliseconds since the epoch
+     * @return a new bank with the customers and accounts as they were at that time, without a journal
+     * @throws IOException if the history can't be read
+     * @throws IllegalArgumentException if the history starts after the point in time
+     */
+    public BankLogic stateAsOf(long time) throws IOException {
+        Path base;
+        List<Path> segments;
+        ByteBuffer tail;
+        // the files are chosen and the journal is read under the read lock, so no save archives the journal
+        // in the meantime. The bases and the archived segments never change once they are written.
+        readLock.lock();
+        try {
+            if(history == null) {
+                throw new IllegalStateException("The history isn't kept, see openHistory()");
+            }
+            base = null;
+            for(Path candidate : historyFiles(HISTORY_BASE)) {
+                if(historyBaseTime(candidate) <= time) {
+                    base = candidate;
+                }
+            }
+            if(base == null) {
+                throw new IllegalArgumentException("The history doesn't go back to " + time);
+            }
+            long firstSegment = historyNumber(base, HISTORY_BASE);
+            segments = new ArrayList<>();
+            for(Path segment : historyFiles(HISTORY_SEGMENT)) {
+                if(historyNumber(segment, HISTORY_SEGMENT) >= firstSegment) {
+                    segments.add(segment);
+                }
+            }
+            journal.flush();
+            tail = ByteBuffer.wrap(Files.readAllBytes(journal.getFile()));
+        } finally {
+            readLock.unlock();
+        }
+
+        BankLogic past = new BankLogic();
+        past.writeLock.lock();
+        try {
+            past.accountNumbers.reset(Snapshot.read(base, past.customers, past.accounts, null));
+            past.replayEvents(segments, tail, time);
+            past.changedCustomers.clear();
+        } finally {
+            past.writeLock.unlock();
+        }
+        return past;
+    }
+
+    // Method to save all the customers in the bank to a file. With a journal, the snapshot is written
+    // under the write lock so it matches the journal exactly, and the journal is emptied afterwards.
     public boolean writeCustomersToFile() throws IOException {
-        int lastAssignedAccNr = 1000;
+        long start = startTiming();
+        PersistenceEvent event = PersistenceEvent.begin(PersistenceEvent.SAVE);
+        Journal current = journal;
+        Lock lock = current == null ? readLock : writeLock;
+        boolean saved = false;
+        lock.lock();
+        try {
+            boolean failed = current != null && current.getFailure() != null;
+            if(failed) {
+                // the journal lost changes, so the whole bank is written and the journal starts over
+                fullCheckpointNeeded = true;
+            }
+            // the snapshot tells which journal comes after it, so a journal that is saved in it but not emptied
+            // when the bank stops isn't replayed again
+            long nextGeneration = current == null ? journalGeneration : current.getGeneration() + 1;
+            boolean written = writeCustomers(event, nextGeneration);
+            if(written && current != null) {
+                if(history != null) {
+                    archiveJournal(current, !failed, nextGeneration);
+                }
+                if(failed) {
+                    restartJournal(current, nextGeneration);
+                } else {
+                    try {
+                        current.truncate();
+                    } catch (IOException e) {
+                        // records appended to the old generation would be skipped when the bank is recovered
+                        restartJournal(current, nextGeneration);
+                    }
+                }
+                journalGeneration = nextGeneration;
+            }
+            saved = true;
+            return written;
+        } finally {
+            lock.unlock();
+            event.end(saved);
+            timed(BankMetrics.Operation.SAVE, start, saved);
+        }
+    }
+
+    // Writes the customers while the caller holds the read lock, each account is
+    // locked while it is serialized. Only the customers that changed since the last checkpoint
+    // are written as a delta, unless so much has changed that the whole bank is written. What was written
+    // is noted in the event, and the snapshot notes the generation of the journal that has the changes after it.
+    private boolean writeCustomers(PersistenceEvent event, long nextGeneration) throws IOException {
         // if there are at least one customer in the bank, save to file
         if(customers.size() > 0) {
-            FileOutputStream fileOutputStream = new FileOutputStream("robein9_files/bank.dat");
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            // write the size of list to the file
-            objectOutputStream.writeInt(customers.size());
-            //  get the last assigned account number
-            for(int i = customers.size() - 1; i >= 0; i--) {
-                if(customers.get(i).getNumOfAccounts() > 0) {
-                    int numOfAccounts = customers.get(i).getNumOfAccounts();
-                    lastAssignedAccNr = customers.get(i).getAccounts().get(numOfAccounts - 1).getLastAssignedAccountNumber();
-                    break;
+            // the snapshot is forced to disk before it replaces the old one, so the journal can be emptied
+            if(transactionStore != null) {
+                // the snapshot only has the number of transactions, so the transactions go to disk first
+                transactionStore.force();
+            }
+            Path snapshot = Paths.get(SNAPSHOT_FILE);
+            synchronized(checkpointLock) {
+                boolean full = fullCheckpointNeeded || !Files.exists(snapshot) || !Snapshot.isSnapshot(snapshot)
+                        || changedCustomers.size() > customers.size() / FULL_CHECKPOINT_DIVISOR;
+                try {
+                    event.fullCheckpoint = full;
+                    if(full) {
+                        writeFullCheckpoint(snapshot, event, nextGeneration);
+                    } else {
+                        writeDeltaCheckpoint(snapshot, event, nextGeneration);
+                    }
+                } catch (IOException e) {
+                    // the changes that were taken for this checkpoint are lost, so write them all next time
+                    fullCheckpointNeeded = true;
+                    throw e;
                 }
             }
-            objectOutputStream.writeInt(lastAssignedAccNr);
-            for(int i = 0; i < customers.size(); i++) {
-                objectOutputStream.writeObject(customers.get(i));
+            if(transactionStore != null) {
+                // the snapshot no longer has the closed accounts, so their history can be used by new accounts
+                transactionStore.release(accountNumber -> accounts.getOwner(accountNumber) != null);
             }
-            objectOutputStream.close();
             return true;
-
         }
         return false;
     }
 
+    // Writes the whole bank as a new base, the caller holds the checkpoint lock
+    private void writeFullCheckpoint(Path snapshot, PersistenceEvent event, long nextGeneration) throws IOException {
+        // changes that are made while the base is written are marked again and go in the next delta
+        fullCheckpointNeeded = false;
+        changedCustomers.clear();
+        CustomerPager currentPager = pager;
+        event.customers = customers.size();
+        event.bytes = Snapshot.write(snapshot, customers, accountNumbers.getLastAssigned(), nextGeneration, currentPager);
+        checkpointGeneration++;
+        // the new base has all the deltas, so merging can start over
+        mergeFailure = null;
+        if(currentPager != null) {
+            currentPager.relocate(snapshot, customers);
+        }
+    }
+
+    // Writes the changed customers as a delta, the caller holds the checkpoint lock
+    private void writeDeltaCheckpoint(Path snapshot, PersistenceEvent event, long nextGeneration) throws IOException {
+        List<Customer> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for(Iterator<String> it = changedCustomers.iterator(); it.hasNext(); ) {
+            String pNo = it.next();
+            it.remove();
+            Customer customer = customers.get(pNo);
+            if(customer == null) {
+                deleted.add(pNo);
+            } else {
+                changed.add(customer);
+            }
+        }
+        event.customers = changed.size() + deleted.size();
+        event.bytes = Snapshot.writeDelta(snapshot, changed, deleted, accountNumbers.getLastAssigned(), nextGeneration, pager);
+        if(!mergeScheduled && mergeFailure == null && Snapshot.countDeltas(snapshot) >= MERGE_AFTER_DELTAS) {
+            mergeScheduled = true;
+            if(merger == null) {
+                merger = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "bank-snapshot-merger");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            merger.execute(this::mergeDeltas);
+        }
+    }
+
+    // Merges the deltas into a new base in the background. Only the final swap holds the checkpoint lock,
+    // and the merge is thrown away if a full checkpoint replaced the base in the meantime. A merge that fails
+    // is recorded like a failed save, and no more merges are scheduled until the next save has written the
+    // whole bank, which includes the deltas.
+    private void mergeDeltas() {
+        Path snapshot = Paths.get(SNAPSHOT_FILE);
+        Path merged = snapshot.resolveSibling(snapshot.getFileName() + ".merge");
+        PersistenceEvent event = PersistenceEvent.begin(PersistenceEvent.MERGE);
+        event.fullCheckpoint = true;
+        boolean succeeded = false;
+        long generation;
+        synchronized(checkpointLock) {
+            generation = checkpointGeneration;
+        }
+        try {
+            long lastDelta = Snapshot.merge(snapshot, merged);
+            if(lastDelta > 0) {
+                event.bytes = Files.size(merged);
+            }
+            synchronized(checkpointLock) {
+                if(lastDelta > 0 && generation == checkpointGeneration) {
+                    Snapshot.replaceWithMerged(snapshot, merged, lastDelta);
+                    checkpointGeneration++;
+                }
+            }
+            succeeded = true;
+        } catch (IOException e) {
+            synchronized(checkpointLock) {
+                // a full save that deleted the deltas while they were read already has them in its base
+                if(generation == checkpointGeneration) {
+                    // the deltas are still there, and the next save writes the whole bank instead
+                    mergeFailure = e;
+                    fullCheckpointNeeded = true;
+                } else {
+                    succeeded = true;
+                }
+            }
+        } finally {
+            event.end(succeeded);
+            try {
+                Files.deleteIfExists(merged);
+            } catch (IOException ignored) {
+            }
+            synchronized(checkpointLock) {
+                mergeScheduled = false;
+            }
+        }
+    }
+
+    // Waits until the merges that are scheduled have finished, used by the tests
+    void awaitMerges() throws InterruptedException, ExecutionException {
+        ExecutorService currentMerger;
+        synchronized(checkpointLock) {
+            currentMerger = merger;
+        }
+        if(currentMerger != null) {
+            currentMerger.submit(() -> { }).get();
+        }
+    }
+
     // Method to load all the customers in the bank from a file
     public boolean loadCustomerFromFile() throws IOException, ClassNotFoundException {
-        FileInputStream fileInputStream = new FileInputStream("robein9_files/bank.dat");
-        ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
+        long start = startTiming();
+        PersistenceEvent event = PersistenceEvent.begin(PersistenceEvent.LOAD);
+        boolean loaded = false;
+        writeLock.lock();
+        try {
+            boolean found;
+            if(journal != null) {
+                journal.flush();
+                found = recover();
+            } else {
+                found = loadCustomers();
+            }
+            // the size of the files is only looked up when the event may be recorded
+            if(event.isEnabled()) {
+                event.customers = customers.size();
+                event.bytes = Snapshot.size(Paths.get(SNAPSHOT_FILE));
+            }
+            loaded = true;
+            return found;
+        } finally {
+            writeLock.unlock();
+            event.end(loaded);
+            timed(BankMetrics.Operation.LOAD, start, loaded);
+        }
+    }
+
+    // Replaces all customers with the ones in the file while the caller holds the write lock
+    private boolean loadCustomers() throws IOException, ClassNotFoundException {
+        Path snapshot = Paths.get(SNAPSHOT_FILE);
+        if(!Snapshot.isSnapshot(snapshot)) {
+            // a bank saved with Java serialization was saved before the journal
+            journalGeneration = 0;
+            return loadSerializedCustomers();
+        }
+        customers.clear();
+        accounts.clear();
+        CustomerPager currentPager = pager;
+        int lastAssignedAccNr;
+        synchronized(checkpointLock) {
+            lastAssignedAccNr = currentPager != null
+                    ? currentPager.open(snapshot, customers, accounts)
+                    : Snapshot.read(snapshot, customers, accounts, transactionStore);
+            changedCustomers.clear();
+            fullCheckpointNeeded = false;
+        }
+        journalGeneration = Snapshot.journalGeneration(snapshot);
+        // continue numbering after the last assigned account nr
+        accountNumbers.reset(lastAssignedAccNr);
+        return customers.size() > 0;
+    }
+
+    // Loads a bank that was saved with Java serialization before the snapshot format was introduced. The
+    // accounts convert their balances and formatted transactions when they are read, see Account.
+    private boolean loadSerializedCustomers() throws IOException, ClassNotFoundException {
+        try(ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(SNAPSHOT_FILE))) {
+            return readSerializedCustomers(objectInputStream);
+        }
+    }
+    private boolean readSerializedCustomers(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
         // get size of customer list
         Object readCustomersSize = objectInputStream.readInt();
         int numOfCustomers = (int) readCustomersSize;
@@ -307,90 +1281,830 @@ public class BankLogic {
             // get last account number
             Object readAccNr = objectInputStream.readInt();
             int lastAssignedAccNr = (int) readAccNr;
+            accounts.clear();
             for(int i = 0; i < numOfCustomers; i++) {
-                Object readObject = objectInputStream.readObject();
-                customers.add((Customer) readObject);
-            }
-            // set last assigned account nr
-            for(Customer tempCustomer : customers) {
-                if(tempCustomer.getAccounts().size() != 0) {
-                    tempCustomer.getAccounts().get(0).setLastAssignedAccountNumber(lastAssignedAccNr);
+                Customer readCustomer = (Customer) objectInputStream.readObject();
+                customers.add(readCustomer);
+                for(Account account : readCustomer.getAccounts()) {
+                    storeTransactions(account);
+                    accounts.put(account, readCustomer);
                 }
             }
-            objectInputStream.close();
+            // continue numbering after the last assigned account nr
+            accountNumbers.reset(lastAssignedAccNr);
+            fullCheckpointNeeded = true;
+            if(pager != null) {
+                pageLoadedCustomers(pager);
+            }
             return true;
         }
-        objectInputStream.close();
         return false;
 
     }
 
-    // Save all transactions of an account to a file
+    // Save all transactions of an account to a file. The format is the same as before, but the transactions
+    // are formatted and written one at a time instead of first being collected in a list.
     public void saveTransactionsToFile(String pNo, int accountNumber) throws IOException {
-        // Get account balance
-        Customer customer = this.findCustomer(pNo);
-        BigDecimal balance = new BigDecimal("0");
-        for(Account account : customer.getAccounts()) {
-            if(account.getAccountNumber() == accountNumber) {
-                balance = account.getBalance();
+        // Get account balance and a copy of the transactions
+        Account account = lookupAccount(pNo, accountNumber);
+        Object balance = account == null ? "0" : account.getBalance();
+        TransactionLog log = account == null ? null : account.copyTransactionLog();
+        // Write to file
+        try(PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(TRANSACTIONS_FILE)))) {
+            pw.println("Transactions saved: " + LocalDate.now());
+            // the transactions as one line, like the list of formatted transactions prints itself
+            if(log == null) {
+                pw.println("null");
+            } else {
+                pw.print('[');
+                for(int i = 0; i < log.size(); i++) {
+                    if(i > 0) {
+                        pw.print(", ");
+                    }
+                    pw.print(log.format(i));
+                }
+                pw.println(']');
             }
+            pw.println("Current balance: " + balance + "kr");
         }
-        // Write to file
-        PrintWriter pw = new PrintWriter(new FileWriter("robein9_files/transactions.txt"));
-        ArrayList<String> transactions = this.getTransactions(pNo, accountNumber);
-        pw.println("Transactions saved: " + java.time.LocalDate.now());
-        pw.println(transactions);
-        pw.println("Current balance: " + balance + "kr");
-        pw.close();
+    }
+
+    // Save all transactions of an account to a CSV file, see exportTransactions
+    public void saveTransactionsToCsvFile(String pNo, int accountNumber) throws IOException {
+        exportTransactions(Paths.get(TRANSACTIONS_CSV_FILE), pNo, new int[] { accountNumber }, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * This method will export the transactions made during a time range in some of the accounts of a customer
+     * to one CSV file, see TransactionExporter. Accounts that the customer doesn't own are left out.
+     * @param file path of the CSV file
+     * @param pNo personal number of the customer that the accounts belong to
+     * @param accountIds ids of the accounts
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @return the number of transactions that were exported
+     */
+    public long exportTransactions(Path file, String pNo, int[] accountIds, long fromTime, long toTime) throws IOException {
+        long start = startTiming();
+        List<Account> toExport = new ArrayList<>();
+        for(int accountId : accountIds) {
+            Account account = lookupAccount(pNo, accountId);
+            if(account != null) {
+                toExport.add(account);
+            }
+        }
+        long exported = TransactionExporter.export(file, toExport, fromTime, toTime);
+        timed(BankMetrics.Operation.EXPORT_TRANSACTIONS, start, true);
+        return exported;
+    }
+
+    /**
+     * This method will export the transactions made during a time range in every account of the bank, each
+     * account to its own CSV file named after the account number. The files are written in parallel.
+     * @param directory the directory of the CSV files
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @return the number of transactions that were exported
+     */
+    public long exportAllTransactions(Path directory, long fromTime, long toTime) throws IOException {
+        List<String> allPNos = allCustomerPNos();
+        // paged customers are exported a part at a time so no more of them than the pager allows are loaded
+        CustomerPager currentPager = pager;
+        int partSize = currentPager == null ? Math.max(1, allPNos.size()) : Math.max(1, currentPager.getMaxLoadedCustomers() / 2);
+        long exported = 0;
+        for(int from = 0; from < allPNos.size(); from += partSize) {
+            List<String> part = allPNos.subList(from, Math.min(from + partSize, allPNos.size()));
+            List<Account> partAccounts = new ArrayList<>();
+            lockLoaded(part);
+            try {
+                for(String pNo : part) {
+                    Customer customer = customers.get(pNo);
+                    if(customer != null) {
+                        partAccounts.addAll(customer.getAccounts());
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            // an account can still be read after the lock is released, even if its customer is evicted
+            exported += TransactionExporter.exportEach(directory, partAccounts, fromTime, toTime);
+        }
+        return exported;
     }
     
     /**
      * Helper methods
      */
 
+    // Starts timing a call if metrics are enabled, 0 means the call isn't timed
+    private long startTiming() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    // Records a timed call and passes its result through. A call fails if it returns false, -1 or null.
+    private boolean timed(BankMetrics.Operation operation, long start, boolean succeeded) {
+        BankMetrics current = metrics;
+        if(current != null && start != 0) {
+            current.record(operation, start, succeeded);
+        }
+        return succeeded;
+    }
+    private int timed(BankMetrics.Operation operation, long start, int result) {
+        timed(operation, start, result >= 0);
+        return result;
+    }
+    private <T> T timed(BankMetrics.Operation operation, long start, T result) {
+        timed(operation, start, result != null);
+        return result;
+    }
+
+    private void lookupMissed() {
+        BankMetrics current = metrics;
+        if(current != null) {
+            current.lookupMissed();
+        }
+    }
+
+    private void rejectedWithdrawal() {
+        BankMetrics current = metrics;
+        if(current != null) {
+            current.rejectedWithdrawal();
+        }
+    }
+
+    // Counts the withdrawals of a batch that were turned down and the accounts that didn't exist
+    private void countBatchResults(List<BatchOperation> operations, byte[] results) {
+        BankMetrics current = metrics;
+        if(current == null) {
+            return;
+        }
+        for(int i = 0; i < results.length; i++) {
+            if(results[i] == BatchOperation.NO_SUCH_ACCOUNT) {
+                current.lookupMissed();
+            } else if(results[i] == BatchOperation.REJECTED && !operations.get(i).isDeposit()) {
+                current.rejectedWithdrawal();
+            }
+        }
+    }
+
+    // Copies the personal numbers of all customers in the order they were added
+    private List<String> allCustomerPNos() {
+        readLock.lock();
+        try {
+            List<String> allPNos = new ArrayList<>(customers.size());
+            for(Customer customer : customers) {
+                allPNos.add(customer.getPNo());
+            }
+            return allPNos;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     // Checks if the there is a customer with the specified personal number in the
-    // list of customers
+    // customer registry
     private boolean containsCustomer(String pNo) {
-        for(Customer currCustomer : customers) {
-            if(currCustomer.getPNo().equals(pNo)) {
-                return true;
-            }
+        readLock.lock();
+        try {
+            return customers.contains(pNo);
+        } finally {
+            readLock.unlock();
         }
-        return false;
     }
 
-    // Searches the customers list and returns the customer with the matching
-    // personal number
+    // Looks up the customer with the matching personal number in the customer registry and loads them
+    // if they are paged out, returns null if there is no such customer
    public Customer findCustomer(String pNo) {
-        Customer customer = null;
-        for(Customer currCustomer : customers) {
-            if(currCustomer.getPNo().equals(pNo)) {
-                customer = currCustomer;
+        lockLoaded(pNo);
+        try {
+            return customers.get(pNo);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Adds a new account to the customer with the specified personal number and to the account index.
+    // Returns the account number, or -1 if the customer was deleted before the account could be added
+    // or a bank loaded in the meantime already uses the number.
+    private int addAccount(String pNo, Account newAccount) {
+        long seq;
+        writeLock.lock();
+        try {
+            Customer tempCustomer = findCustomer(pNo);
+            if(tempCustomer == null || accounts.getOwner(newAccount.getAccountNumber()) != null) {
+                return -1;
             }
+            storeTransactions(newAccount);
+            tempCustomer.addAccount(newAccount);
+            accounts.put(newAccount, tempCustomer);
+            Journal current = journal;
+            byte accountType = newAccount instanceof SavingsAccount ? Journal.SAVINGS_ACCOUNT : Journal.CREDIT_ACCOUNT;
+            seq = current == null ? 0 : current.accountOpened(pNo, newAccount.getAccountNumber(), accountType);
+            markChanged(pNo);
+        } finally {
+            writeLock.unlock();
         }
-        return customer;
+        awaitJournal(seq);
+        return newAccount.getAccountNumber();
     }
 
-    // Fetches the accounts of the specified customer and returns the account
-    // at the first index of the list. This method is called when a customer is deleted,
-    // once for each account that the customer has. The first index is used because each call to
-    // closeAccount() will shift each element in the accounts list one index to the left.
-   private int findAccount(Customer customer) {
-        List<Account> copyOfAccounts = customer.getAccounts();
-        return copyOfAccounts.get(FIRST_INDEX).getAccountNumber();
-   }
+    // Splits the positions of the operations of a batch into parts with no more customers than the pager can
+    // keep loaded at once, like postPagedInterest does, or into one part when the customers aren't paged.
+    // All operations of a customer are in the same part, in the order they have in the batch.
+    private static List<int[]> batchParts(List<BatchOperation> operations, CustomerPager currentPager) {
+        int size = operations.size();
+        if(currentPager == null) {
+            return Collections.singletonList(IntStream.range(0, size).toArray());
+        }
+        int partSize = Math.max(1, currentPager.getMaxLoadedCustomers() / 2);
+        // sort the positions by the part of their customer, packed into one long each
+        Map<String, Integer> ownerNumbers = new HashMap<>();
+        long[] byPart = new long[size];
+        for(int i = 0; i < size; i++) {
+            int owner = ownerNumbers.computeIfAbsent(operations.get(i).getPNo(), pNo -> ownerNumbers.size());
+            byPart[i] = ((long) (owner / partSize) << 32) | i;
+        }
+        Arrays.sort(byPart);
+        List<int[]> parts = new ArrayList<>();
+        for(int from = 0; from < size; ) {
+            int to = from + 1;
+            while(to < size && (int) (byPart[to] >> 32) == (int) (byPart[from] >> 32)) {
+                to++;
+            }
+            int[] part = new int[to - from];
+            for(int i = from; i < to; i++) {
+                part[i - from] = (int) byPart[i];
+            }
+            parts.add(part);
+            from = to;
+        }
+        return parts;
+    }
 
+    // Applies the operations at some positions of a batch with their customers loaded, and returns the
+    // sequence number of the last journal record
+    private long applyBatchPart(List<BatchOperation> operations, int[] part, byte[] results) {
+        int size = part.length;
+        // sort the operations by account number and then by position, packed into one long each
+        long[] order = new long[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = ((long) operations.get(part[i]).getAccountId() << 32) | part[i];
+        }
+        Arrays.parallelSort(order);
+        // find where each account's group of operations starts
+        int[] groupStarts = new int[size + 1];
+        int groups = 0;
+        for(int i = 0; i < size; i++) {
+            if(i == 0 || (int) (order[i] >> 32) != (int) (order[i - 1] >> 32)) {
+                groupStarts[groups++] = i;
+            }
+        }
+        groupStarts[groups] = size;
 
-    // checks if the specified customer is the owner of the account with the
-    // specified account number.
-   private boolean customerOwnsAccount(String pNo, int accountId) {
-        Customer tempCustomer = findCustomer(pNo);
-        List<Account> copyOfAccounts = tempCustomer.getAccounts();
-        for(Account account : copyOfAccounts) {
-            if(account.getAccountNumber() == accountId) {
-                return true;
+        LongAccumulator lastSeq = new LongAccumulator(Math::max, 0);
+        // the read lock keeps the accounts from being closed while the batch is applied
+        Set<String> owners = new HashSet<>();
+        for(int position : part) {
+            owners.add(operations.get(position).getPNo());
+        }
+        lockLoaded(owners);
+        try {
+            IntStream.range(0, groups).parallel().forEach(group ->
+                    lastSeq.accumulate(applyGroup(operations, order, groupStarts[group], groupStarts[group + 1], results)));
+        } finally {
+            readLock.unlock();
+        }
+        return lastSeq.get();
+    }
+
+    // Applies the operations between from and to in the sorted order, which all have the same account.
+    // Returns the sequence number of the last journal record, 0 if nothing was journaled.
+    private long applyGroup(List<BatchOperation> operations, long[] order, int from, int to, byte[] results) {
+        int accountId = (int) (order[from] >> 32);
+        Account account = accounts.get(accountId);
+        Customer owner = accounts.getOwner(accountId);
+        if(account == null) {
+            for(int i = from; i < to; i++) {
+                results[(int) order[i]] = BatchOperation.NO_SUCH_ACCOUNT;
             }
+            return 0;
         }
-        return false;
-   }
+        long seq = 0;
+        synchronized(account) {
+            for(int i = from; i < to; i++) {
+                int index = (int) order[i];
+                BatchOperation operation = operations.get(index);
+                if(!owner.getPNo().equals(operation.getPNo())) {
+                    results[index] = BatchOperation.NO_SUCH_ACCOUNT;
+                } else {
+                    results[index] = operation.applyTo(account);
+                    if(results[index] == BatchOperation.APPLIED) {
+                        seq = journalTransaction(account, operation.isDeposit() ? Journal.DEPOSIT : Journal.WITHDRAWAL);
+                        markChanged(owner.getPNo());
+                    }
+                }
+            }
+        }
+        return seq;
+    }
+
+    // Appends the last transaction of the account to the journal, the caller holds the lock of the account.
+    // Returns the sequence number of the record, 0 if there is no journal.
+    private long journalTransaction(Account account, byte kind) {
+        Journal current = journal;
+        return current == null ? 0 : account.journalLastTransaction(current, kind);
+    }
+
+    // Closes a file of the bank and returns the first error, so the files after it are closed as well
+    private static IOException closeFile(Closeable file, IOException failure) {
+        if(file == null) {
+            return failure;
+        }
+        try {
+            file.close();
+        } catch (IOException | UncheckedIOException e) {
+            IOException error = e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e;
+            if(failure == null) {
+                return error;
+            }
+            failure.addSuppressed(error);
+        }
+        return failure;
+    }
+
+    // Remembers that a customer or one of their accounts changed since the last checkpoint
+    private void markChanged(String pNo) {
+        changedCustomers.add(pNo);
+        CustomerPager currentPager = pager;
+        if(currentPager != null) {
+            Customer customer = customers.get(pNo);
+            if(customer != null) {
+                currentPager.markModified(customer);
+            }
+        }
+    }
+
+    // Takes the read lock with the customers loaded. Customers that aren't loaded are loaded under the
+    // write lock, which is then downgraded, so they can't be evicted until the read lock is released.
+    private void lockLoaded(String... pNos) {
+        lockLoaded(Arrays.asList(pNos));
+    }
+    private void lockLoaded(Collection<String> pNos) {
+        readLock.lock();
+        CustomerPager currentPager = pager;
+        if(currentPager == null || allLoaded(currentPager, pNos)) {
+            return;
+        }
+        if(registryLock.isWriteLockedByCurrentThread()) {
+            try {
+                loadPagedCustomers(currentPager, pNos);
+            } catch (RuntimeException e) {
+                readLock.unlock();
+                throw e;
+            }
+            return;
+        }
+        readLock.unlock();
+        if(registryLock.getReadHoldCount() > 0) {
+            // the read lock can't be upgraded, the outermost caller has to load the customers
+            throw new IllegalStateException("Customers can only be loaded by the outermost call that holds the lock");
+        }
+        writeLock.lock();
+        boolean loaded = false;
+        try {
+            loadPagedCustomers(currentPager, pNos);
+            loaded = true;
+        } finally {
+            if(loaded) {
+                readLock.lock();
+            }
+            writeLock.unlock();
+        }
+    }
+
+    // Checks that the customers that exist are loaded and marks them as used, the caller holds the read lock
+    private boolean allLoaded(CustomerPager currentPager, Collection<String> pNos) {
+        boolean loaded = true;
+        for(String pNo : pNos) {
+            Customer customer = customers.get(pNo);
+            if(customer != null) {
+                currentPager.touch(customer);
+                loaded &= currentPager.isLoaded(customer);
+            }
+        }
+        return loaded;
+    }
+
+    // Loads the customers that aren't loaded and evicts others if there are too many, the caller holds
+    // the write lock
+    private void loadPagedCustomers(CustomerPager currentPager, Collection<String> pNos) {
+        try {
+            for(String pNo : pNos) {
+                Customer customer = customers.get(pNo);
+                if(customer != null && !currentPager.isLoaded(customer)) {
+                    currentPager.load(customer, accounts, transactionStore);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("A customer couldn't be loaded", e);
+        }
+        evictCustomers(currentPager, pNos);
+    }
+
+    // Evicts the least recently used customers except the pinned ones, the caller holds the write lock
+    private void evictCustomers(CustomerPager currentPager, Collection<String> pinned) {
+        try {
+            currentPager.evict(customers, accounts, pinned instanceof Set ? pinned : new HashSet<>(pinned));
+        } catch (IOException e) {
+            throw new UncheckedIOException("A customer couldn't be evicted", e);
+        }
+    }
+
+    // Pages the customers that were loaded in full and evicts the ones that don't fit, the caller holds
+    // the write lock
+    private void pageLoadedCustomers(CustomerPager currentPager) {
+        for(Customer customer : customers) {
+            currentPager.adopt(customer);
+        }
+        evictCustomers(currentPager, Collections.emptySet());
+    }
+
+    // Moves the transactions of an account to the transaction store if there is one,
+    // the caller holds the write lock
+    private void storeTransactions(Account account) {
+        if(transactionStore != null) {
+            account.storeTransactionsIn(transactionStore);
+        }
+    }
+
+    // Waits until the journal record with the sequence number is on disk
+    private void awaitJournal(long seq) {
+        Journal current = journal;
+        if(seq > 0 && current != null) {
+            current.awaitDurable(seq);
+        }
+    }
+
+    // Rebuilds the bank from the last snapshot and the journal, the caller holds the write lock.
+    // Returns true if there are any customers afterwards.
+    private boolean recover() throws IOException, ClassNotFoundException {
+        customers.clear();
+        accounts.clear();
+        changedCustomers.clear();
+        fullCheckpointNeeded = true;
+        if(pager != null) {
+            pager.clear();
+        }
+        accountNumbers.reset(AccountNumberAllocator.FIRST_ACCOUNT_NUMBER - 1);
+        journalGeneration = 0;
+        if(Files.exists(Paths.get(SNAPSHOT_FILE))) {
+            loadCustomers();
+        }
+        // a journal of an older generation was saved in the snapshot, but the bank stopped before it was emptied
+        Path file = Paths.get(JOURNAL_FILE);
+        if(Journal.generationOf(file) >= journalGeneration) {
+            replayEvents(Collections.singletonList(file), null, Long.MAX_VALUE);
+        }
+        return customers.size() > 0;
+    }
+
+    // Archives the journal as the next segment of the history before it is emptied, and writes a new base
+    // of the whole bank when there is none yet or enough segments have been archived since the last one.
+    // A base that is written right away already has the events of the journal, so it isn't archived. A journal
+    // that failed is missing events, so a base is written instead. The caller holds the write lock and has
+    // just saved the bank.
+    private void archiveJournal(Journal current, boolean complete, long nextGeneration) throws IOException {
+        List<Path> bases = historyFiles(HISTORY_BASE);
+        List<Path> segments = historyFiles(HISTORY_SEGMENT);
+        long nextSegment = segments.isEmpty() ? 1 : historyNumber(segments.get(segments.size() - 1), HISTORY_SEGMENT) + 1;
+        if(!bases.isEmpty() && complete) {
+            if(!current.hasRecords()) {
+                return;
+            }
+            current.archiveTo(history.resolve(HISTORY_SEGMENT + nextSegment + ".log"));
+            nextSegment++;
+            long lastBase = historyNumber(bases.get(bases.size() - 1), HISTORY_BASE);
+            if(nextSegment - lastBase < SEGMENTS_PER_HISTORY_BASE) {
+                return;
+            }
+        }
+        // the base holds the segments before its number and the time it was written
+        Path base = history.resolve(HISTORY_BASE + nextSegment + "-" + System.currentTimeMillis() + ".dat");
+        Snapshot.write(base, customers, accountNumbers.getLastAssigned(), nextGeneration, pager);
+    }
+
+    // Replaces a journal that couldn't be written with a new, empty one of the next generation, once the whole
+    // bank has been saved without it. The caller holds the write lock.
+    private void restartJournal(Journal failed, long nextGeneration) throws IOException {
+        failed.close();
+        Files.deleteIfExists(failed.getFile());
+        journal = new Journal(failed.getFile(), nextGeneration);
+    }
+
+    // Lists the bases or the segments of the history in the order they were written
+    private List<Path> historyFiles(String prefix) throws IOException {
+        try(Stream<Path> files = Files.list(history)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)
+                            && !path.getFileName().toString().endsWith(".tmp"))
+                    .sorted(Comparator.comparingLong(path -> historyNumber(path, prefix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // The number in the name of a base or a segment, events-7.log is 7 and base-7-1700000000000.dat is 7
+    private static long historyNumber(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        int end = name.indexOf(name.startsWith(HISTORY_BASE) ? '-' : '.', prefix.length());
+        return Long.parseLong(name.substring(prefix.length(), end));
+    }
+
+    // The time a base was written, the last number in its name
+    private static long historyBaseTime(Path base) {
+        String name = base.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    // Replays journal files and then the contents of a journal on top of the customers that are loaded, up to
+    // a point in time. The customers are split in one partition per processor, or a single partition if
+    // customers are paged, since paging a customer in changes the registry. The caller holds the write lock.
+    private void replayEvents(List<Path> files, ByteBuffer tail, long until) throws IOException {
+        Reducer[] reducers = new Reducer[pager == null ? Runtime.getRuntime().availableProcessors() : 1];
+        for(int i = 0; i < reducers.length; i++) {
+            reducers[i] = new Reducer();
+        }
+        EventReplayer replayer = new EventReplayer(reducers, accountNumber -> {
+            Customer owner = accounts.getOwner(accountNumber);
+            return owner == null ? null : owner.getPNo();
+        }, until);
+        for(Path file : files) {
+            replayer.replay(file);
+        }
+        if(tail != null) {
+            replayer.replay(tail);
+        }
+        int lastAccountNumber = accountNumbers.getLastAssigned();
+        long skipped = replayer.getSkipped();
+        for(Reducer reducer : reducers) {
+            reducer.merge();
+            lastAccountNumber = Math.max(lastAccountNumber, reducer.lastAccountNumber);
+            skipped += reducer.skipped;
+        }
+        accountNumbers.reset(lastAccountNumber);
+        skippedEvents = skipped;
+    }
+
+    // The reducer of the bank, which applies the events of one partition of customers. Customers and accounts
+    // that the events create are kept in the partition until merge(), and the ones that already exist are
+    // changed in place, so partitions with different customers can apply their events at the same time.
+    // With paged customers there is one partition that changes the registry directly, like the bank does.
+    // The customers are marked as changed, since the snapshot doesn't have the changes yet. An event on a
+    // customer or account that doesn't exist when it is applied is skipped and counted, instead of failing
+    // the whole recovery.
+    private class Reducer implements Journal.Handler {
+        private final boolean direct = pager != null;
+        private final Map<String, Customer> created = new HashMap<>();
+        private final Set<String> deleted = new HashSet<>();
+        private final AccountIndex opened = new AccountIndex();
+        private final AccountIndex seen = new AccountIndex();
+        private final Set<Integer> closed = new HashSet<>();
+        private final Set<String> changed = new HashSet<>();
+        private final Set<String> renamed = new HashSet<>();
+        private int lastAccountNumber = 0;
+        private long skipped = 0;
+
+        @Override
+        public void customerCreated(String pNo, String firstName, String lastName) {
+            Customer customer = new Customer(firstName, lastName, pNo);
+            if(direct) {
+                if(!customers.add(customer)) {
+                    skipped++;
+                    return;
+                }
+                pager.adopt(customer);
+                evictCustomers(pager, Collections.singleton(pNo));
+            } else {
+                // a customer that already exists isn't created again, like in the registry
+                if(customer(pNo) != null) {
+                    skipped++;
+                    return;
+                }
+                created.put(pNo, customer);
+            }
+            touch(pNo);
+        }
+
+        @Override
+        public void customerRenamed(String pNo, String firstName, String lastName) {
+            Customer customer = customer(pNo);
+            if(customer == null) {
+                skipped++;
+                return;
+            }
+            customer.setFirstName(firstName);
+            customer.setLastName(lastName);
+            if(direct) {
+                customers.nameChanged(customer);
+            } else if(!created.containsKey(pNo)) {
+                renamed.add(pNo);
+            }
+            touch(pNo);
+        }
+
+        @Override
+        public void customerDeleted(String pNo) {
+            // the accounts of the customer were closed by the events before this one
+            if(direct) {
+                customers.remove(pNo);
+            } else if(created.remove(pNo) == null) {
+                deleted.add(pNo);
+            }
+            touch(pNo);
+        }
+
+        @Override
+        public void accountOpened(String pNo, int accountNumber, byte accountType) {
+            Customer customer = customer(pNo);
+            // an account number is never opened twice, the index would lose the account that has it
+            if(customer == null || opened.getOwner(accountNumber) != null
+                    || (accounts.getOwner(accountNumber) != null && !closed.contains(accountNumber))) {
+                skipped++;
+                return;
+            }
+            Account account = accountType == Journal.SAVINGS_ACCOUNT
+                    ? new SavingsAccount(SAV_ACC_TYPE, accountNumber)
+                    : new CreditAccount(CRED_ACC_TYPE, accountNumber);
+            storeTransactions(account);
+            customer.addAccount(account);
+            if(direct) {
+                accounts.put(account, customer);
+            } else {
+                opened.put(account, customer);
+            }
+            lastAccountNumber = Math.max(lastAccountNumber, accountNumber);
+            touch(pNo);
+        }
+
+        @Override
+        public void accountClosed(String pNo, int accountNumber) {
+            Customer customer = customer(pNo);
+            if(customer == null) {
+                skipped++;
+                return;
+            }
+            customer.removeAccount(accountNumber);
+            if(direct) {
+                accounts.remove(accountNumber);
+            } else if(opened.remove(accountNumber) == null) {
+                seen.remove(accountNumber);
+                closed.add(accountNumber);
+            }
+            touch(pNo);
+        }
+
+        // The owner of an account that was opened by the events is already marked as changed, and an account
+        // that existed is looked up and its owner marked the first time it is seen. With paged customers, the
+        // account is looked up every time, since it is read again when its owner is paged out and back in.
+        // An account that was closed by the events, or never existed, has no owner and the event is skipped.
+        @Override
+        public void transaction(int accountNumber, byte kind, long amount, long timestamp, long link) {
+            Account account = opened.get(accountNumber);
+            if(account == null) {
+                account = seen.get(accountNumber);
+            }
+            if(account == null) {
+                Customer owner = closed.contains(accountNumber) ? null : accounts.getOwner(accountNumber);
+                account = owner == null ? null : existingAccount(accountNumber, owner.getPNo());
+                if(account == null) {
+                    skipped++;
+                    return;
+                }
+                touch(owner.getPNo());
+                if(!direct) {
+                    seen.put(account, owner);
+                }
+            }
+            account.replayTransaction(kind, amount, timestamp, link);
+        }
+
+        // Moves the customers and accounts of the partition into the registry and the account index,
+        // the caller holds the write lock and the partitions are merged one at a time
+        private void merge() {
+            for(String pNo : deleted) {
+                customers.remove(pNo);
+            }
+            for(int accountNumber : closed) {
+                accounts.remove(accountNumber);
+            }
+            for(String pNo : renamed) {
+                Customer customer = customers.get(pNo);
+                if(customer != null) {
+                    customers.nameChanged(customer);
+                }
+            }
+            // a customer that already exists isn't replaced, and the accounts opened for the duplicate are dropped
+            for(Customer customer : created.values()) {
+                if(!customers.add(customer)) {
+                    skipped++;
+                    for(Account account : customer.getAccounts()) {
+                        opened.remove(account.getAccountNumber());
+                        skipped++;
+                    }
+                }
+            }
+            for(Account account : opened.toArray()) {
+                accounts.put(account, opened.getOwner(account.getAccountNumber()));
+            }
+            for(String pNo : changed) {
+                markChanged(pNo);
+            }
+        }
+
+        // Gets a customer of the partition, a customer created by the events comes before one that existed
+        private Customer customer(String pNo) {
+            Customer customer = created.get(pNo);
+            if(customer != null || deleted.contains(pNo)) {
+                return customer;
+            }
+            if(direct) {
+                loadPagedCustomers(pager, Collections.singleton(pNo));
+            }
+            return customers.get(pNo);
+        }
+
+        // Gets an account that existed before the events, paging its owner in if needed
+        private Account existingAccount(int accountNumber, String pNo) {
+            if(direct) {
+                loadPagedCustomers(pager, Collections.singleton(pNo));
+            }
+            return accounts.get(accountNumber);
+        }
+
+        // Marks a customer as changed, right away if the customer is paged since only a loaded customer
+        // can be marked, and when the partition is merged otherwise
+        private void touch(String pNo) {
+            if(direct) {
+                markChanged(pNo);
+            } else {
+                changed.add(pNo);
+            }
+        }
+    }
+
+    // Looks up an account in the account index if it is owned by the customer with the
+    // specified personal number, returns null otherwise
+    private Account lookupAccount(String pNo, int accountId) {
+        lockLoaded(pNo);
+        try {
+            Account account = accounts.get(pNo, accountId);
+            if(account == null) {
+                lookupMissed();
+            }
+            return account;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Lets an interest run skip the accounts that were closed during the run, and marks the owners of the
+    // accounts that got interest as changed like a deposit does, so a delta checkpoint includes them. Each
+    // chunk holds the read lock, so no account is closed and the journal isn't emptied by a save until the
+    // interest of the chunk is journaled. A paged run already holds the read lock for the whole part, and
+    // the chunks don't take it again, since a thread of the pool would queue behind a waiting save.
+    private class InterestLedger implements InterestRun.Ledger {
+        private final boolean partLocked;
+
+        private InterestLedger(boolean partLocked) {
+            this.partLocked = partLocked;
+        }
+
+        @Override
+        public void beginChunk() {
+            if(!partLocked) {
+                readLock.lock();
+            }
+        }
+
+        @Override
+        public void endChunk() {
+            if(!partLocked) {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public Journal journal() {
+            return journal;
+        }
+
+        @Override
+        public Customer ownerOf(Account account) {
+            int accountNumber = account.getAccountNumber();
+            return accounts.get(accountNumber) == account ? accounts.getOwner(accountNumber) : null;
+        }
+
+        @Override
+        public void interestPosted(Customer owner) {
+            markChanged(owner.getPNo());
+        }
+    }
 }
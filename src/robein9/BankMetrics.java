@@ -0,0 +1,176 @@
+/**
+ * Description
+ * This class counts the calls to the public operations of a bank and records their latencies. Each operation
+ * has a LatencyHistogram and a striped counter of failed calls, so recording a call takes a couple of
+ * increments of counters that threads rarely share, plus two reads of the clock in BankLogic. Percentiles are
+ * only calculated when the metrics are read through JMX.
+ *
+ * A call fails if the bank turned it down, for example a withdrawal that the account doesn't cover or an
+ * operation on an account that doesn't exist.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BankMetrics implements BankMetricsMXBean {
+
+    // Instance variables
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] failures = new LongAdder[Operation.values().length];
+    private final LongAdder rejectedWithdrawals = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+    private volatile long lastSaveNanos = 0;
+    private volatile long lastLoadNanos = 0;
+
+    // Constants
+    private static final double NANOS_PER_MICRO = 1e3;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The operations that are measured, by the name of the method of BankLogic
+     */
+    public enum Operation {
+        CREATE_CUSTOMER("createCustomer"),
+        GET_CUSTOMER("getCustomer"),
+        SEARCH_CUSTOMERS("searchCustomers"),
+        CHANGE_CUSTOMER_NAME("changeCustomerName"),
+        DELETE_CUSTOMER("deleteCustomer"),
+        CREATE_SAVINGS_ACCOUNT("createSavingsAccount"),
+        CREATE_CREDIT_ACCOUNT("createCreditAccount"),
+        GET_ACCOUNT("getAccount"),
+        GET_TRANSACTIONS("getTransactions"),
+        GET_TRANSACTION_PAGE("getTransactionPage"),
+        DEPOSIT("deposit"),
+        WITHDRAW("withdraw"),
+        APPLY_BATCH("applyBatch"),
+        TRANSFER("transfer"),
+        CLOSE_ACCOUNT("closeAccount"),
+        POST_INTEREST("postInterest"),
+        SAVE("writeCustomersToFile"),
+        LOAD("loadCustomerFromFile"),
+        EXPORT_TRANSACTIONS("exportTransactions");
+
+        private final String methodName;
+
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+
+        public String getMethodName() {
+            return this.methodName;
+        }
+    }
+
+    /**
+     * Constructor
+     */
+    public BankMetrics() {
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            failures[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a call to an operation
+     * @param operation the operation
+     * @param startNanos the value of System.nanoTime() when the call started
+     * @param succeeded false if the bank turned the call down
+     */
+    void record(Operation operation, long startNanos, boolean succeeded) {
+        long elapsed = System.nanoTime() - startNanos;
+        latencies[operation.ordinal()].record(elapsed);
+        if(!succeeded) {
+            failures[operation.ordinal()].increment();
+        }
+        if(operation == Operation.SAVE) {
+            lastSaveNanos = elapsed;
+        } else if(operation == Operation.LOAD) {
+            lastLoadNanos = elapsed;
+        }
+    }
+
+    /**
+     * Counts a withdrawal that the account didn't cover
+     */
+    void rejectedWithdrawal() {
+        rejectedWithdrawals.increment();
+    }
+
+    /**
+     * Counts a customer or an account that was asked for but didn't exist
+     */
+    void lookupMissed() {
+        lookupMisses.increment();
+    }
+
+    @Override
+    public long getDeposits() {
+        return latencies[Operation.DEPOSIT.ordinal()].getCount();
+    }
+
+    @Override
+    public long getWithdrawals() {
+        return latencies[Operation.WITHDRAW.ordinal()].getCount();
+    }
+
+    @Override
+    public long getRejectedWithdrawals() {
+        return rejectedWithdrawals.sum();
+    }
+
+    @Override
+    public long getLookupMisses() {
+        return lookupMisses.sum();
+    }
+
+    @Override
+    public double getLastSaveMillis() {
+        return lastSaveNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastLoadMillis() {
+        return lastLoadNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        Map<String, OperationStats> operations = new LinkedHashMap<>();
+        for(Operation operation : Operation.values()) {
+            operations.put(operation.getMethodName(), getStats(operation));
+        }
+        return operations;
+    }
+
+    /**
+     * Gets the statistics of one operation
+     * @param operation the operation
+     * @return the statistics as they are now
+     */
+    public OperationStats getStats(Operation operation) {
+        LatencyHistogram histogram = latencies[operation.ordinal()];
+        long[] percentiles = histogram.getValuesAtPercentiles(50, 99, 99.9);
+        return new OperationStats(histogram.getCount(), failures[operation.ordinal()].sum(),
+                histogram.getMean() / NANOS_PER_MICRO, percentiles[0] / NANOS_PER_MICRO, percentiles[1] / NANOS_PER_MICRO,
+                percentiles[2] / NANOS_PER_MICRO, histogram.getMax() / NANOS_PER_MICRO);
+    }
+
+    @Override
+    public void reset() {
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            failures[i].reset();
+        }
+        rejectedWithdrawals.reset();
+        lookupMisses.reset();
+        lastSaveNanos = 0;
+        lastLoadNanos = 0;
+    }
+}
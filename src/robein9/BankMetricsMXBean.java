@@ -0,0 +1,53 @@
+/**
+ * Description
+ * This is the management interface of the metrics of a bank, published as a platform MXBean so it can be
+ * read with JConsole, VisualVM or any other JMX client. Latencies are in microseconds.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.Map;
+
+public interface BankMetricsMXBean {
+
+    /**
+     * Gets the number of deposits, including the ones that were turned down
+     */
+    long getDeposits();
+
+    /**
+     * Gets the number of withdrawals, including the ones that were turned down
+     */
+    long getWithdrawals();
+
+    /**
+     * Gets the number of withdrawals, transfers and batch withdrawals that were turned down because the
+     * account didn't cover them
+     */
+    long getRejectedWithdrawals();
+
+    /**
+     * Gets the number of times a customer or an account that was asked for didn't exist
+     */
+    long getLookupMisses();
+
+    /**
+     * Gets how long the last save and the last load of the bank took, in milliseconds
+     */
+    double getLastSaveMillis();
+    double getLastLoadMillis();
+
+    /**
+     * Gets the calls, failed calls and latency percentiles of every public operation of the bank, by the
+     * name of the method
+     */
+    Map<String, OperationStats> getOperations();
+
+    /**
+     * Starts counting from zero again
+     */
+    void reset();
+}
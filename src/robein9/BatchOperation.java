@@ -0,0 +1,89 @@
+/**
+ * Description
+ * This class represents one line of a batch of deposits and withdrawals, for example from a payroll
+ * or settlement file. Batches are applied with BankLogic.applyBatch, which returns one result code
+ * per operation.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+public class BatchOperation {
+
+    // Instance variables
+    private final boolean deposit;
+    private final String pNo;
+    private final int accountId;
+    private final int amount;
+
+    // Result codes
+    public static final byte APPLIED = 0;
+    public static final byte REJECTED = 1;
+    public static final byte NO_SUCH_ACCOUNT = 2;
+
+    private BatchOperation(boolean deposit, String pNo, int accountId, int amount) {
+        this.deposit = deposit;
+        this.pNo = pNo;
+        this.accountId = accountId;
+        this.amount = amount;
+    }
+
+    /**
+     * Creates an operation that deposits money in an account
+     * @param pNo personnummer of the customer
+     * @param accountId account number of the account
+     * @param amount the amount of money to deposit
+     * @return the operation
+     */
+    public static BatchOperation deposit(String pNo, int accountId, int amount) {
+        return new BatchOperation(true, pNo, accountId, amount);
+    }
+
+    /**
+     * Creates an operation that withdraws money from an account
+     * @param pNo personnummer of the customer
+     * @param accountId account number of the account
+     * @param amount the amount of money to withdraw
+     * @return the operation
+     */
+    public static BatchOperation withdrawal(String pNo, int accountId, int amount) {
+        return new BatchOperation(false, pNo, accountId, amount);
+    }
+
+    /**
+     * Getters
+     */
+    public boolean isDeposit() {
+        return this.deposit;
+    }
+    public String getPNo() {
+        return this.pNo;
+    }
+    public int getAccountId() {
+        return this.accountId;
+    }
+    public int getAmount() {
+        return this.amount;
+    }
+
+    /**
+     * Applies the operation to the account. The caller must hold the lock of the account.
+     * @param account the account of the operation
+     * @return APPLIED if the money was moved, REJECTED otherwise
+     */
+    byte applyTo(Account account) {
+        if(deposit) {
+            if(amount <= 0) {
+                return REJECTED;
+            }
+            account.depositMinor(Money.fromKronor(amount));
+            return APPLIED;
+        }
+        return account.withdrawMinor(Money.fromKronor(amount)) ? APPLIED : REJECTED;
+    }
+
+    public String toString() {
+        return (deposit ? "Deposit " : "Withdrawal ") + pNo + " " + accountId + " " + amount;
+    }
+}
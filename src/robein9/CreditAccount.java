@@ -1,8 +1,7 @@
 /**
  * Description
- * This class is a subclass of the Account class. It represents a savings account in the bank
- * where the user can deposit and save their money. The customer is allowed one free withdrawal
- * each year.
+ * This class is a subclass of the Account class. It represents a credit account in the bank
+ * with a credit limit of 5000kr.
  *
  * @author Robert Einer, robein-9
  */
@@ -14,77 +13,53 @@ import java.math.BigDecimal;
 
 public class CreditAccount extends Account {
 
-    // Instance variables
-    private BigDecimal interestRate = new BigDecimal("0.5");
-
     //Constants
-    private final BigDecimal ZERO = new BigDecimal("0");
-    private final BigDecimal CREDIT_LIMIT = new BigDecimal("5000");
-    private final BigDecimal DEBT_INTEREST_RATE = new BigDecimal("7");
-    private final BigDecimal INTEREST_RATE = new BigDecimal("0.5");
-    private final BigDecimal PERCENTAGE = new BigDecimal("100");
+    private static final long serialVersionUID = -3907076204871159720L;
+    private static final long CREDIT_LIMIT = Money.fromKronor(5000);
+    private static final BigDecimal DEBT_INTEREST_RATE = new BigDecimal("7");
+    private static final BigDecimal INTEREST_RATE = new BigDecimal("0.5");
+    private static final long DEBT_INTEREST_RATE_BASIS_POINTS = 700;
+    private static final long INTEREST_RATE_BASIS_POINTS = 50;
 
     /**
      * Constructor for credit account
      */
-    public CreditAccount(String accountType) {
-        super(accountType);
-    }
-
-    /**
-     * Calculate the interest of the credit account
-     * @return the interest
-     */
-    @Override
-    public BigDecimal calculateInterest() {
-        this.getInterestRate();
-        return (super.getBalance().multiply(interestRate)).divide(PERCENTAGE);
+    public CreditAccount(String accountType, int accountNumber) {
+        super(accountType, accountNumber);
     }
 
     /**
      * Gets the interest rate of the credit account, if balance is negative, the
-     * debt interest rate is set and returned. If balance is positive, interest rate is set
-     * to normal rate.
+     * debt interest rate is returned. If balance is positive, the normal rate is returned.
      * @return the interest rate
      */
     @Override
-    public BigDecimal getInterestRate() {
-        if(super.getBalance().compareTo(ZERO) < 0) {
-            setInterestRate(DEBT_INTEREST_RATE);
-        } else {
-            setInterestRate(INTEREST_RATE);
-        }
-        return interestRate;
+    public synchronized BigDecimal getInterestRate() {
+        return super.getBalanceMinor() < 0 ? DEBT_INTEREST_RATE : INTEREST_RATE;
     }
 
     /**
-     * Withdraws money form the credit account
-     * @param amount is the amount to withdraw
-     * @return
+     * Gets the interest rate of the credit account in basis points, the debt interest rate
+     * if the balance is negative and the normal rate otherwise.
+     * @return the interest rate in hundredths of a percent
      */
     @Override
-    public boolean withdrawMoney(BigDecimal amount) {
-       if(amount.compareTo(ZERO) > 0) {
-           if(!(super.getBalance().subtract(amount).compareTo(CREDIT_LIMIT.negate()) < 0) )  {
-               super.setBalance(amount);
-               super.addTransaction(amount.negate());
-               return true;
-           } else {
-               return false;
-           }
-        } else {
-            return false;
-        }
-
+    public synchronized long getInterestRateBasisPoints() {
+        return super.getBalanceMinor() < 0 ? DEBT_INTEREST_RATE_BASIS_POINTS : INTEREST_RATE_BASIS_POINTS;
     }
 
     /**
-     * Private method to set the value of the interest rate
-     * to either 0.5% or 7%
-     * @param interestRate the rate to set it to
+     * Decides how much to debit when money is withdrawn form the credit account.
+     * The balance may not go below the credit limit.
+     * @param amount is the amount in öre to withdraw
+     * @return the amount to debit, or -1 if it would exceed the credit limit
      */
-    private void setInterestRate(BigDecimal interestRate) {
-        this.interestRate = interestRate;
+    @Override
+    protected long debitFor(long amount) {
+       if(amount > 0 && super.getBalanceMinor() - amount >= -CREDIT_LIMIT) {
+           return amount;
+       }
+       return -1;
     }
 
 
@@ -1,7 +1,10 @@
 /**
  * Description
  * This class represents a customer of the bank. The major funcitonality of this class is to
- * remove accounts from the user, and deposit and withdraw money.
+ * add and remove accounts of the user. Deposits and withdrawals go directly to the account, which
+ * BankLogic finds through its account index. The account list is guarded by the lock of the customer.
+ * A customer that is paged by a CustomerPager has a page, and has no accounts in the list while the
+ * customer isn't loaded.
  *
  * @author Robert Einer, robein-9
  */
@@ -10,19 +13,21 @@ package robein9;
 
 // Imports
 import java.io.Serializable;
-import java.math.BigDecimal;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 public class Customer implements Serializable {
 
     // Instance variables
-    private String firstName;
-    private String lastName;
+    private volatile String firstName;
+    private volatile String lastName;
     private final String pNo;
-    private List<Account> accounts;
+    private final List<Account> accounts;
+    private transient CustomerPager.Page page;
+
+    // Constants
+    // the version of the first release, so bank files saved with Java serialization back then still load
+    private static final long serialVersionUID = -3182772878152150146L;
 
     /**
      * Constructor
@@ -49,22 +54,13 @@ public class Customer implements Serializable {
         return this.pNo;
     }
 
-    public List<String> getTransactions(int accountId) {
-        for(Account account : this.accounts) {
-            if(account.getAccountNumber() == accountId) {
-                return account.getTransactions();
-            }
-        }
-        return null;
-    }
-
     // get accounts
-    public List<Account> getAccounts() {
+    public synchronized List<Account> getAccounts() {
         return new ArrayList<>(this.accounts);
     }
 
 
-    public int getNumOfAccounts() {
+    public synchronized int getNumOfAccounts() {
         return this.accounts.size();
     }
 
@@ -84,71 +80,40 @@ public class Customer implements Serializable {
      * This method adds a new account to the customer
      * @param newAccount the new account to add
      */
-    public void addAccount(Account newAccount) {
+    public synchronized void addAccount(Account newAccount) {
         this.accounts.add(newAccount);
     }
 
     /**
      * This method will remove the account of the customer with the account number passed in as an argument.
      * @param accountId account number of the account to be removed
-     * @return the deleted account information
+     * @return the deleted account, or null if the customer has no such account
      */
-    public String removeAccount(int accountId) {
-        String accountInfo = "";
-        String interest;
-        String balance = "";
-        NumberFormat percentFormat = NumberFormat.getPercentInstance(new Locale("sv","SE"));
-        percentFormat.setMaximumFractionDigits(1);
-        List<Account> accountsToKeep = new ArrayList<>();
-
+    public synchronized Account removeAccount(int accountId) {
         for(int i = 0; i < accounts.size(); i++) {
-            Account currAccount = accounts.get(i);
-            if(currAccount.getAccountNumber() == accountId) {
-                interest = NumberFormat.getCurrencyInstance(new Locale("sv","SE")).format(currAccount.calculateInterest());
-                balance = NumberFormat.getCurrencyInstance(new Locale("sv","SE")).format(currAccount.getBalance());
-                accountInfo = accountId + " " + balance + " " + currAccount.getAccountType() + " " + interest;
-            } else {
-                accountsToKeep.add(currAccount);
+            if(accounts.get(i).getAccountNumber() == accountId) {
+                return accounts.remove(i);
             }
-
         }
-        this.accounts = accountsToKeep;
-        return accountInfo;
+        return null;
     }
 
     /**
-     * This method deposits money in the account that matches the account number sent in as a parameter.
-     * @param accountId account number of the account
-     * @param amount the amount of money to be deposited
-     * @return true if deposit was successful, false otherwise.
+     * Removes all accounts from the list when the customer is evicted by the pager
      */
-    public boolean depositMoney(int accountId, int amount) {
-        for(Account account : accounts) {
-            if(account.getAccountNumber() == accountId) {
-                account.depositMoney(new BigDecimal(amount));
-                return true;
-            }
-        }
-        return false;
+    synchronized void removeAllAccounts() {
+        this.accounts.clear();
     }
 
     /**
-     * This method withdraws money from the account that matches the account number sent in as a parameter.
-     * @param accountId account number of the account
-     * @param amount the amount of money to be withdrawn
-     * @return true if withdrawal was successful, false otherwise.
+     * Getter and setter for the page, which is null if the customer isn't paged
      */
-    public boolean withdrawMoney(int accountId, int amount) {
-        for(Account account : accounts) {
-            if(account.getAccountNumber() == accountId) {
-                if(account.withdrawMoney(new BigDecimal(amount))) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    CustomerPager.Page getPage() {
+        return this.page;
+    }
+    void setPage(CustomerPager.Page page) {
+        this.page = page;
     }
-
 
     public String toString() {
         return this.firstName + " " + this.lastName + " " + this.pNo;
@@ -0,0 +1,338 @@
+/**
+ * Description
+ * This class keeps only a bounded number of customers in memory. When the bank is loaded, only the
+ * offset index of the snapshot is read: every customer gets a stub with their names, and their account
+ * numbers point to the stub in the account index. The accounts of a customer are read from their record
+ * the first time the customer is used. When more customers than the limit are loaded, the ones that were
+ * used least recently are evicted. An evicted customer that changed since their record was read is first
+ * appended to a spill file, and their record is read from there the next time.
+ *
+ * The pager is guarded by the write lock of BankLogic: customers are only loaded and evicted under the
+ * write lock, so a customer that is used under the read lock stays loaded until the read lock is released.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class CustomerPager implements Closeable {
+
+    // Instance variables
+    private final int maxLoadedCustomers;
+    private final FileChannel spill;
+    private final Map<Path, FileChannel> files = new HashMap<>();
+    private final List<Customer> loaded = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param directory the directory of the spill file evicted customers are written to, which is a new
+     *                  file for each pager and is deleted when the pager is closed
+     * @param maxLoadedCustomers the number of customers to keep in memory
+     * @throws IOException if the spill file can't be created
+     */
+    public CustomerPager(Path directory, int maxLoadedCustomers) throws IOException {
+        if(maxLoadedCustomers < 1) {
+            throw new IllegalArgumentException("At least one customer has to fit in memory");
+        }
+        this.maxLoadedCustomers = maxLoadedCustomers;
+        Files.createDirectories(directory);
+        this.spill = FileChannel.open(Files.createTempFile(directory, "bank", ".spill"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Getter for the number of customers to keep in memory
+     */
+    public int getMaxLoadedCustomers() {
+        return this.maxLoadedCustomers;
+    }
+
+    /**
+     * Getter for the size of the spill file, the records of the evicted customers that changed
+     * @throws IOException if the pager is closed
+     */
+    long getSpillSize() throws IOException {
+        return spill.size();
+    }
+
+    /**
+     * Getter for the number of customers that are loaded
+     */
+    int getLoadedCount() {
+        return loaded.size();
+    }
+
+    /**
+     * Adds a stub for every customer in the offset index of the base and in its deltas to the registry,
+     * without reading any accounts
+     * @param base path of the base, which must have an index
+     * @param customers the registry to add the customers to
+     * @param accounts the index to add the account numbers to
+     * @return the last assigned account number stored in the snapshot
+     * @throws IOException if the snapshot can't be read
+     */
+    int open(Path base, CustomerRegistry customers, AccountIndex accounts) throws IOException {
+        clear();
+        return Snapshot.readIndex(base, new Snapshot.IndexVisitor() {
+            @Override
+            public void record(Path file, Snapshot.IndexEntry entry) throws IOException {
+                Customer stub = new Customer(entry.firstName, entry.lastName, entry.pNo);
+                Page page = new Page();
+                page.file = channelOf(file);
+                page.position = entry.position;
+                page.accountNumbers = entry.accountNumbers;
+                stub.setPage(page);
+                Customer previous = customers.put(stub);
+                if(previous != null) {
+                    removeAccounts(previous, accounts);
+                }
+                for(int accountNumber : entry.accountNumbers) {
+                    accounts.putOwner(accountNumber, stub);
+                }
+            }
+
+            @Override
+            public void deleted(String pNo) {
+                Customer removed = customers.remove(pNo);
+                if(removed != null) {
+                    removeAccounts(removed, accounts);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts paging a customer that is already in memory, such as a new customer. The customer has no
+     * record yet, so it is written to the spill file if it is evicted.
+     * @param customer the customer
+     */
+    void adopt(Customer customer) {
+        Page page = new Page();
+        page.loaded = true;
+        page.modified = true;
+        page.lastAccess = System.nanoTime();
+        customer.setPage(page);
+        loaded.add(customer);
+    }
+
+    /**
+     * Checks if the accounts of a customer are in memory
+     * @param customer the customer
+     * @return true if the customer is loaded or isn't paged
+     */
+    boolean isLoaded(Customer customer) {
+        Page page = customer.getPage();
+        return page == null || page.loaded;
+    }
+
+    /**
+     * Remembers that a customer was used, for the LRU order
+     * @param customer the customer
+     */
+    void touch(Customer customer) {
+        Page page = customer.getPage();
+        if(page != null) {
+            page.lastAccess = System.nanoTime();
+        }
+    }
+
+    /**
+     * Remembers that a customer changed since their record was written, so they are written again when
+     * they are evicted
+     * @param customer the customer
+     */
+    void markModified(Customer customer) {
+        Page page = customer.getPage();
+        if(page != null) {
+            page.modified = true;
+        }
+    }
+
+    /**
+     * Reads the accounts of a customer from their record and puts them in the account index
+     * @param customer the customer, which must not be loaded
+     * @param accounts the account index
+     * @param store the transaction store that holds the transactions, or null to keep them on the heap
+     * @throws IOException if the record can't be read
+     */
+    void load(Customer customer, AccountIndex accounts, TransactionStore store) throws IOException {
+        Page page = customer.getPage();
+        Customer record = Snapshot.readCustomer(readRecord(customer), store);
+        for(Account account : record.getAccounts()) {
+            customer.addAccount(account);
+            accounts.put(account, customer);
+        }
+        page.accountNumbers = null;
+        page.loaded = true;
+        page.lastAccess = System.nanoTime();
+        loaded.add(customer);
+    }
+
+    /**
+     * Reads the record of a customer that isn't loaded
+     * @param customer the customer
+     * @return the record without its length
+     * @throws IOException if the record can't be read
+     */
+    byte[] readRecord(Customer customer) throws IOException {
+        Page page = customer.getPage();
+        return Snapshot.readRecord(page.file, page.position);
+    }
+
+    /**
+     * Evicts the customers that were used least recently until there is room for an eighth of the limit,
+     * if more customers than the limit are loaded
+     * @param customers the registry, customers that were deleted from it are forgotten
+     * @param accounts the account index
+     * @param pinned personnummer of customers that must stay loaded
+     * @throws IOException if a customer can't be written to the spill file
+     */
+    void evict(CustomerRegistry customers, AccountIndex accounts, Collection<String> pinned) throws IOException {
+        if(loaded.size() <= maxLoadedCustomers) {
+            return;
+        }
+        loaded.removeIf(customer -> customers.get(customer.getPNo()) != customer || !customer.getPage().loaded);
+        if(loaded.size() <= maxLoadedCustomers) {
+            return;
+        }
+        loaded.sort(Comparator.comparingLong(customer -> customer.getPage().lastAccess));
+        int toEvict = loaded.size() - (maxLoadedCustomers - maxLoadedCustomers / 8);
+        List<Customer> kept = new ArrayList<>();
+        for(Customer customer : loaded) {
+            if(toEvict > 0 && !pinned.contains(customer.getPNo())) {
+                unload(customer, accounts);
+                toEvict--;
+            } else {
+                kept.add(customer);
+            }
+        }
+        loaded.clear();
+        loaded.addAll(kept);
+    }
+
+    /**
+     * Points every customer to their record in a new base after a full checkpoint, so the spill file and
+     * the files of the previous base can be dropped
+     * @param base path of the new base
+     * @param customers the registry
+     * @throws IOException if the base can't be read
+     */
+    void relocate(Path base, CustomerRegistry customers) throws IOException {
+        for(Customer customer : loaded) {
+            customer.getPage().file = null;
+        }
+        closeFiles();
+        Snapshot.readIndex(base, new Snapshot.IndexVisitor() {
+            @Override
+            public void record(Path file, Snapshot.IndexEntry entry) throws IOException {
+                Customer customer = customers.get(entry.pNo);
+                if(customer != null && customer.getPage() != null) {
+                    customer.getPage().file = channelOf(file);
+                    customer.getPage().position = entry.position;
+                }
+            }
+
+            @Override
+            public void deleted(String pNo) {
+            }
+        });
+        spill.truncate(0);
+    }
+
+    /**
+     * Forgets all customers and empties the spill file, used before the bank is loaded again
+     * @throws IOException if the spill file can't be truncated
+     */
+    void clear() throws IOException {
+        loaded.clear();
+        closeFiles();
+        spill.truncate(0);
+    }
+
+    /**
+     * Closes the files the records are read from and the spill file
+     */
+    @Override
+    public void close() throws IOException {
+        loaded.clear();
+        closeFiles();
+        spill.close();
+    }
+
+    /**
+     * Where the record of a paged customer is and if the customer is loaded. The account numbers are
+     * kept while the customer isn't loaded, so the customer can be removed from the account index.
+     */
+    static final class Page {
+        private FileChannel file;
+        private long position;
+        private int[] accountNumbers;
+        private volatile long lastAccess;
+        private volatile boolean modified;
+        private volatile boolean loaded;
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Writes a customer to the spill file if their record is out of date and removes their accounts
+    // from memory, leaving the account numbers in the index
+    private void unload(Customer customer, AccountIndex accounts) throws IOException {
+        Page page = customer.getPage();
+        if(page.modified || page.file == null) {
+            page.position = Snapshot.appendRecord(spill, customer);
+            page.file = spill;
+            page.modified = false;
+        }
+        List<Account> customerAccounts = customer.getAccounts();
+        int[] accountNumbers = new int[customerAccounts.size()];
+        for(int i = 0; i < accountNumbers.length; i++) {
+            accountNumbers[i] = customerAccounts.get(i).getAccountNumber();
+            accounts.putOwner(accountNumbers[i], customer);
+        }
+        customer.removeAllAccounts();
+        page.accountNumbers = accountNumbers;
+        page.loaded = false;
+    }
+
+    // Removes the accounts of a customer that was replaced or deleted from the account index
+    private static void removeAccounts(Customer customer, AccountIndex accounts) {
+        Page page = customer.getPage();
+        if(page != null && !page.loaded) {
+            for(int accountNumber : page.accountNumbers) {
+                accounts.remove(accountNumber);
+            }
+            return;
+        }
+        for(Account account : customer.getAccounts()) {
+            accounts.remove(account.getAccountNumber());
+        }
+    }
+
+    // Opens a snapshot file for reading records, once per file
+    private FileChannel channelOf(Path file) throws IOException {
+        FileChannel channel = files.get(file);
+        if(channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            files.put(file, channel);
+        }
+        return channel;
+    }
+
+    private void closeFiles() throws IOException {
+        for(FileChannel channel : files.values()) {
+            channel.close();
+        }
+        files.clear();
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Description
+ * This class holds all the customers of the bank. Customers are stored in slots in the order they
+ * were added, and a hash index from personnummer to slot makes lookup, insertion and removal O(1).
+ * Removed customers leave an empty slot behind that is reclaimed when the registry is compacted.
+ *
+ * The registry also keeps the search index of the customers up to date as they are added, replaced and
+ * removed. A customer whose name is changed in place has to be indexed again with nameChanged().
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.*;
+
+public class CustomerRegistry implements Iterable<Customer> {
+
+    // Instance variables
+    private final Map<String, Integer> slotByPNo = new HashMap<>();
+    private final List<Customer> slots = new ArrayList<>();
+    private final CustomerSearchIndex searchIndex = new CustomerSearchIndex();
+    private int size = 0;
+
+    /**
+     * Get the number of customers in the registry
+     * @return the number of customers
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if there is a customer with the specified personnummer
+     * @param pNo personnummer of the customer
+     * @return true if the customer exists, false otherwise
+     */
+    public boolean contains(String pNo) {
+        return slotByPNo.containsKey(pNo);
+    }
+
+    /**
+     * Gets the customer with the specified personnummer
+     * @param pNo personnummer of the customer
+     * @return the customer, or null if there is no such customer
+     */
+    public Customer get(String pNo) {
+        Integer slot = slotByPNo.get(pNo);
+        return slot == null ? null : slots.get(slot);
+    }
+
+    /**
+     * Adds a customer last in the registry
+     * @param customer the customer to add
+     * @return true if the customer was added, false if the personnummer is already taken
+     */
+    public boolean add(Customer customer) {
+        if(slotByPNo.putIfAbsent(customer.getPNo(), slots.size()) != null) {
+            return false;
+        }
+        slots.add(customer);
+        searchIndex.add(customer);
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds a customer, or replaces the customer with the same personnummer in its place
+     * @param customer the customer to add
+     * @return the customer that was replaced, or null if the customer was added last
+     */
+    public Customer put(Customer customer) {
+        Integer slot = slotByPNo.get(customer.getPNo());
+        if(slot == null) {
+            add(customer);
+            return null;
+        }
+        searchIndex.add(customer);
+        return slots.set(slot, customer);
+    }
+
+    /**
+     * Removes the customer with the specified personnummer
+     * @param pNo personnummer of the customer
+     * @return the removed customer, or null if there was no such customer
+     */
+    public Customer remove(String pNo) {
+        Integer slot = slotByPNo.remove(pNo);
+        if(slot == null) {
+            return null;
+        }
+        Customer removed = slots.set(slot, null);
+        searchIndex.remove(pNo);
+        size--;
+        // compact when more than half of the slots are empty
+        if(slots.size() > 16 && size < slots.size() / 2) {
+            compact();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all customers
+     */
+    public void clear() {
+        slotByPNo.clear();
+        slots.clear();
+        searchIndex.clear();
+        size = 0;
+    }
+
+    /**
+     * Indexes the names of a customer again after they were changed
+     * @param customer the customer that was renamed
+     */
+    public void nameChanged(Customer customer) {
+        if(get(customer.getPNo()) == customer) {
+            searchIndex.add(customer);
+        }
+    }
+
+    /**
+     * Finds customers by the start of their personnummer or their names, see CustomerSearchIndex
+     * @param query the personnummer or name to search for
+     * @param limit the most customers to return
+     * @return the matching customers, by personnummer first and then by name
+     */
+    public List<Customer> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Iterates over the customers in the order they were added
+     */
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<>() {
+            private int slot = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < slots.size();
+            }
+
+            @Override
+            public Customer next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Customer customer = slots.get(slot);
+                slot = nextUsedSlot(slot + 1);
+                return customer;
+            }
+        };
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Returns the first slot from the given slot that holds a customer
+    private int nextUsedSlot(int slot) {
+        while(slot < slots.size() && slots.get(slot) == null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Moves all customers to the front of the slot list, keeping their order
+    private void compact() {
+        int target = 0;
+        for(int i = 0; i < slots.size(); i++) {
+            Customer customer = slots.get(i);
+            if(customer != null) {
+                slots.set(target, customer);
+                slotByPNo.put(customer.getPNo(), target);
+                target++;
+            }
+        }
+        slots.subList(target, slots.size()).clear();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Description
+ * This class is the search index of the customers, for finding customers while a teller types. The
+ * personnummer are kept in a sorted map, so the customers whose personnummer start with a prefix follow
+ * each other from the prefix on. Every word of the first and last name is normalized, to lower case and
+ * without accents, and kept in another sorted map together with the personnummer, so customers with the
+ * same name are all found the same way.
+ *
+ * A search finds the first match in O(log n) and then reads the matches in order until it has as many as
+ * it was asked for, so it takes microseconds however many customers there are.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+class CustomerSearchIndex {
+
+    // Instance variables
+    private final NavigableMap<String, Customer> byPNo = new TreeMap<>();
+    private final NavigableMap<String, Customer> byName = new TreeMap<>();
+    private final Map<String, String[]> wordsByPNo = new HashMap<>();
+
+    // Constants
+    private static final char SEPARATOR = '\0';
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WORD_BREAKS = Pattern.compile("[\\s-]+");
+
+    /**
+     * Adds a customer to the index, or indexes the names of a customer again after they changed
+     * @param customer the customer
+     */
+    void add(Customer customer) {
+        String pNo = customer.getPNo();
+        remove(pNo);
+        byPNo.put(pNo, customer);
+        String[] words = words(customer.getFirstName() + " " + customer.getLastName());
+        for(String word : words) {
+            byName.put(word + SEPARATOR + pNo, customer);
+        }
+        wordsByPNo.put(pNo, words);
+    }
+
+    /**
+     * Removes a customer from the index
+     * @param pNo personnummer of the customer
+     */
+    void remove(String pNo) {
+        if(byPNo.remove(pNo) == null) {
+            return;
+        }
+        for(String word : wordsByPNo.remove(pNo)) {
+            byName.remove(word + SEPARATOR + pNo);
+        }
+    }
+
+    /**
+     * Removes all customers from the index
+     */
+    void clear() {
+        byPNo.clear();
+        byName.clear();
+        wordsByPNo.clear();
+    }
+
+    /**
+     * Finds the customers whose personnummer starts with the query, followed by the customers with a name
+     * that matches it. A name matches if every word of the query is the start of a word of the first or
+     * last name, ignoring case and accents, so "ann sv" finds Anna-Karin Svensson.
+     * @param query the personnummer or name the teller has typed so far
+     * @param limit the most customers to return
+     * @return the matching customers, by personnummer first and then by name
+     */
+    List<Customer> search(String query, int limit) {
+        String prefix = query.trim();
+        Map<String, Customer> found = new LinkedHashMap<>();
+        if(prefix.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        for(Map.Entry<String, Customer> entry : byPNo.tailMap(prefix, true).entrySet()) {
+            if(found.size() == limit || !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            found.put(entry.getKey(), entry.getValue());
+        }
+        String[] queryWords = words(prefix);
+        if(queryWords.length > 0 && found.size() < limit) {
+            // look the longest word up, it has the fewest matches to check against the other words
+            String longest = queryWords[0];
+            for(String word : queryWords) {
+                if(word.length() > longest.length()) {
+                    longest = word;
+                }
+            }
+            for(Map.Entry<String, Customer> entry : byName.tailMap(longest, true).entrySet()) {
+                if(found.size() == limit || !entry.getKey().startsWith(longest)) {
+                    break;
+                }
+                Customer customer = entry.getValue();
+                if(!found.containsKey(customer.getPNo()) && matchesAll(wordsByPNo.get(customer.getPNo()), queryWords)) {
+                    found.put(customer.getPNo(), customer);
+                }
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Splits a name into normalized words, lower case and without accents
+    private static String[] words(String name) {
+        String normalized = MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+        // a customer is only indexed once under a word that is in both names
+        Set<String> words = new LinkedHashSet<>();
+        for(String word : WORD_BREAKS.split(normalized.toLowerCase(Locale.ROOT))) {
+            if(!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    // Checks if every word of the query is the start of one of the words of a name
+    private static boolean matchesAll(String[] nameWords, String[] queryWords) {
+        for(String queryWord : queryWords) {
+            boolean matched = false;
+            for(String nameWord : nameWords) {
+                if(nameWord.startsWith(queryWord)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if(!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Description
+ * This class is an immutable view of a customer and their accounts, returned by the typed queries of
+ * BankLogic. Names with spaces in them are kept whole, since nothing has to be split back apart.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.Collections;
+import java.util.List;
+
+public final class CustomerView {
+
+    // Instance variables
+    private final String pNo;
+    private final String firstName;
+    private final String lastName;
+    private final List<AccountView> accounts;
+
+    /**
+     * Constructor
+     * @param pNo personnummer of the customer
+     * @param firstName first name of the customer
+     * @param lastName last name of the customer
+     * @param accounts views of the accounts of the customer, which the view takes over
+     */
+    CustomerView(String pNo, String firstName, String lastName, List<AccountView> accounts) {
+        this.pNo = pNo;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.accounts = Collections.unmodifiableList(accounts);
+    }
+
+    /**
+     * Getters for personnummer, first name, last name and the accounts of the customer
+     */
+    public String getPNo() {
+        return this.pNo;
+    }
+    public String getFirstName() {
+        return this.firstName;
+    }
+    public String getLastName() {
+        return this.lastName;
+    }
+    public List<AccountView> getAccounts() {
+        return this.accounts;
+    }
+
+    /**
+     * Formats the customer the way BankLogic.getCustomer presents it
+     * @return personnummer, first name and last name separated by spaces
+     */
+    public String format() {
+        return pNo + " " + firstName + " " + lastName;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Description
+ * This is the base of the tasks that call the bank from the GUI in the background, so slow calls such as
+ * saving, loading and reading long transaction histories don't freeze the window. The controls that start
+ * or interfere with a task are disabled while it runs and enabled again when it is done, and the outcome
+ * is handed to one of the callbacks on the event dispatch thread.
+ *
+ * A task is cancelled with stop(), which never interrupts the background thread: the bank reads and writes
+ * its files through channels that are closed if the thread using them is interrupted. Instead, a task
+ * checks isCancelled() between the steps of its work.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.GUI;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+public abstract class BankWorker<T, V> extends SwingWorker<T, V> {
+    private final JComponent[] controls;
+    private final List<Runnable> doneActions = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param controls the controls to disable while the task runs
+     */
+    protected BankWorker(JComponent... controls) {
+        this.controls = controls;
+    }
+
+    // Disables the controls and starts the task, has to be called on the event dispatch thread
+    public void start() {
+        setControlsEnabled(false);
+        execute();
+    }
+
+    // Adds an action that runs on the event dispatch thread when the task is done, before the outcome is handled
+    public void whenDone(Runnable action) {
+        doneActions.add(action);
+    }
+
+    // Asks the task to stop after the step it is working on. The task is done right away, so the controls are
+    // enabled again, and the callbacks of the task should ignore anything it publishes after this.
+    public void stop() {
+        cancel(false);
+    }
+
+    // Called with the result when the task has finished
+    protected abstract void succeeded(T result);
+
+    // Called with the exception when the task has failed
+    protected abstract void failed(Throwable cause);
+
+    // Called when the task was stopped before it finished
+    protected void stopped() {
+    }
+
+    @Override
+    protected final void done() {
+        setControlsEnabled(true);
+        for(Runnable action : doneActions) {
+            action.run();
+        }
+        if(isCancelled()) {
+            stopped();
+            return;
+        }
+        try {
+            succeeded(get());
+        } catch (ExecutionException e) {
+            failed(e.getCause());
+        } catch (InterruptedException | CancellationException e) {
+            stopped();
+        }
+    }
+
+    private void setControlsEnabled(boolean enabled) {
+        for(JComponent control : controls) {
+            control.setEnabled(enabled);
+        }
+    }
+}
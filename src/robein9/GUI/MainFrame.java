@@ -1,7 +1,12 @@
 /**
  * Description
  * This is the main frame of the GUI. This JFrame has a card layout that holds the panels
- * in the customerPanels package, where all the bank functionality is located.
+ * in the customerPanels package, where all the bank functionality is located. Saving and loading run
+ * in the background, with a status bar showing that they run while the panels are blocked, and so does
+ * the recovery of the bank when the program starts. Failures are shown in a dialog with their reason.
+ * Loading closes the files of the bank and opens them again, and the bank is closed before the program
+ * exits. The status bar also shows when the journal has stopped working or the snapshot couldn't be
+ * merged, until the bank is saved.
  *
  * @author Robert Einer, robein-9
  */
@@ -12,10 +17,14 @@ package robein9.GUI;
 import robein9.BankLogic;
 import robein9.GUI.customerPanels.*;
 import java.io.*;
+import javax.management.JMException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 public class MainFrame extends JFrame implements ActionListener {
 
@@ -34,15 +43,81 @@ public class MainFrame extends JFrame implements ActionListener {
     private  HomePanel homePanel;
     private JPanel mainCardPanel;
 
+    //status bar shown while the bank is saved or loaded
+    private JPanel statusPanel, blockingPane;
+    private JLabel statusLabel, persistenceLabel;
+    private JProgressBar progressBar;
+    private Timer persistenceTimer;
+
     public MainFrame() {
         initiateInstanceVariables();
         buildFrame();
+        openJournal();
+    }
+
+    // Recovers the bank from the last save and the journal in the background, with the panels blocked until
+    // it is done, and journals all changes from then on
+    private void openJournal() {
+        // the calls to the bank can be watched in JConsole by starting with -Drobein9.metrics=true
+        if(Boolean.getBoolean("robein9.metrics")) {
+            try {
+                bank.enableMetrics();
+            } catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+        runBlocking("Recovering the bank...", new BankWorker<Boolean, Void>(customerMenu, loadBankMenuItem, saveBankMenuItem) {
+            @Override
+            protected Boolean doInBackground() throws IOException, ClassNotFoundException {
+                return openBank();
+            }
+
+            @Override
+            protected void succeeded(Boolean recovered) {
+                getAllCustomersPanel.clearCustomers();
+                showSkippedEvents();
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                cause.printStackTrace();
+                showFailure("The journal couldn't be opened, changes won't be saved automatically", cause, "Journal");
+            }
+        });
+    }
+
+    // Opens the files of the bank the way the program was started and loads what was saved, returns true if
+    // there are any customers
+    private boolean openBank() throws IOException, ClassNotFoundException {
+        // the history can be kept in memory-mapped files by starting with -Drobein9.transactionStore=true
+        if(Boolean.getBoolean("robein9.transactionStore")) {
+            bank.openTransactionStore();
+        }
+        // only this many customers are kept in memory when started with -Drobein9.maxLoadedCustomers=n
+        Integer maxLoadedCustomers = Integer.getInteger("robein9.maxLoadedCustomers");
+        if(maxLoadedCustomers != null) {
+            bank.usePagedCustomers(maxLoadedCustomers);
+        }
+        boolean recovered = bank.openJournal();
+        // every save is kept as history to rebuild the bank at a past time with -Drobein9.history=true
+        if(Boolean.getBoolean("robein9.history")) {
+            bank.openHistory();
+        }
+        return recovered;
     }
 
     public void initiateInstanceVariables() {
         // main card layout
         mainCardPanel = new JPanel(cardLayout);
 
+        // status bar
+        statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusLabel = new JLabel("");
+        persistenceLabel = new JLabel("");
+        progressBar = new JProgressBar();
+        persistenceTimer = new Timer(1000, e -> showPersistenceStatus());
+        blockingPane = new JPanel();
+
         // panels
         homePanel = new HomePanel();
         editAccountPanel = new EditAccountPanel(bank, mainCardPanel);
@@ -72,10 +147,20 @@ public class MainFrame extends JFrame implements ActionListener {
     public void buildFrame() {
         // setup of main frame
         this.setSize(700, 400);
-        this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // the bank is closed before the program exits
+        this.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                exitBank();
+            }
+        });
         this.setResizable(false);
 
-        this.setContentPane(mainCardPanel);
+        JPanel contentPanel = new JPanel(new BorderLayout());
+        contentPanel.add(mainCardPanel, BorderLayout.CENTER);
+        contentPanel.add(statusPanel, BorderLayout.SOUTH);
+        this.setContentPane(contentPanel);
         this.setJMenuBar(menuBar);
         this.setTitle("Bank");
 
@@ -107,6 +192,19 @@ public class MainFrame extends JFrame implements ActionListener {
         menuBar.add(customerMenu);
         menuBar.add(systemMenu);
 
+        // the status bar is empty until something runs in the background
+        statusPanel.add(statusLabel);
+        statusPanel.add(progressBar);
+        statusPanel.add(persistenceLabel);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+        persistenceLabel.setForeground(Color.RED);
+        persistenceTimer.start();
+        // the blocking pane covers the panels and takes all mouse clicks while it is visible
+        blockingPane.setOpaque(false);
+        blockingPane.addMouseListener(new MouseAdapter() { });
+        this.setGlassPane(blockingPane);
+
         setVisible(true);
     }
 
@@ -125,55 +223,148 @@ public class MainFrame extends JFrame implements ActionListener {
           cardLayout.show(mainCardPanel, "GetAllCustomersPanel");
         }
         if(e.getSource() == saveBankMenuItem) {
-            try {
-                saveBankToFile();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                showPane("There was a problem saving, try again.", "Save bank");
-                System.out.println("Problem saving the file");
-            }
+            saveBankToFile();
         }
         if(e.getSource() == loadBankMenuItem) {
-            try {
-                loadBankFromFile();
-            } catch (IOException | ClassNotFoundException ex) {
-                ex.printStackTrace();
-                showPane("There are currently no customers to be loaded", "Load bank");
-                System.out.println("Problem loading the file");
-            }
+            loadBankFromFile();
         }
         if(e.getSource() == exitTab) {
-            System.exit(0);
+            exitBank();
         }
     }
 
-    // Method to save all the customers in the bank to a file
-    private void saveBankToFile() throws IOException {
-        if(!bank.writeCustomersToFile()) {
-            showPane("There are currently no customers to be saved", "Save bank");
+    // Method to save all the customers in the bank to a file in the background
+    private void saveBankToFile() {
+        runBlocking("Saving the bank...", new BankWorker<Boolean, Void>(customerMenu, loadBankMenuItem, saveBankMenuItem) {
+            @Override
+            protected Boolean doInBackground() throws IOException {
+                return bank.writeCustomersToFile();
+            }
+
+            @Override
+            protected void succeeded(Boolean written) {
+                if(!written) {
+                    showPane("There are currently no customers to be saved", "Save bank");
+                } else {
+                    showPane("Customers saved successfully!", "Save bank");
+                }
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                cause.printStackTrace();
+                showFailure("There was a problem saving, try again.", cause, "Save bank");
+            }
+        });
+    }
+
+    // Method to load all the customers in the bank from a file in the background
+    private void loadBankFromFile() {
+        runBlocking("Loading the bank...", new BankWorker<Boolean, Void>(customerMenu, loadBankMenuItem, saveBankMenuItem) {
+            @Override
+            protected Boolean doInBackground() throws IOException, ClassNotFoundException {
+                // the files are opened again, so the spill file of the pager and a running merge are let go
+                bank.close();
+                return openBank();
+            }
+
+            @Override
+            protected void succeeded(Boolean loaded) {
+                if(!loaded) {
+                    showPane("There are currently no customers to be loaded", "Load bank");
+                } else {
+                    getAllCustomersPanel.clearCustomers();
+                    showPane("Customers loaded successfully!", "Load bank");
+                    showSkippedEvents();
+                }
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                cause.printStackTrace();
+                showFailure("There was a problem loading, try again.", cause, "Load bank");
+            }
+        });
+    }
+
+    // Closes the bank in the background, which flushes the journal and deletes the spill file, and exits
+    private void exitBank() {
+        runBlocking("Closing the bank...", new BankWorker<Void, Void>(customerMenu, loadBankMenuItem, saveBankMenuItem) {
+            @Override
+            protected Void doInBackground() throws IOException {
+                bank.close();
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                System.exit(0);
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                cause.printStackTrace();
+                showFailure("The bank couldn't be closed properly, the last changes may be lost", cause, "Exit");
+                System.exit(1);
+            }
+        });
+    }
+
+    // Runs a save or load with the panels blocked, since every panel calls the bank and would otherwise wait
+    // for the save or load on the event dispatch thread. Saving and loading can't be stopped halfway.
+    private void runBlocking(String status, BankWorker<?, ?> worker) {
+        statusLabel.setText(status);
+        progressBar.setVisible(true);
+        blockingPane.setVisible(true);
+        worker.whenDone(() -> {
+            statusLabel.setText("");
+            progressBar.setVisible(false);
+            blockingPane.setVisible(false);
+        });
+        worker.start();
+    }
+
+    // Shows in the status bar if the journal has stopped working, the changes are then only kept until the
+    // bank is saved, which also starts a new journal. A failed merge is shown until the next save, which
+    // writes the whole bank instead.
+    private void showPersistenceStatus() {
+        if(bank.getJournalFailure() != null) {
+            persistenceLabel.setText("The journal is down, save the bank to keep the changes");
+        } else if(bank.getMergeFailure() != null) {
+            persistenceLabel.setText("The saved bank couldn't be merged, save the bank again");
         } else {
-            showPane("Customers saved successfully!", "Save bank");
+            persistenceLabel.setText("");
         }
     }
 
-    // Method to load all the customers in the bank from a file
-    private void loadBankFromFile() throws IOException, ClassNotFoundException {
-        if(!bank.loadCustomerFromFile()) {
-            showPane("There are currently no customers to be loaded", "Load bank");
-        }else {
-            showPane("Customers loaded successfully!", "Load bank");
+    // Tells the user if the recovery skipped events of the journal on customers or accounts that didn't exist
+    private void showSkippedEvents() {
+        long skipped = bank.getSkippedEvents();
+        if(skipped > 0) {
+            showPane(skipped + " events of the journal were skipped, their customer or account didn't exist", "Journal");
         }
     }
 
     // The pain to be shown when the user tries to save/load to/from a file
     private void showPane(String message, String title) {
-        JLabel titleLabel = new JLabel(message);
+        showPane(title, new JLabel(message));
+    }
+
+    // The pain to be shown when saving, loading or closing the bank failed, with what went wrong under the message
+    private void showFailure(String message, Throwable cause, String title) {
+        String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        showPane(title, new JLabel(message), new JLabel(reason));
+    }
+
+    private void showPane(String title, JLabel... lines) {
         JPanel noCustomersPane = new JPanel();
         noCustomersPane.setLayout(new BoxLayout(noCustomersPane, BoxLayout.Y_AXIS));
-        noCustomersPane.setPreferredSize(new Dimension(300, 50));
+        noCustomersPane.setPreferredSize(new Dimension(300, 25 * (lines.length + 1)));
         JButton okButton = new JButton("Ok");
         okButton.addActionListener(e -> JOptionPane.getRootFrame().dispose());
-        noCustomersPane.add(titleLabel);
+        for(JLabel line : lines) {
+            noCustomersPane.add(line);
+        }
         JButton[] buttons = { okButton};
         JOptionPane.showOptionDialog(
                 null,
@@ -187,6 +378,7 @@ public class MainFrame extends JFrame implements ActionListener {
     }
 
     public static void main(String[] args) {
-        MainFrame main = new MainFrame();
+        // the frame is built on the event dispatch thread, which the recovery of the bank must not run on
+        SwingUtilities.invokeLater(MainFrame::new);
     }
 }
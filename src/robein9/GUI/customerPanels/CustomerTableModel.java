@@ -0,0 +1,88 @@
+/**
+ * Description
+ * This is the table model of the customer table. It holds references to the customers of the bank and
+ * reads the personal number and names of a customer only when the table shows that row, so nothing is
+ * formatted or copied for rows that are never scrolled into view. Sorting and filtering are done by a
+ * row sorter on top of the model, which only keeps an index of the rows.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.GUI.customerPanels;
+
+import robein9.BankLogic;
+import robein9.Customer;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Collections;
+import java.util.List;
+
+public class CustomerTableModel extends AbstractTableModel {
+    // the model is only used in this JVM and is never serialized
+    private static final long serialVersionUID = 1L;
+
+    private final BankLogic bank;
+    private final String[] columnNames;
+    private List<Customer> customers = Collections.emptyList();
+
+    public CustomerTableModel(BankLogic bank, String[] columnNames) {
+        this.bank = bank;
+        this.columnNames = columnNames;
+    }
+
+    // Gets the customers from the bank again and tells the table that all rows changed in one event
+    public void refresh() {
+        this.customers = bank.getCustomerList();
+        fireTableDataChanged();
+    }
+
+    // Shows only the first customers that match a search, by personnummer prefix or by name
+    public void search(String query, int limit) {
+        this.customers = bank.searchCustomers(query, limit);
+        fireTableDataChanged();
+    }
+
+    // Removes all rows
+    public void clear() {
+        this.customers = Collections.emptyList();
+        fireTableDataChanged();
+    }
+
+    // Gets the customer shown in a row of the model
+    public Customer getCustomerAt(int row) {
+        return customers.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return customers.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Customer customer = customers.get(row);
+        switch(column) {
+            case 0:
+                return customer.getPNo();
+            case 1:
+                return customer.getFirstName();
+            default:
+                return customer.getLastName();
+        }
+    }
+}
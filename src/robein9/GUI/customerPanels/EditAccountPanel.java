@@ -1,20 +1,25 @@
 /**
  * Description
  * This is the panel where the user can handle specific accounts of a customer. Deposits and withdrawals can be made
- * the user can view the transactions of the account, and account can be deleted.
+ * the user can view the transactions of the account, and account can be deleted. The transactions are loaded
+ * and saved in the background, and loaded transactions are shown while the rest are still being read.
  *
  * @author Robert Einer, robein-9
  */
 
 package robein9.GUI.customerPanels;
+import robein9.AccountView;
 import robein9.BankLogic;
+import robein9.GUI.BankWorker;
+import robein9.TransactionLog;
+import robein9.TransactionPage;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 public class EditAccountPanel extends JPanel implements ActionListener {
     private BankLogic bank;
@@ -23,14 +28,16 @@ public class EditAccountPanel extends JPanel implements ActionListener {
     private CardLayout cardLayout;
     private String accountNumber, pNo;
     private JLabel panelLabel, resultLabel;
-    private JButton withdrawBtn, depositBtn, deleteAccountBtn, getTransactionsBtn, saveTransactionsBtn;
+    private JButton withdrawBtn, depositBtn, deleteAccountBtn, getTransactionsBtn, saveTransactionsBtn, cancelBtn;
+    private JProgressBar progressBar;
     private JScrollPane scrollPane;
     private String[] transactionColumnNames = {"Date", "Amount", "Balance"};
     private EditCustomerPanel editCustomerPanel;
-    private String[][] data;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private TransactionTableModel tableModel;
+    private TransactionLoader loader;
     private final int NUM_OF_COLUMNS = 4;
+    private final int TABLE_PAGE_SIZE = 1000;
     public EditAccountPanel(BankLogic bank, JPanel parentPanel) {
         this.parentPanel = parentPanel;
 
@@ -49,13 +56,9 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         getTransactionsBtn = new JButton("Show transactions");
         deleteAccountBtn = new JButton("Delete account");
         saveTransactionsBtn = new JButton("Save transactions");
-        tableModel = new DefaultTableModel(data, transactionColumnNames) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                //all cells are non-editable
-                return false;
-            }
-        };
+        cancelBtn = new JButton("Cancel");
+        progressBar = new JProgressBar(0, 100);
+        tableModel = new TransactionTableModel();
         table = new JTable(tableModel);
         scrollPane = new JScrollPane(table);
     }
@@ -68,6 +71,8 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         this.add(upperComponentsPanel);
         upperComponentsPanel.add(panelLabel);
         upperComponentsPanel.add(getTransactionsBtn);
+        upperComponentsPanel.add(progressBar);
+        upperComponentsPanel.add(cancelBtn);
         this.add(resultLabel);
         this.add(scrollPane);
         this.add(buttonPanel);
@@ -81,6 +86,10 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         withdrawBtn.addActionListener(this);
         deleteAccountBtn.addActionListener(this);
         saveTransactionsBtn.addActionListener(this);
+        cancelBtn.addActionListener(this);
+        // the progress bar and cancel button are only shown while something runs in the background
+        progressBar.setVisible(false);
+        cancelBtn.setVisible(false);
         scrollPane.setPreferredSize(new Dimension(300, 150));
         panelLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 15));
         Font font = panelLabel.getFont();
@@ -108,6 +117,9 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         if(e.getSource() == saveTransactionsBtn) {
             saveTransactions();
         }
+        if(e.getSource() == cancelBtn) {
+            cancelLoading();
+        }
     }
 
     // This method will handle depositing money to an account. An optionPane will be created for this
@@ -226,7 +238,7 @@ public class EditAccountPanel extends JPanel implements ActionListener {
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                String deletedAccount = bank.closeAccount(pNo, Integer.parseInt(accountNumber));
+                AccountView deletedAccount = bank.removeAccount(pNo, Integer.parseInt(accountNumber));
 
                 if(deletedAccount == null) {
                     paneResultLabel.setText("Account doesn't exist");
@@ -256,22 +268,39 @@ public class EditAccountPanel extends JPanel implements ActionListener {
     // Get the transactions of a specific account
     private void getTransactions() {
         resultLabel.setText("");
-        if(!populateTable())  {
-            resultLabel.setText("This account has no transactions.");
-        } else {
-            updateTableModel();
-        }
+        populateTable();
     }
 
-    // Save transactions to a file, show a pane upon success/error
+    // Save transactions to a file in the background, show a pane upon success/error
     private void saveTransactions() {
-        try {
-            bank.saveTransactionsToFile(pNo, Integer.parseInt(accountNumber));
-            showPane("Transactions were saved successfully!", "Save Transactions");
-        } catch (IOException e) {
-            showPane("Transactions couldn't be saved, try again.", "Error saving transactions");
-            e.printStackTrace();
-        }
+        String savedPNo = pNo;
+        int savedAccountNumber = Integer.parseInt(accountNumber);
+        BankWorker<Void, Void> saver = new BankWorker<Void, Void>(getTransactionsBtn, saveTransactionsBtn, deleteAccountBtn) {
+            @Override
+            protected Void doInBackground() throws Exception {
+                bank.saveTransactionsToFile(savedPNo, savedAccountNumber);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                showPane("Transactions were saved successfully!", "Save Transactions");
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                showPane("Transactions couldn't be saved, try again.", "Error saving transactions");
+                cause.printStackTrace();
+            }
+        };
+        // a file that is partly written can't be cancelled, so only the progress bar is shown
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        saver.whenDone(() -> {
+            progressBar.setIndeterminate(false);
+            progressBar.setVisible(false);
+        });
+        saver.start();
     }
 
     private void showPane(String message, String title) {
@@ -295,42 +324,31 @@ public class EditAccountPanel extends JPanel implements ActionListener {
 
     }
 
-    // Add transactions information to the table
-    public boolean populateTable() {
-        ArrayList<String> transactions = bank.getTransactions(pNo, Integer.parseInt(accountNumber));
-        if(transactions.isEmpty()) {
-            return false;
-        }
-        this.data = new String[transactions.size()][transactionColumnNames.length];
-
-        for (int i = 0; i < transactions.size(); i++) {
-            String transaction = transactions.get(i).replace(" Saldo:", "");
-            String[] subStrings = transaction.split("\\s");
-            String dateAndTime = subStrings[0] + " " + subStrings[1];
-            subStrings[1] = dateAndTime;
-            String[] modifiedTransactions = new String[transactionColumnNames.length];
-
-            for (int j = 0; j < transactionColumnNames.length; j++) {
-                modifiedTransactions[j] = subStrings[j + 1];
+    // Add transactions information to the table. The transactions are read in the background a page at a
+    // time, and each page is added to the table as soon as it is read. The whole population is timed by a
+    // flight recorder event.
+    public void populateTable() {
+        clearTable();
+        TablePopulationEvent event = TablePopulationEvent.begin(Integer.parseInt(accountNumber));
+        TransactionLoader started = new TransactionLoader(pNo, Integer.parseInt(accountNumber));
+        started.whenDone(() -> event.end(started.loadedRows, started.loadedPages, started.isCancelled()));
+        loader = started;
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        cancelBtn.setVisible(true);
+        loader.addPropertyChangeListener(e -> {
+            if(e.getSource() == loader && "progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
             }
-            // add substrings to data
-            System.arraycopy(modifiedTransactions, 0, data[i], 0, transactionColumnNames.length);
-        }
-        return true;
-
+        });
+        loader.start();
     }
 
-    // Update the table to display the transactions of the account
-    private void updateTableModel() {
-        // First we clear the table
-        while(tableModel.getRowCount() > 0) {
-            tableModel.removeRow(0);
-        }
-        // Add rows from the data array to the table model
-        for (String[] rowData : data) {
-            tableModel.addRow(rowData);
+    // Stop loading transactions, the ones that are already shown stay in the table
+    private void cancelLoading() {
+        if(loader != null) {
+            loader.stop();
         }
-
     }
 
     // Validate user input
@@ -359,15 +377,150 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         this.editCustomerPanel = editCustomerPanel;
     }
 
-    // Clear the JTable
+    // Clear the JTable, and stop loading transactions into it
     public void clearTable() {
-        while(tableModel.getRowCount() > 0) {
-            tableModel.removeRow(0);
+        TransactionLoader running = loader;
+        loader = null;
+        if(running != null) {
+            running.stop();
+        }
+        progressBar.setVisible(false);
+        cancelBtn.setVisible(false);
+        tableModel.clear();
+    }
+
+    // Loads the transactions of an account in the background. The number of transactions is fixed by the first
+    // page, so transactions made while loading are left out. The loader only updates the table while it is
+    // the current loader, since the table may have been cleared for another account in the meantime.
+    private class TransactionLoader extends BankWorker<Integer, TransactionPage> {
+        private final String loadedPNo;
+        private final int loadedAccountNumber;
+        private volatile int loadedRows, loadedPages;
+
+        private TransactionLoader(String pNo, int accountNumber) {
+            super(getTransactionsBtn, saveTransactionsBtn, deleteAccountBtn);
+            this.loadedPNo = pNo;
+            this.loadedAccountNumber = accountNumber;
+        }
+
+        @Override
+        protected Integer doInBackground() {
+            TransactionPage page = bank.getTransactionPage(loadedPNo, loadedAccountNumber, 0, TABLE_PAGE_SIZE);
+            int loaded = 0;
+            // the page is null if the account was deleted while loading
+            while(page != null && page.size() > 0 && !isCancelled()) {
+                publish(page);
+                loaded += page.size();
+                loadedRows = loaded;
+                loadedPages++;
+                setProgress((int) (100L * loaded / page.getTotal()));
+                if(loaded >= page.getTotal()) {
+                    break;
+                }
+                page = bank.getTransactionPage(loadedPNo, loadedAccountNumber, loaded,
+                        Math.min(TABLE_PAGE_SIZE, page.getTotal() - loaded));
+            }
+            return loaded;
+        }
+
+        @Override
+        protected void process(List<TransactionPage> pages) {
+            if(loader == this && !isCancelled()) {
+                for(TransactionPage page : pages) {
+                    tableModel.append(page.getTransactions());
+                }
+            }
+        }
+
+        @Override
+        protected void succeeded(Integer loaded) {
+            if(finish() && loaded == 0) {
+                resultLabel.setText("This account has no transactions.");
+            }
+        }
+
+        @Override
+        protected void failed(Throwable cause) {
+            cause.printStackTrace();
+            if(finish()) {
+                resultLabel.setText("Transactions couldn't be loaded, try again.");
+            }
+        }
+
+        @Override
+        protected void stopped() {
+            if(finish()) {
+                resultLabel.setText("Loading was cancelled, showing " + tableModel.getRowCount() + " transactions.");
+            }
+        }
+
+        // Hides the progress if this is the current loader, returns false if the table is used by another loader
+        private boolean finish() {
+            if(loader != this) {
+                return false;
+            }
+            progressBar.setVisible(false);
+            cancelBtn.setVisible(false);
+            return true;
+        }
+    }
+
+    // Table model with one row per transaction of the account. The transactions are kept in the unformatted
+    // pages they were loaded in, and are only formatted when the table shows them.
+    private class TransactionTableModel extends AbstractTableModel {
+        // the model is only used in this JVM and is never serialized
+        private static final long serialVersionUID = 1L;
+
+        private final List<TransactionLog> pages = new ArrayList<>();
+        private int rowCount = 0;
+
+        // Adds a page of transactions after the rows already in the table, every page but the last is full
+        private void append(TransactionLog page) {
+            pages.add(page);
+            rowCount += page.size();
+            fireTableRowsInserted(rowCount - page.size(), rowCount - 1);
+        }
+
+        // Removes all rows
+        private void clear() {
+            pages.clear();
+            rowCount = 0;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return transactionColumnNames.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return transactionColumnNames[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            TransactionLog transactions = pages.get(row / TABLE_PAGE_SIZE);
+            int index = row % TABLE_PAGE_SIZE;
+            // format date, amount and balance of each transaction when it is shown
+            switch(column) {
+                case 0:
+                    return transactions.formatDate(index);
+                case 1:
+                    return transactions.formatAmount(index);
+                default:
+                    return transactions.formatBalance(index);
+            }
         }
     }
 
     // Display the deleted account information. A new optionPane is created for this purpose
-    private void showDeletedAccount(String deletedAccount) {
+    private void showDeletedAccount(AccountView deletedAccount) {
         JPanel showDeletedAccount = new JPanel();
         showDeletedAccount.setLayout(new BoxLayout(showDeletedAccount, BoxLayout.Y_AXIS));
         showDeletedAccount.setPreferredSize(new Dimension(400, 100));
@@ -384,9 +537,10 @@ public class EditAccountPanel extends JPanel implements ActionListener {
         JLabel[] accountInfo = { new JLabel("Account number: "), new JLabel("Balance: "), new JLabel("Account type: "), new JLabel("Interest: ")};
         showDeletedAccount.add(okBtn);
         JButton[] buttons = { okBtn };
-        String[] substrings = deletedAccount.split(" ");
+        String[] values = { String.valueOf(deletedAccount.getAccountNumber()), deletedAccount.formatBalance(),
+                deletedAccount.getAccountType(), deletedAccount.formatInterest() };
         for(int i = 0; i < 4; i++) {
-          accountInfo[i].setText(accountInfo[i].getText() + " " + substrings[i]);
+          accountInfo[i].setText(accountInfo[i].getText() + " " + values[i]);
           showDeletedAccount.add(accountInfo[i]);
         }
 
@@ -8,7 +8,9 @@
 
 
 package robein9.GUI.customerPanels;
+import robein9.AccountView;
 import robein9.BankLogic;
+import robein9.CustomerView;
 import javax.swing.*;
 import javax.swing.event.MouseInputAdapter;
 import javax.swing.table.DefaultTableModel;
@@ -163,20 +165,18 @@ public class EditCustomerPanel extends JPanel implements ActionListener {
         for (String[] rowData : data) {
             tableModel.addRow(rowData);
         }
-        // remove name and personal number from the accounts-table
-        tableModel.removeRow(0);
     }
 
-    // add all customer account info to the data array
+    // add all customer account info to the data array, the accounts are formatted here when they are shown
     public void populateTable() {
-        List<String> customerAccounts = bank.getCustomer(pNo);
+        CustomerView customerView = bank.getCustomerView(pNo);
+        List<AccountView> customerAccounts = customerView == null ? List.of() : customerView.getAccounts();
         this.data = new String[customerAccounts.size()][NUM_OF_COLUMNS];
 
         for (int i = 0; i < customerAccounts.size(); i++) {
-            // get substrings of first name, last name and pno
-            String[] subStrings = customerAccounts.get(i).split(" ");
-            // add substrings to data
-            System.arraycopy(subStrings, 0, data[i], 0, subStrings.length);
+            AccountView account = customerAccounts.get(i);
+            data[i] = new String[] { String.valueOf(account.getAccountNumber()), account.formatBalance(),
+                    account.getAccountType(), account.formatInterestRate() };
         }
 
     }
@@ -346,7 +346,8 @@ public class EditCustomerPanel extends JPanel implements ActionListener {
     // Display the deleted accounts of the deleted customer in a table
     private void displayDeletedAccounts(String firstName, String lastName) {
         JPanel deletedAccountsPanel = new JPanel();
-        List<String> deletedAccounts =  bank.deleteCustomer(pNo);
+        CustomerView deletedCustomer = bank.removeCustomer(pNo);
+        List<AccountView> deletedAccounts = deletedCustomer == null ? List.of() : deletedCustomer.getAccounts();
         String[][] deletedAccountsData = new String[deletedAccounts.size()][NUM_OF_COLUMNS];
         String[] deletedAccountsColumnNames = {"Account number", "Balance", "Account type", "Interest"     };
 
@@ -374,8 +375,6 @@ public class EditCustomerPanel extends JPanel implements ActionListener {
         for (String[] rowData : deletedAccountsData) {
             deleteAccTableModel.addRow(rowData);
         }
-        //  remove first row, don't need to disply name in the list
-        deleteAccTableModel.removeRow(0);
 
         okBtn.addActionListener(e -> {
             JOptionPane.getRootFrame().dispose();
@@ -400,15 +399,14 @@ public class EditCustomerPanel extends JPanel implements ActionListener {
     }
 
     // Add deleted accounts to deletedAccountsData array, to display for the user
-    private void populateData(List<String> deletedAccounts, String[][] deletedAccountsData, DefaultTableModel deletedAccTableModel) {
+    private void populateData(List<AccountView> deletedAccounts, String[][] deletedAccountsData, DefaultTableModel deletedAccTableModel) {
         while(deletedAccTableModel.getRowCount() > 0) {
             deletedAccTableModel.removeRow(0);
         }
         for (int i = 0; i < deletedAccounts.size(); i++) {
-            // get substrings of first name, last name and pno
-            String[] subStrings = deletedAccounts.get(i).split(" ");
-            // add substrings to data
-            System.arraycopy(subStrings, 0, deletedAccountsData[i], 0, subStrings.length);
+            AccountView account = deletedAccounts.get(i);
+            deletedAccountsData[i] = new String[] { String.valueOf(account.getAccountNumber()), account.formatBalance(),
+                    account.getAccountType(), account.formatInterest() };
         }
     }
 
@@ -1,7 +1,10 @@
 /**
  * Description
  * This panel is the starting point for handling customers, with the option to display all customers
- * in the bank and to navigate to them.
+ * in the bank and to navigate to them. The table reads the customers on demand through a CustomerTableModel
+ * and can be sorted by clicking a column and filtered by typing in the filter field. Typing in the search
+ * field shows the first customers whose personal number starts with the text or whose names match it,
+ * found in the search index of the bank without listing everyone.
  *
  * @author Robert Einer, robein-9
  */
@@ -11,15 +14,18 @@
 package robein9.GUI.customerPanels;
 
 import robein9.BankLogic;
+import robein9.Customer;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.MouseInputAdapter;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
-import java.util.List;
+import java.util.regex.Pattern;
 
 public class GetAllCustomersPanel extends JPanel implements ActionListener {
     private JPanel inputpanel;
@@ -27,16 +33,18 @@ public class GetAllCustomersPanel extends JPanel implements ActionListener {
     private JScrollPane scrollPane;
     private EditCustomerPanel editCustomerPanel;
     private JButton getCustomers;
+    private JTextField filterField, searchField;
     private JLabel titleLabel, resultLabel, tableLabel;
     private  String[] columnNames = {"Personal number",
             "Last Name",
             "First Name",
             };
-    private String[][] data;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private CustomerTableModel tableModel;
+    private TableRowSorter<CustomerTableModel> sorter;
     private CardLayout cardLayout;
-    private final int NUM_OF_COLUMNS = 3;
+    // the most customers a search shows
+    private static final int SEARCH_LIMIT = 100;
 
     public GetAllCustomersPanel(BankLogic bank, JPanel inputPanel, EditCustomerPanel editCustomerPanel) {
         this.inputpanel = inputPanel;
@@ -53,14 +61,12 @@ public class GetAllCustomersPanel extends JPanel implements ActionListener {
         titleLabel = new JLabel("Show all customers in the bank");
         resultLabel = new JLabel("");
         tableLabel = new JLabel("Click a customer in the table below for more options and information about that customer.");
-        tableModel = new DefaultTableModel(data, columnNames) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                //all cells are non-editable
-                return false;
-            }
-        };
+        filterField = new JTextField(20);
+        searchField = new JTextField(20);
+        tableModel = new CustomerTableModel(bank, columnNames);
+        sorter = new TableRowSorter<>(tableModel);
         table = new JTable(tableModel);
+        table.setRowSorter(sorter);
         scrollPane = new JScrollPane(table);
     }
 
@@ -70,9 +76,43 @@ public class GetAllCustomersPanel extends JPanel implements ActionListener {
 
         this.add(titleLabel);
         this.add(getCustomers);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Search:"));
+        filterPanel.add(searchField);
+        filterPanel.add(new JLabel("Filter:"));
+        filterPanel.add(filterField);
+        this.add(filterPanel);
         this.add(tableLabel);
         //this.add(customerTextArea);
         getCustomers.addActionListener(this);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterCustomers();
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterCustomers();
+            }
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterCustomers();
+            }
+        });
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchCustomers();
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchCustomers();
+            }
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchCustomers();
+            }
+        });
         getCustomers.setPreferredSize(new Dimension(50, 30));
         scrollPane.setPreferredSize(new Dimension(100, 10));
         //table.setPreferredSize(new Dimension(100, 50));
@@ -86,12 +126,11 @@ public class GetAllCustomersPanel extends JPanel implements ActionListener {
             public void mouseClicked(MouseEvent e) {
                 int selectedRow = table.rowAtPoint(e.getPoint());
                 if (selectedRow != -1) {
-                    // Row is clicked, retrieve data and perform action
-                    String pNo = (String) table.getValueAt(selectedRow, 0);
-                    String name = (String) table.getValueAt(selectedRow, 1);
-                    String lastName = (String) table.getValueAt(selectedRow, 2);
+                    // Row is clicked, retrieve data and perform action. The table shows the rows in sorted order
+                    selectedRow = table.convertRowIndexToModel(selectedRow);
+                    Customer customer = tableModel.getCustomerAt(selectedRow);
 
-                    openNewPanel(pNo, name, lastName);
+                    openNewPanel(customer.getPNo(), customer.getFirstName(), customer.getLastName());
 
                 }
             }
@@ -102,52 +141,51 @@ public class GetAllCustomersPanel extends JPanel implements ActionListener {
     @Override
     public void actionPerformed(ActionEvent e) {
         if(e.getSource() == getCustomers) {
-           List<String> customers = bank.getAllCustomers();
-            System.out.println("Customers " + customers);
-           if(customers.isEmpty()) {
+           printCustomers();
+           if(tableModel.getRowCount() == 0) {
                resultLabel.setText("Currently there are no customers in the bank");
-           } else {
-               this.data = new String[customers.size()][NUM_OF_COLUMNS];
-               printCustomers(customers);
            }
         }
     }
 
-    // Print the customers to the JTable
-    public void printCustomers(List<String> customers) {
-        populateData(customers);
-        updateTableModel();
+    // Print the customers to the JTable, the rows are read from the customers when they are shown
+    public void printCustomers() {
+        tableModel.refresh();
+        resultLabel.setText("");
     }
 
-    // Add customer information to the data array
-    private void populateData(List<String> customers) {
-        for (int i = 0; i < customers.size(); i++) {
-            // get substrings of first name, last name and pno for each customer
-            String[] subStrings = customers.get(i).split(" ");
-            // add substrings to data
-            System.arraycopy(subStrings, 0, data[i], 0, subStrings.length);
+    // Only show the customers where the personal number or a name contains the text in the filter field
+    private void filterCustomers() {
+        String text = filterField.getText().trim();
+        if(text.isEmpty()) {
+            sorter.setRowFilter(null);
+        } else {
+            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(text)));
         }
     }
 
-    // Clear the table
-    public void clearCustomers() {
-        while(tableModel.getRowCount() > 0) {
-            tableModel.removeRow(0);
+    // Show the customers that match the text in the search field, the index answers fast enough to search
+    // on every keystroke
+    private void searchCustomers() {
+        String text = searchField.getText().trim();
+        if(text.isEmpty()) {
+            clearCustomers();
+            return;
         }
-        this.resultLabel.setText("");
-    }
-
-    // Update the table with the information from customers
-    private void updateTableModel() {
-        // First we clear the table
-        while(tableModel.getRowCount() > 0) {
-            tableModel.removeRow(0);
-        }
-        // Add rows from the data array to the table model
-        for (String[] rowData : data) {
-            tableModel.addRow(rowData);
+        tableModel.search(text, SEARCH_LIMIT);
+        if(tableModel.getRowCount() == 0) {
+            resultLabel.setText("No customers match the search");
+        } else if(tableModel.getRowCount() == SEARCH_LIMIT) {
+            resultLabel.setText("Showing the first " + SEARCH_LIMIT + " customers, type more to narrow the search");
+        } else {
+            resultLabel.setText("");
         }
+    }
 
+    // Clear the table
+    public void clearCustomers() {
+        tableModel.clear();
+        this.resultLabel.setText("");
     }
 
     // Open the EditCustomerPanel to edit a specific customer
@@ -0,0 +1,57 @@
+/**
+ * Description
+ * This is the Java Flight Recorder event of filling the transaction table of an account, from when the
+ * transactions are asked for until the last page is shown or the loading is stopped. Together with the
+ * events of the bank in the same recording, it shows if a slow table is waiting for the bank or for the
+ * event dispatch thread.
+ *
+ * Tables that take longer than the threshold to fill are recorded, 20 ms by default.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9.GUI.customerPanels;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("robein9.TablePopulation")
+@Label("Transaction Table Population")
+@Category({"Bank", "GUI"})
+@Description("The transactions of an account being loaded into the table of the account panel")
+@Threshold("20 ms")
+@StackTrace(false)
+final class TablePopulationEvent extends Event {
+    @Label("Account Number")
+    int accountNumber;
+    @Label("Rows")
+    int rows;
+    @Label("Pages")
+    int pages;
+    @Label("Cancelled")
+    boolean cancelled;
+
+    // Begins timing the population of the table of an account
+    static TablePopulationEvent begin(int accountNumber) {
+        TablePopulationEvent event = new TablePopulationEvent();
+        event.accountNumber = accountNumber;
+        event.begin();
+        return event;
+    }
+
+    // Ends the population and commits the event if it is recorded and slower than the threshold
+    void end(int rows, int pages, boolean cancelled) {
+        end();
+        if(shouldCommit()) {
+            this.rows = rows;
+            this.pages = pages;
+            this.cancelled = cancelled;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Description
+ * This class posts interest to every account in the bank. The accounts are split into ranges that
+ * are handled in parallel with fork/join. Each account is only locked while its own interest is
+ * posted, so deposits and withdrawals can continue during the run. A chunk of accounts is posted while
+ * the bank keeps accounts from being closed and the journal from being emptied, so accounts that were
+ * closed after the run started are skipped and the interest of the others is journaled before anything
+ * can be saved. Each chunk then waits for one flush of its records. The owners of the accounts that got
+ * interest are reported to the bank so their changes are saved. The class also holds the totals of a
+ * finished run.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class InterestRun {
+
+    // Instance variables
+    private final int accountsProcessed;
+    private final int accountsPosted;
+    private final long interestCredited;
+    private final long interestCharged;
+
+    // Constants
+    private static final int ACCOUNTS_PER_TASK = 4096;
+
+    private InterestRun(int accountsProcessed, int accountsPosted, long interestCredited, long interestCharged) {
+        this.accountsProcessed = accountsProcessed;
+        this.accountsPosted = accountsPosted;
+        this.interestCredited = interestCredited;
+        this.interestCharged = interestCharged;
+    }
+
+    /**
+     * What a run needs to know from the bank about the accounts it posts interest to
+     */
+    interface Ledger {
+        /**
+         * Called before a chunk of accounts is posted, keeps accounts from being closed and the journal from
+         * being emptied until endChunk() is called
+         */
+        void beginChunk();
+
+        /**
+         * Called when a chunk of accounts has been posted
+         */
+        void endChunk();
+
+        /**
+         * Gets the journal to record the interest in, called between beginChunk() and endChunk()
+         * @return the journal, or null if the bank has none
+         */
+        Journal journal();
+
+        /**
+         * Gets the owner of an account that is still in the bank, called between beginChunk() and endChunk()
+         * @param account the account
+         * @return the owner, or null if the account was closed after the run started
+         */
+        Customer ownerOf(Account account);
+
+        /**
+         * Tells the bank that interest was posted to an account of a customer, so the customer is saved
+         * @param owner the owner of the account
+         */
+        void interestPosted(Customer owner);
+    }
+
+    /**
+     * Posts interest to all the specified accounts that are still in the bank
+     * @param accounts the accounts to post interest to
+     * @param ledger locks the chunks, tells which accounts are still open and is told which customers got interest
+     * @return the totals of the run
+     * @throws java.io.UncheckedIOException if the interest couldn't be journaled
+     */
+    static InterestRun post(Account[] accounts, Ledger ledger) {
+        long[] totals = ForkJoinPool.commonPool().invoke(new PostTask(accounts, 0, accounts.length, ledger));
+        return new InterestRun((int) totals[3], (int) totals[0], totals[1], totals[2]);
+    }
+
+    /**
+     * Getters for the totals. Amounts are in öre, charged interest is negative.
+     */
+    public int getAccountsProcessed() {
+        return this.accountsProcessed;
+    }
+    public int getAccountsPosted() {
+        return this.accountsPosted;
+    }
+    public long getInterestCredited() {
+        return this.interestCredited;
+    }
+    public long getInterestCharged() {
+        return this.interestCharged;
+    }
+
+    /**
+     * Adds the totals of two runs, used when the accounts are posted in several parts
+     * @param other the run to add
+     * @return the combined totals
+     */
+    InterestRun plus(InterestRun other) {
+        return new InterestRun(accountsProcessed + other.accountsProcessed, accountsPosted + other.accountsPosted,
+                interestCredited + other.interestCredited, interestCharged + other.interestCharged);
+    }
+
+    public String toString() {
+        return "Accounts: " + accountsProcessed + " Posted: " + accountsPosted
+                + " Credited: " + Money.toBigDecimal(interestCredited) + " Charged: " + Money.toBigDecimal(interestCharged);
+    }
+
+    // Posts interest to a range of accounts, splitting the range until it is small enough.
+    // The result holds the number of accounts posted, the credited and the charged interest, and the
+    // number of accounts that were still open.
+    private static class PostTask extends RecursiveTask<long[]> {
+        private final Account[] accounts;
+        private final int from;
+        private final int to;
+        private final Ledger ledger;
+
+        // the task is only run in this JVM and is never serialized
+        private static final long serialVersionUID = 1L;
+
+        private PostTask(Account[] accounts, int from, int to, Ledger ledger) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+            this.ledger = ledger;
+        }
+
+        @Override
+        protected long[] compute() {
+            if(to - from <= ACCOUNTS_PER_TASK) {
+                long[] totals = new long[4];
+                long seq = 0;
+                Journal journal;
+                ledger.beginChunk();
+                try {
+                    journal = ledger.journal();
+                    for(int i = from; i < to; i++) {
+                        Account account = accounts[i];
+                        Customer owner = ledger.ownerOf(account);
+                        if(owner == null) {
+                            continue;
+                        }
+                        totals[3]++;
+                        long interest;
+                        synchronized(account) {
+                            interest = account.postInterest();
+                            if(interest != 0 && journal != null) {
+                                seq = account.journalLastTransaction(journal, Journal.INTEREST);
+                            }
+                        }
+                        if(interest != 0) {
+                            ledger.interestPosted(owner);
+                            totals[0]++;
+                            totals[interest > 0 ? 1 : 2] += interest;
+                        }
+                    }
+                } finally {
+                    ledger.endChunk();
+                }
+                if(seq > 0) {
+                    journal.awaitDurable(seq);
+                }
+                return totals;
+            }
+            int middle = (from + to) >>> 1;
+            PostTask left = new PostTask(accounts, from, middle, ledger);
+            left.fork();
+            long[] right = new PostTask(accounts, middle, to, ledger).compute();
+            long[] totals = left.join();
+            for(int i = 0; i < totals.length; i++) {
+                totals[i] += right[i];
+            }
+            return totals;
+        }
+    }
+}
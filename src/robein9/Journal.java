@@ -0,0 +1,599 @@
+/**
+ * Description
+ * This class is an append-only write-ahead journal of the changes made to the bank. Every change is
+ * encoded as a small binary record in a shared buffer. A background thread writes the buffer to the
+ * journal file and forces it to disk, so all records appended while one flush is in progress share
+ * the next flush (group commit). A caller that needs its change to be durable waits for the sequence
+ * number of its record. When the bank is loaded, the journal is replayed on top of the last snapshot.
+ *
+ * The records are the events of the bank, see BankEvent. The file starts with a magic number, a version and
+ * the generation of the journal, and each record is laid out as: int length, byte type, long timestamp,
+ * payload, int CRC32 of type, timestamp and payload. Replay stops at the first record that is cut off or
+ * doesn't match its checksum. A record that was cut off by a crash is removed when the journal is opened,
+ * so the records appended afterwards can be read.
+ *
+ * The generation goes up every time the journal is emptied. A snapshot keeps the generation of the first
+ * journal that it doesn't contain, so a journal that was saved in the snapshot but not emptied before the
+ * bank stopped is known to be older and isn't replayed again.
+ *
+ * If the journal file can't be written, the flusher stops and the error is kept. Every caller that waits
+ * for a record and every later append gets the error, until the journal is closed and replaced.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class Journal implements Closeable {
+
+    // Record types
+    public static final byte CUSTOMER_CREATED = 1;
+    public static final byte CUSTOMER_RENAMED = 2;
+    public static final byte CUSTOMER_DELETED = 3;
+    public static final byte ACCOUNT_OPENED = 4;
+    public static final byte ACCOUNT_CLOSED = 5;
+    public static final byte TRANSACTION = 6;
+
+    // Kinds of transactions
+    public static final byte DEPOSIT = 1;
+    public static final byte WITHDRAWAL = 2;
+    public static final byte INTEREST = 3;
+
+    // Account types
+    public static final byte SAVINGS_ACCOUNT = 1;
+    public static final byte CREDIT_ACCOUNT = 2;
+
+    // Instance variables
+    private final Path file;
+    private final FileChannel channel;
+    private final Thread flusher;
+    private final Object durableLock = new Object();
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private int recordStart = 0;
+    private long generation;
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    // Constants
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 4;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int TIMESTAMP_SIZE = 8;
+    private static final int MAGIC = 0x524A4E4C;
+    private static final short VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 14;
+
+    /**
+     * Opens the journal file for appending and starts the thread that flushes it
+     * @param file path of the journal file, created if it doesn't exist
+     * @throws IOException if the file can't be opened
+     */
+    public Journal(Path file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * Opens the journal file for appending and starts the thread that flushes it
+     * @param file path of the journal file, created if it doesn't exist
+     * @param generation the generation of the journal if the file has no header yet
+     * @throws IOException if the file can't be opened or isn't a journal
+     */
+    public Journal(Path file, long generation) throws IOException {
+        this.file = file;
+        long existing = generationOf(file);
+        if(existing >= 0) {
+            generation = existing;
+            cutTornTail(file);
+        }
+        this.generation = generation;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if(existing < 0) {
+            // the file is new, or the bank stopped while it was emptied
+            channel.truncate(0);
+            writeFileHeader(channel, generation);
+        }
+        this.flusher = new Thread(this::flushLoop, "bank-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Getter for the path of the journal file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Getter for the generation of the journal
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Getter for the error that stopped the journal
+     * @return the error, or null if the journal is written
+     */
+    public IOException getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Methods that append a record for each kind of change. They return the sequence number of the
+     * record, which can be passed to awaitDurable. They throw UncheckedIOException if the journal has failed.
+     */
+    public synchronized long customerCreated(String pNo, String firstName, String lastName) {
+        return appendNamed(CUSTOMER_CREATED, System.currentTimeMillis(), pNo, firstName, lastName);
+    }
+    public synchronized long customerRenamed(String pNo, String firstName, String lastName) {
+        return appendNamed(CUSTOMER_RENAMED, System.currentTimeMillis(), pNo, firstName, lastName);
+    }
+    public synchronized long customerDeleted(String pNo) {
+        return appendCustomerDeleted(System.currentTimeMillis(), pNo);
+    }
+    public synchronized long accountOpened(String pNo, int accountNumber, byte accountType) {
+        return appendAccountOpened(System.currentTimeMillis(), pNo, accountNumber, accountType);
+    }
+    public synchronized long accountClosed(String pNo, int accountNumber) {
+        return appendAccountClosed(System.currentTimeMillis(), pNo, accountNumber);
+    }
+    public synchronized long transaction(int accountNumber, byte kind, long amount, long timestamp, long link) {
+        // the timestamp of the transaction is the timestamp of the record
+        ByteBuffer record = begin(TRANSACTION, timestamp, 4 + 1 + 8 + 8);
+        record.putInt(accountNumber);
+        record.put(kind);
+        record.putLong(amount);
+        record.putLong(link);
+        return end(record);
+    }
+
+    /**
+     * Waits until the record with the specified sequence number, and all records before it,
+     * have been forced to disk
+     * @param seq sequence number of the record
+     * @throws UncheckedIOException if the journal couldn't be written
+     */
+    public void awaitDurable(long seq) {
+        synchronized(durableLock) {
+            while(durableSeq < seq) {
+                if(failure != null) {
+                    throw new UncheckedIOException("The journal couldn't be written", failure);
+                }
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until all records appended so far have been forced to disk
+     */
+    public void flush() {
+        long seq;
+        synchronized(this) {
+            seq = appendedSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * Checks if the journal has any records, after waiting for the records appended so far to be written
+     * @return true if the journal file has records
+     * @throws IOException if the size of the file can't be read
+     */
+    public boolean hasRecords() throws IOException {
+        flush();
+        synchronized(this) {
+            return channel.size() > FILE_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Empties the journal file and starts the next generation, used once a snapshot with all the changes
+     * has been written. The caller must make sure no records are appended while this runs.
+     * @throws IOException if the file can't be truncated
+     */
+    public void truncate() throws IOException {
+        flush();
+        synchronized(this) {
+            channel.truncate(0);
+            writeFileHeader(channel, ++generation);
+        }
+    }
+
+    /**
+     * Copies the journal to a new file that keeps the events after the journal is emptied. The copy is
+     * forced to disk before it is moved in place, so it is complete if it exists. The caller must make sure
+     * no records are appended while this runs.
+     * @param target path of the copy, which must not exist
+     * @throws IOException if the copy can't be written
+     */
+    public void archiveTo(Path target) throws IOException {
+        flush();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        synchronized(this) {
+            Files.copy(file, temporary, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try(FileChannel copy = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            copy.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Flushes all appended records and stops the flusher thread. If the journal couldn't be written, the
+     * records that weren't written are dropped and the file is closed anyway.
+     * @throws UncheckedIOException if the journal fails while the records are flushed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(failure == null) {
+                flush();
+            }
+        } finally {
+            synchronized(this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the generation of a journal file
+     * @param file path of the journal file
+     * @return the generation, or -1 if the file doesn't exist or has no header
+     * @throws IOException if the file can't be read or isn't a journal
+     */
+    public static long generationOf(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return -1;
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            if(header.position() < FILE_HEADER_SIZE) {
+                return -1;
+            }
+            checkHeader(header);
+            return header.getLong(6);
+        }
+    }
+
+    /**
+     * Reads all complete records in a journal file and passes them to the handler in order
+     * @param file path of the journal file
+     * @param handler receives the records
+     * @return the number of records that were replayed
+     * @throws IOException if the file can't be read
+     */
+    public static int replay(Path file, Handler handler) throws IOException {
+        if(!Files.exists(file)) {
+            return 0;
+        }
+        int[] records = { 0 };
+        read(ByteBuffer.wrap(Files.readAllBytes(file)), Long.MAX_VALUE, event -> {
+            event.applyTo(handler);
+            records[0]++;
+        });
+        return records[0];
+    }
+
+    /**
+     * Reads the events in the contents of a journal file in order, up to a point in time
+     * @param contents the contents of the file, read from its position
+     * @param until the time of the last event to read, the events after the first one that happened
+     *              later are left out
+     * @param consumer receives the events
+     * @return true if all complete events were read, false if reading stopped at an event after until
+     */
+    public static boolean read(ByteBuffer contents, long until, Consumer<BankEvent> consumer) {
+        ByteBuffer buffer = contents.slice();
+        return scan(buffer, until, position -> consumer.accept(decode(buffer, position)));
+    }
+
+    /**
+     * Receives the position of every record when the contents of a journal file are scanned
+     */
+    interface RecordVisitor {
+        void record(int position);
+    }
+
+    /**
+     * Scans the records in the contents of a journal file in order, up to a point in time, without decoding
+     * them. Only the checksum and the time of every record are read.
+     * @param buffer the contents of the file, from position 0
+     * @param until the time of the last record to scan
+     * @param visitor receives the position of every record, which can be decoded later with decode() as
+     *                long as the contents stay the same
+     * @return true if all complete records were scanned, false if scanning stopped at a record after until
+     */
+    static boolean scan(ByteBuffer buffer, long until, RecordVisitor visitor) {
+        if(buffer.limit() < FILE_HEADER_SIZE) {
+            return true;
+        }
+        try {
+            checkHeader(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        int position = FILE_HEADER_SIZE;
+        int limit = buffer.limit();
+        CRC32 checksum = new CRC32();
+        while(limit - position >= HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || length > limit - position - HEADER_SIZE - CHECKSUM_SIZE) {
+                break;
+            }
+            int start = position + HEADER_SIZE;
+            checksum.reset();
+            checksum.update(buffer.slice(start, length));
+            if((int) checksum.getValue() != buffer.getInt(start + length)) {
+                break;
+            }
+            if(buffer.getLong(start + 1) > until) {
+                return false;
+            }
+            visitor.record(start);
+            position = start + length + CHECKSUM_SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the record at a position that was scanned
+     * @param buffer the contents of the file that were scanned
+     * @param position the position of the record
+     * @return the event of the record
+     */
+    static BankEvent decode(ByteBuffer buffer, int position) {
+        return decode(buffer.slice(position, buffer.limit() - position));
+    }
+
+    /**
+     * Reads the type of the record at a position that was scanned
+     */
+    static byte type(ByteBuffer buffer, int position) {
+        return buffer.get(position);
+    }
+
+    /**
+     * Reads the account number of the transaction record at a position that was scanned, without decoding
+     * the rest of the record
+     */
+    static int transactionAccount(ByteBuffer buffer, int position) {
+        return buffer.getInt(position + 1 + TIMESTAMP_SIZE);
+    }
+
+    /**
+     * Receives the records of a journal when it is replayed
+     */
+    public interface Handler {
+        void customerCreated(String pNo, String firstName, String lastName);
+        void customerRenamed(String pNo, String firstName, String lastName);
+        void customerDeleted(String pNo);
+        void accountOpened(String pNo, int accountNumber, byte accountType);
+        void accountClosed(String pNo, int accountNumber);
+        void transaction(int accountNumber, byte kind, long amount, long timestamp, long link);
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Starts a record of the given type and time with room for the payload, the caller holds the lock.
+    // Nothing more is appended once the journal has failed, since the record could never be written.
+    private ByteBuffer begin(byte type, long timestamp, int payloadSize) {
+        if(failure != null) {
+            throw new UncheckedIOException("The journal couldn't be written", failure);
+        }
+        int recordSize = HEADER_SIZE + 1 + TIMESTAMP_SIZE + payloadSize + CHECKSUM_SIZE;
+        if(active.remaining() < recordSize) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + recordSize));
+            active.flip();
+            larger.put(active);
+            active = larger;
+        }
+        recordStart = active.position();
+        active.putInt(1 + TIMESTAMP_SIZE + payloadSize);
+        active.put(type);
+        active.putLong(timestamp);
+        return active;
+    }
+
+    // Adds the checksum to the record, assigns its sequence number and wakes the flusher
+    private long end(ByteBuffer record) {
+        int start = recordStart + HEADER_SIZE;
+        crc.reset();
+        crc.update(record.array(), start, record.position() - start);
+        record.putInt((int) crc.getValue());
+        appendedSeq++;
+        notifyAll();
+        return appendedSeq;
+    }
+
+    // Writes the appended records to the file and forces them to disk until the journal is closed
+    private void flushLoop() {
+        while(true) {
+            long target;
+            ByteBuffer toWrite;
+            synchronized(this) {
+                while(active.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(active.position() == 0) {
+                    return;
+                }
+                // swap buffers so appending can continue while this batch is written
+                toWrite = active;
+                active = flushing;
+                flushing = toWrite;
+                target = appendedSeq;
+            }
+            try {
+                toWrite.flip();
+                while(toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                channel.force(false);
+                toWrite.clear();
+                synchronized(durableLock) {
+                    durableSeq = target;
+                    durableLock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized(durableLock) {
+                    failure = e;
+                    durableLock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    // Decodes one record into its event
+    private static BankEvent decode(ByteBuffer record) {
+        byte type = record.get();
+        long timestamp = record.getLong();
+        switch(type) {
+            case CUSTOMER_CREATED:
+                return BankEvent.customerCreated(timestamp, getString(record), getString(record), getString(record));
+            case CUSTOMER_RENAMED:
+                return BankEvent.customerRenamed(timestamp, getString(record), getString(record), getString(record));
+            case CUSTOMER_DELETED:
+                return BankEvent.customerDeleted(timestamp, getString(record));
+            case ACCOUNT_OPENED:
+                return BankEvent.accountOpened(timestamp, getString(record), record.getInt(), record.get());
+            case ACCOUNT_CLOSED:
+                return BankEvent.accountClosed(timestamp, getString(record), record.getInt());
+            case TRANSACTION:
+                int accountNumber = record.getInt();
+                byte kind = record.get();
+                long amount = record.getLong();
+                return BankEvent.transaction(accountNumber, kind, amount, timestamp, record.getLong());
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    // Writes the magic number, version and generation at the start of an empty journal file and forces it to disk
+    private static void writeFileHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putLong(generation);
+        header.flip();
+        while(header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+    }
+
+    // Checks the magic number and version at the start of a journal file
+    private static void checkHeader(ByteBuffer header) throws IOException {
+        if(header.getInt(0) != MAGIC) {
+            throw new IOException("The file isn't a journal");
+        }
+        if(header.getShort(4) != VERSION) {
+            throw new IOException("The journal has the unknown version " + header.getShort(4));
+        }
+    }
+
+    // Removes what follows the last complete record of a journal file, which is a record that was cut off
+    // or only partly forced to disk when the bank stopped
+    private static void cutTornTail(Path file) throws IOException {
+        ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+        long[] end = { FILE_HEADER_SIZE };
+        scan(contents, Long.MAX_VALUE, position ->
+                end[0] = position + contents.getInt(position - HEADER_SIZE) + CHECKSUM_SIZE);
+        if(end[0] < contents.limit()) {
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(end[0]);
+                channel.force(true);
+            }
+        }
+    }
+
+    // Append the records of the events that name a customer, the caller holds the lock
+    private long appendNamed(byte type, long timestamp, String pNo, String firstName, String lastName) {
+        byte[] pNoBytes = utf8(pNo), firstBytes = utf8(firstName), lastBytes = utf8(lastName);
+        ByteBuffer record = begin(type, timestamp, 6 + pNoBytes.length + firstBytes.length + lastBytes.length);
+        putString(record, pNoBytes);
+        putString(record, firstBytes);
+        putString(record, lastBytes);
+        return end(record);
+    }
+    private long appendCustomerDeleted(long timestamp, String pNo) {
+        byte[] pNoBytes = utf8(pNo);
+        ByteBuffer record = begin(CUSTOMER_DELETED, timestamp, 2 + pNoBytes.length);
+        putString(record, pNoBytes);
+        return end(record);
+    }
+    private long appendAccountOpened(long timestamp, String pNo, int accountNumber, byte accountType) {
+        byte[] pNoBytes = utf8(pNo);
+        ByteBuffer record = begin(ACCOUNT_OPENED, timestamp, 2 + pNoBytes.length + 5);
+        putString(record, pNoBytes);
+        record.putInt(accountNumber);
+        record.put(accountType);
+        return end(record);
+    }
+    private long appendAccountClosed(long timestamp, String pNo, int accountNumber) {
+        byte[] pNoBytes = utf8(pNo);
+        ByteBuffer record = begin(ACCOUNT_CLOSED, timestamp, 2 + pNoBytes.length + 4);
+        putString(record, pNoBytes);
+        record.putInt(accountNumber);
+        return end(record);
+    }
+
+    // Strings are written as a short length followed by UTF-8 bytes
+    private static byte[] utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String is too long for the journal");
+        }
+        return bytes;
+    }
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Description
+ * This class records latencies in a histogram with buckets on a log-linear scale, the way HdrHistogram does:
+ * every power of two is split into 32 buckets of equal width, so a percentile read from the histogram is
+ * within about 3% of the recorded value no matter if it is nanoseconds or seconds. Values below 64 are
+ * counted exactly.
+ *
+ * Many threads can record at the same time. The counts are kept in a few stripes of atomic counters and each
+ * thread records to the stripe of its id, so threads rarely increment the same counter. Reading merges the
+ * stripes, which is much slower than recording and is meant for reports.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+    // Instance variables
+    private final AtomicLongArray[] stripes;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Constants
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int MAX_STRIPES = 4;
+
+    /**
+     * Constructor
+     */
+    public LatencyHistogram() {
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+        this.stripes = new AtomicLongArray[stripeCount];
+        for(int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records a value, negative values are recorded as 0
+     * @param value the value, usually a latency in nanoseconds
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        int stripe = (int) Thread.currentThread().getId() & (stripes.length - 1);
+        stripes[stripe].incrementAndGet(indexOf(recorded));
+        count.increment();
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    /**
+     * Getters for the number of recorded values, the largest recorded value and the mean of the values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+    public long getMax() {
+        return max.get();
+    }
+    public double getMean() {
+        long values = count.sum();
+        return values == 0 ? 0 : (double) sum.sum() / values;
+    }
+
+    /**
+     * Gets the value at a percentile, the highest value that falls in the same bucket as the value at the
+     * percentile
+     * @param percentile the percentile, from 0 to 100
+     * @return the value, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(percentile)[0];
+    }
+
+    /**
+     * Gets the values at several percentiles, reading the histogram once
+     * @param percentiles the percentiles, from 0 to 100
+     * @return the values in the same order as the percentiles
+     */
+    public long[] getValuesAtPercentiles(double... percentiles) {
+        long[] counts = mergeStripes();
+        long total = 0;
+        for(long bucketCount : counts) {
+            total += bucketCount;
+        }
+        long[] values = new long[percentiles.length];
+        if(total == 0) {
+            return values;
+        }
+        long largest = max.get();
+        for(int p = 0; p < percentiles.length; p++) {
+            // the rank of the value at the percentile, at least the first value
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentiles[p])) / 100 * total));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank) {
+                    values[p] = Math.min(highestValueOf(i), largest);
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Removes all recorded values. Values recorded while the histogram is reset may be partly kept.
+     */
+    public void reset() {
+        for(AtomicLongArray stripe : stripes) {
+            for(int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Sums the counts of all stripes
+    private long[] mergeStripes() {
+        long[] counts = new long[BUCKETS];
+        for(AtomicLongArray stripe : stripes) {
+            for(int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    // Values below two sub-bucket ranges are their own bucket. A larger value with its highest bit at position k
+    // is in one of the 32 buckets of width 2^(k-5) that split [2^k, 2^(k+1)).
+    private static int indexOf(long value) {
+        if(value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // The highest value that is counted in a bucket
+    private static long highestValueOf(int index) {
+        if(index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - (long) shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Description
+ * This class has helper methods for amounts of money kept as long minor units (öre). All arithmetic
+ * on balances is done on longs so deposits and withdrawals don't allocate. BigDecimal is only used
+ * when an amount enters or leaves the bank through the public API.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+public final class Money {
+
+    // Constants
+    public static final long MINOR_UNITS_PER_KRONA = 100;
+    public static final long BASIS_POINTS_PER_WHOLE = 10_000;
+
+    private Money() {
+    }
+
+    /**
+     * Converts whole kronor to minor units
+     * @param kronor the amount in kronor
+     * @return the amount in öre
+     */
+    public static long fromKronor(int kronor) {
+        return kronor * MINOR_UNITS_PER_KRONA;
+    }
+
+    /**
+     * Converts an amount of money to minor units, rounding half to even to whole öre
+     * @param amount the amount in kronor
+     * @return the amount in öre
+     */
+    public static long fromBigDecimal(BigDecimal amount) {
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    /**
+     * Converts minor units to an amount in kronor. Whole kronor get scale 0, other amounts scale 2.
+     * @param minorUnits the amount in öre
+     * @return the amount in kronor
+     */
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        if(minorUnits % MINOR_UNITS_PER_KRONA == 0) {
+            return BigDecimal.valueOf(minorUnits / MINOR_UNITS_PER_KRONA);
+        }
+        return BigDecimal.valueOf(minorUnits, 2);
+    }
+
+    /**
+     * Calculates a percentage of an amount, rounded half to even to whole öre. The rate is given
+     * in basis points, so 1.2% is 120 and 2% is 200.
+     * @param minorUnits the amount in öre
+     * @param basisPoints the rate in hundredths of a percent
+     * @return the percentage of the amount in öre
+     */
+    public static long percentOf(long minorUnits, long basisPoints) {
+        long product = Math.multiplyExact(minorUnits, basisPoints);
+        long quotient = product / BASIS_POINTS_PER_WHOLE;
+        long remainder = product % BASIS_POINTS_PER_WHOLE;
+        long twiceRemainder = Math.abs(remainder) * 2;
+        // round half to even, away from zero in the direction of the sign
+        if(twiceRemainder > BASIS_POINTS_PER_WHOLE || (twiceRemainder == BASIS_POINTS_PER_WHOLE && (quotient & 1) != 0)) {
+            quotient += Long.signum(product);
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Description
+ * This class holds the statistics of one operation of the bank at the time they were read: the number of
+ * calls, the number of calls that failed and the latency of the calls in microseconds.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.beans.ConstructorProperties;
+
+public final class OperationStats {
+
+    // Instance variables
+    private final long calls;
+    private final long failures;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    /**
+     * Constructor
+     */
+    @ConstructorProperties({"calls", "failures", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public OperationStats(long calls, long failures, double meanMicros, double p50Micros, double p99Micros,
+                          double p999Micros, double maxMicros) {
+        this.calls = calls;
+        this.failures = failures;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * Getters for the statistics
+     */
+    public long getCalls() {
+        return this.calls;
+    }
+    public long getFailures() {
+        return this.failures;
+    }
+    public double getMeanMicros() {
+        return this.meanMicros;
+    }
+    public double getP50Micros() {
+        return this.p50Micros;
+    }
+    public double getP99Micros() {
+        return this.p99Micros;
+    }
+    public double getP999Micros() {
+        return this.p999Micros;
+    }
+    public double getMaxMicros() {
+        return this.maxMicros;
+    }
+
+    public String toString() {
+        return "Calls: " + calls + " Failures: " + failures + " Mean: " + meanMicros + " p50: " + p50Micros
+                + " p99: " + p99Micros + " p999: " + p999Micros + " Max: " + maxMicros;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Description
+ * This is the Java Flight Recorder event of a save or a load of the bank, with the number of bytes and
+ * customers that were written or read. A save writes either the whole bank or a delta with the customers
+ * that changed, and a load reads the base and its deltas. A merge of the deltas into a new base in the
+ * background is recorded as well.
+ *
+ * Saves and loads slower than the threshold are recorded, 10 ms by default.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("robein9.Persistence")
+@Label("Save or Load")
+@Category({"Bank", "Persistence"})
+@Description("A save of the bank to the snapshot or a load of the bank from it")
+@Threshold("10 ms")
+@StackTrace(false)
+final class PersistenceEvent extends Event {
+
+    // Instance variables
+    @Label("Operation")
+    String operation;
+    @Label("Full Checkpoint")
+    @Description("True if the whole bank was saved, false if only the changed customers were")
+    boolean fullCheckpoint;
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+    @Label("Customers")
+    int customers;
+    @Label("Succeeded")
+    boolean succeeded;
+
+    // Constants
+    static final String SAVE = "Save";
+    static final String LOAD = "Load";
+    static final String MERGE = "Merge";
+
+    private PersistenceEvent(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Begins timing a save or a load
+     * @param operation SAVE, LOAD or MERGE
+     * @return the event to end when the save or load is done
+     */
+    static PersistenceEvent begin(String operation) {
+        PersistenceEvent event = new PersistenceEvent(operation);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the save or load and commits the event if it is recorded and slower than the threshold
+     * @param succeeded false if the save or load threw an exception
+     */
+    void end(boolean succeeded) {
+        end();
+        if(shouldCommit()) {
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
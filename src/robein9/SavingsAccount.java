@@ -1,7 +1,8 @@
 /**
  * Description
- * This class is a subclass of the Account class. It represents a credit account in the bank
- * with a credit limit of 5000kr.
+ * This class is a subclass of the Account class. It represents a savings account in the bank
+ * where the user can deposit and save their money. The customer is allowed one free withdrawal
+ * each year.
  *
  * @author Robert Einer, robein-9
  */
@@ -16,63 +17,73 @@ public class SavingsAccount extends Account {
     private boolean firstWithdrawalMade = false;
 
     // Constants
-    private final BigDecimal ZERO = new BigDecimal("0");
-    private final BigDecimal INTEREST_RATE = new BigDecimal("1.2");
-    private final BigDecimal PERCENTAGE = new BigDecimal("100");
-    private final BigDecimal WITHDRAW_INTEREST = new BigDecimal("0.02");
+    private static final long serialVersionUID = 7037988290756341070L;
+    private static final BigDecimal INTEREST_RATE = new BigDecimal("1.2");
+    private static final long INTEREST_RATE_BASIS_POINTS = 120;
+    private static final long WITHDRAW_FEE_BASIS_POINTS = 200;
 
 
     /**
      * Constructor for savings account
      */
-    public SavingsAccount(String accountType) {
-        super(accountType);
+    public SavingsAccount(String accountType, int accountNumber) {
+        super(accountType, accountNumber);
     }
 
     /**
-     * Calculates the interest of the savings account
-     * @return the interest
+     * Get method for interest rate
+     * @return the interest rate
      */
     @Override
-    public BigDecimal calculateInterest() {
-        return (super.getBalance().multiply(INTEREST_RATE)).divide(PERCENTAGE);
+    public BigDecimal getInterestRate() {
+        return INTEREST_RATE;
     }
 
     /**
-     * Get method for interest rate
-     * @return the interest rate
+     * Get method for interest rate in basis points
+     * @return the interest rate in hundredths of a percent
      */
     @Override
-    public BigDecimal getInterestRate() {
-        return INTEREST_RATE;
+    public long getInterestRateBasisPoints() {
+        return INTEREST_RATE_BASIS_POINTS;
     }
 
     /**
-     * Withdraws the specified amount form the account. If it's not the first withdrawal made
-     * an interest of 2% will be added to the amount.
-     * @param amount is the amount to withdraw
-     * @return true if withdrawal was successful, false otherwise
+     * Decides how much to debit when the specified amount is withdrawn. If it's not the first
+     * withdrawal made a fee of 2% will be added to the amount.
+     * @param amount is the amount in öre to withdraw
+     * @return the amount to debit, or -1 if the balance doesn't cover it
      */
     @Override
-    public boolean withdrawMoney(BigDecimal amount) {
-        BigDecimal balanceWithInterest = amount.add(amount.multiply(WITHDRAW_INTEREST));
-        if(amount.compareTo(ZERO) > 0 && amount.compareTo(super.getBalance()) <= 0) {
+    protected long debitFor(long amount) {
+        long balance = super.getBalanceMinor();
+        if(amount > 0 && amount <= balance) {
             if(!firstWithdrawalMade) {
-                super.setBalance(amount);
-                super.addTransaction(amount.negate());
-                firstWithdrawalMade = true;
-            } else {
-                if(balanceWithInterest.compareTo(super.getBalance()) <= 0) {
-                    super.setBalance(balanceWithInterest);
-                    super.addTransaction(balanceWithInterest.negate());
-                } else {
-                    return false;
-                }
+                return amount;
+            }
+            // the fee is only calculated when it is charged
+            long amountWithFee = amount + Money.percentOf(amount, WITHDRAW_FEE_BASIS_POINTS);
+            if(amountWithFee <= balance) {
+                return amountWithFee;
             }
-            return true;
-        } else {
-            return false;
         }
+        return -1;
+    }
+
+    /**
+     * Remembers that the free withdrawal has been used
+     */
+    @Override
+    protected void withdrawalMade() {
+        firstWithdrawalMade = true;
+    }
+
+    /**
+     * Tells if the free withdrawal has been used
+     */
+    @Override
+    protected boolean isWithdrawalMade() {
+        return firstWithdrawalMade;
     }
 
 
@@ -0,0 +1,946 @@
+/**
+ * Description
+ * This class reads and writes the snapshot files of the bank in a compact binary format. A full
+ * snapshot, the base, has every customer with their accounts. A delta has only the customers that
+ * changed since the previous checkpoint and the personnummer of the customers that were deleted.
+ * Deltas are numbered and applied in order on top of the base when the bank is loaded, and they are
+ * merged into a new base by copying the records without decoding the accounts. The base ends with an
+ * offset index that has the names, account numbers and position of every customer's record, so a
+ * paged bank can start by reading only the index, see CustomerPager.
+ *
+ * Account numbers and balances are fixed-width fields, names are length-prefixed UTF-8 and the
+ * transactions of an account are written column by column, so a whole column is copied in one bulk
+ * operation. The files are read and written through a large buffer over a FileChannel.
+ *
+ * Layout, all numbers big-endian:
+ *   base:     int magic, short version, int number of customers, int last assigned account number,
+ *             long journal generation, long number of the last delta merged into the base,
+ *             long position of the index, customer records, index
+ *   delta:    int delta magic, short version, long number of the delta, int last assigned account
+ *             number, long journal generation, int number of deleted customers, strings with their
+ *             pNo, int number of customers, customer records
+ *   record:   int length of the rest of the record, string pNo, string first name, string last name,
+ *             int number of accounts, accounts
+ *   account:  int account number, byte type, string type name, long balance, byte flags,
+ *             int number of transactions, byte flags, long[] timestamps, long[] amounts,
+ *             long[] balances, long[] links if it has links. The columns are left out when the
+ *             transactions are kept in a TransactionStore.
+ *   index:    for each record in order: string pNo, string first name, string last name,
+ *             long position of the record, int number of accounts, int[] account numbers
+ *   string:   short length, UTF-8 bytes
+ * The journal generation is the generation of the first journal whose changes aren't in the file, see Journal.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+public final class Snapshot {
+
+    // Constants
+    public static final int MAGIC = 0x52423953;
+    public static final int DELTA_MAGIC = 0x52423944;
+    public static final short VERSION = 3;
+    public static final byte SAVINGS_ACCOUNT = 1;
+    public static final byte CREDIT_ACCOUNT = 2;
+    private static final byte WITHDRAWAL_MADE = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String DELTA_SUFFIX = ".delta-";
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes all customers and their accounts to a new base. The base is written to a temporary file
+     * that is forced to disk and then moved in place, so a crash never leaves a half-written base
+     * behind. All deltas are included in the new base and are deleted.
+     * @param file path of the base
+     * @param customers the customers to write
+     * @param lastAssignedAccountNumber the last account number that was assigned
+     * @param journalGeneration the generation of the first journal that has changes after the base
+     * @param pager the pager that has the records of customers that aren't loaded, or null
+     * @return the number of bytes written
+     * @throws IOException if the file can't be written
+     */
+    public static long write(Path file, CustomerRegistry customers, int lastAssignedAccountNumber, long journalGeneration,
+                             CustomerPager pager) throws IOException {
+        long lastDelta = lastDeltaNumber(file);
+        Path temporary = temporaryFile(file);
+        long written;
+        try(Output out = new Output(temporary)) {
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putInt(customers.size());
+            out.putInt(lastAssignedAccountNumber);
+            out.putLong(journalGeneration);
+            out.putLong(lastDelta);
+            long indexPosition = out.position();
+            out.putLong(0);
+            List<IndexEntry> index = new ArrayList<>(customers.size());
+            for(Customer customer : customers) {
+                index.add(writeRecord(out, customer, pager));
+            }
+            out.patchLong(indexPosition, out.position());
+            writeIndex(out, index);
+            written = out.position();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteDeltas(file, lastDelta);
+        return written;
+    }
+
+    /**
+     * Writes a delta with the customers that changed since the last checkpoint
+     * @param file path of the base the delta belongs to
+     * @param changed the customers that were created or changed
+     * @param deleted personnummer of the customers that were deleted
+     * @param lastAssignedAccountNumber the last account number that was assigned
+     * @param journalGeneration the generation of the first journal that has changes after the delta
+     * @param pager the pager that has the records of customers that aren't loaded, or null
+     * @return the number of bytes written
+     * @throws IOException if the file can't be written
+     */
+    public static long writeDelta(Path file, Collection<Customer> changed, Collection<String> deleted,
+                                  int lastAssignedAccountNumber, long journalGeneration, CustomerPager pager) throws IOException {
+        long number = lastDeltaNumber(file) + 1;
+        Path temporary = temporaryFile(file);
+        long written;
+        try(Output out = new Output(temporary)) {
+            out.putInt(DELTA_MAGIC);
+            out.putShort(VERSION);
+            out.putLong(number);
+            out.putInt(lastAssignedAccountNumber);
+            out.putLong(journalGeneration);
+            out.putInt(deleted.size());
+            for(String pNo : deleted) {
+                out.putString(pNo);
+            }
+            out.putInt(changed.size());
+            for(Customer customer : changed) {
+                writeRecord(out, customer, pager);
+            }
+            written = out.position();
+        }
+        Files.move(temporary, deltaFile(file, number), StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Reads the base and all deltas that aren't merged into it, and adds the customers to the registry
+     * and the accounts to the index
+     * @param file path of the base
+     * @param customers the registry to add the customers to
+     * @param accounts the index to add the accounts to
+     * @param store the transaction store that holds the transactions, or null to keep them on the heap
+     * @return the last assigned account number stored in the snapshot
+     * @throws IOException if a file can't be read or isn't a snapshot of a known version
+     */
+    public static int read(Path file, CustomerRegistry customers, AccountIndex accounts, TransactionStore store) throws IOException {
+        int lastAssignedAccountNumber;
+        long lastDelta;
+        try(Input in = new Input(file)) {
+            if(in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a bank snapshot");
+            }
+            checkVersion(in.getShort());
+            int numOfCustomers = in.getInt();
+            lastAssignedAccountNumber = in.getInt();
+            in.getLong();
+            lastDelta = in.getLong();
+            in.getLong();
+            for(int i = 0; i < numOfCustomers; i++) {
+                in.getInt();
+                applyCustomer(readCustomer(in, store), customers, accounts);
+            }
+        }
+        for(Path delta : deltaFiles(file, lastDelta)) {
+            try(Input in = new Input(delta)) {
+                readDeltaHeader(in, delta);
+                lastAssignedAccountNumber = Math.max(lastAssignedAccountNumber, in.getInt());
+                in.getLong();
+                int numOfDeleted = in.getInt();
+                for(int i = 0; i < numOfDeleted; i++) {
+                    Customer removed = customers.remove(in.getString());
+                    if(removed != null) {
+                        removeAccounts(removed, accounts);
+                    }
+                }
+                int numOfCustomers = in.getInt();
+                for(int i = 0; i < numOfCustomers; i++) {
+                    in.getInt();
+                    applyCustomer(readCustomer(in, store), customers, accounts);
+                }
+            }
+        }
+        return lastAssignedAccountNumber;
+    }
+
+    /**
+     * Reads the offset index of the base and the records of the deltas that aren't merged into it,
+     * without reading any accounts
+     * @param file path of the base
+     * @param visitor receives the index entries and deleted customers in order
+     * @return the last assigned account number stored in the snapshot
+     * @throws IOException if a file can't be read or isn't a snapshot of a known version
+     */
+    static int readIndex(Path file, IndexVisitor visitor) throws IOException {
+        int lastAssignedAccountNumber;
+        long lastDelta;
+        try(Input in = new Input(file)) {
+            if(in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a bank snapshot");
+            }
+            checkVersion(in.getShort());
+            int numOfCustomers = in.getInt();
+            lastAssignedAccountNumber = in.getInt();
+            in.getLong();
+            lastDelta = in.getLong();
+            in.seek(in.getLong());
+            for(int i = 0; i < numOfCustomers; i++) {
+                visitor.record(file, readIndexEntry(in));
+            }
+        }
+        for(Path delta : deltaFiles(file, lastDelta)) {
+            try(Input in = new Input(delta)) {
+                readDeltaHeader(in, delta);
+                lastAssignedAccountNumber = Math.max(lastAssignedAccountNumber, in.getInt());
+                in.getLong();
+                int numOfDeleted = in.getInt();
+                for(int i = 0; i < numOfDeleted; i++) {
+                    visitor.deleted(in.getString());
+                }
+                int numOfCustomers = in.getInt();
+                for(int i = 0; i < numOfCustomers; i++) {
+                    long position = in.position();
+                    in.getInt();
+                    visitor.record(delta, scanRecord(in, position));
+                }
+            }
+        }
+        return lastAssignedAccountNumber;
+    }
+
+    /**
+     * Reads the generation of the first journal that has changes after the base and its deltas
+     * @param file path of the base
+     * @return the journal generation, 0 if there is no base
+     * @throws IOException if a file can't be read or isn't a snapshot of a known version
+     */
+    public static long journalGeneration(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return 0;
+        }
+        long generation;
+        long lastDelta;
+        try(Input in = new Input(file)) {
+            if(in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a bank snapshot");
+            }
+            checkVersion(in.getShort());
+            in.getInt();
+            in.getInt();
+            generation = in.getLong();
+            lastDelta = in.getLong();
+        }
+        for(Path delta : deltaFiles(file, lastDelta)) {
+            try(Input in = new Input(delta)) {
+                readDeltaHeader(in, delta);
+                in.getInt();
+                generation = Math.max(generation, in.getLong());
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Gets the number of deltas that aren't merged into the base
+     * @param file path of the base
+     * @return the number of deltas
+     * @throws IOException if the directory can't be listed
+     */
+    public static int countDeltas(Path file) throws IOException {
+        return deltaFiles(file, lastMergedDelta(file)).size();
+    }
+
+    /**
+     * Gets the size of the base and the deltas that aren't merged into it, which is what read reads. A file
+     * saved before the snapshot format has no deltas, so its size is the size of the file.
+     * @param file path of the base
+     * @return the number of bytes, 0 if there is no base
+     * @throws IOException if the files can't be read
+     */
+    public static long size(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return 0;
+        }
+        long bytes = Files.size(file);
+        for(Path delta : deltaFiles(file, lastMergedDelta(file))) {
+            bytes += Files.size(delta);
+        }
+        return bytes;
+    }
+
+    /**
+     * Merges the base and its deltas into a new base in the target file. The records are copied as
+     * they are, only the names and account numbers of each record are decoded for the index. The base
+     * and the deltas are left untouched, replaceWithMerged puts the new base in place.
+     * @param file path of the base
+     * @param target path of the merged base
+     * @return the number of the last delta that was merged, 0 if there was nothing to merge
+     * @throws IOException if the files can't be read or written
+     */
+    public static long merge(Path file, Path target) throws IOException {
+        try(Input base = new Input(file)) {
+            if(base.getInt() != MAGIC) {
+                return 0;
+            }
+            checkVersion(base.getShort());
+            int numOfCustomers = base.getInt();
+            int lastAssignedAccountNumber = base.getInt();
+            long journalGeneration = base.getLong();
+            List<Path> deltas = deltaFiles(file, base.getLong());
+            base.getLong();
+            if(deltas.isEmpty()) {
+                return 0;
+            }
+            // the latest record of every customer in the deltas, and the customers that were deleted
+            Map<String, byte[]> latest = new LinkedHashMap<>();
+            Set<String> dropped = new HashSet<>();
+            long lastDelta = 0;
+            for(Path delta : deltas) {
+                try(Input in = new Input(delta)) {
+                    lastDelta = readDeltaHeader(in, delta);
+                    lastAssignedAccountNumber = Math.max(lastAssignedAccountNumber, in.getInt());
+                    journalGeneration = Math.max(journalGeneration, in.getLong());
+                    int numOfDeleted = in.getInt();
+                    for(int i = 0; i < numOfDeleted; i++) {
+                        String pNo = in.getString();
+                        latest.remove(pNo);
+                        dropped.add(pNo);
+                    }
+                    int numOfRecords = in.getInt();
+                    for(int i = 0; i < numOfRecords; i++) {
+                        byte[] record = in.getBytes(in.getInt());
+                        latest.put(pNoOf(record), record);
+                    }
+                }
+            }
+            List<IndexEntry> index = new ArrayList<>(numOfCustomers);
+            try(Output out = new Output(target)) {
+                out.putInt(MAGIC);
+                out.putShort(VERSION);
+                long countPosition = out.position();
+                out.putInt(0);
+                out.putInt(lastAssignedAccountNumber);
+                out.putLong(journalGeneration);
+                out.putLong(lastDelta);
+                long indexPosition = out.position();
+                out.putLong(0);
+                for(int i = 0; i < numOfCustomers; i++) {
+                    byte[] record = base.getBytes(base.getInt());
+                    String pNo = pNoOf(record);
+                    byte[] replacement = latest.remove(pNo);
+                    if(replacement != null) {
+                        record = replacement;
+                    } else if(dropped.contains(pNo)) {
+                        continue;
+                    }
+                    index.add(copyRecord(out, record));
+                }
+                // customers that were created after the base come last
+                for(byte[] record : latest.values()) {
+                    index.add(copyRecord(out, record));
+                }
+                out.patchInt(countPosition, index.size());
+                out.patchLong(indexPosition, out.position());
+                writeIndex(out, index);
+            }
+            return lastDelta;
+        }
+    }
+
+    /**
+     * Puts a merged base in place and deletes the deltas that were merged into it
+     * @param file path of the base
+     * @param merged path of the merged base
+     * @param lastDelta the number of the last delta that was merged
+     * @throws IOException if the files can't be moved or deleted
+     */
+    public static void replaceWithMerged(Path file, Path merged, long lastDelta) throws IOException {
+        Files.move(merged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteDeltas(file, lastDelta);
+    }
+
+    /**
+     * Checks if a file starts with the snapshot header, as opposed to a bank saved with Java serialization
+     * @param file path of the file
+     * @return true if the file is a snapshot
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isSnapshot(Path file) throws IOException {
+        try(InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(4);
+            return header.length == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Reads the record that starts at the specified position of a file
+     * @param channel the file
+     * @param position the position of the length of the record
+     * @return the record without its length
+     * @throws IOException if the file can't be read
+     */
+    static byte[] readRecord(FileChannel channel, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, position);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, record, position + 4);
+        return record.array();
+    }
+
+    /**
+     * Appends the record of a customer to the end of a file
+     * @param channel the file
+     * @param customer the customer
+     * @return the position of the record
+     * @throws IOException if the file can't be written
+     */
+    static long appendRecord(FileChannel channel, Customer customer) throws IOException {
+        channel.position(channel.size());
+        try(Output out = new Output(channel)) {
+            return writeRecord(out, customer, null).position;
+        }
+    }
+
+    /**
+     * Decodes a record that was read with readRecord
+     * @param record the record without its length
+     * @param store the transaction store that holds the transactions, or null to keep them on the heap
+     * @return the customer with all their accounts
+     * @throws IOException if the record is cut off
+     */
+    static Customer readCustomer(byte[] record, TransactionStore store) throws IOException {
+        try(Input in = new Input(record)) {
+            return readCustomer(in, store);
+        }
+    }
+
+    /**
+     * An entry of the offset index, with what a customer that isn't loaded needs and where the record is
+     */
+    static final class IndexEntry {
+        final String pNo;
+        final String firstName;
+        final String lastName;
+        final long position;
+        final int[] accountNumbers;
+
+        private IndexEntry(String pNo, String firstName, String lastName, long position, int[] accountNumbers) {
+            this.pNo = pNo;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.position = position;
+            this.accountNumbers = accountNumbers;
+        }
+    }
+
+    /**
+     * Receives the entries of an offset index and the customers deleted by deltas, in the order they
+     * are to be applied
+     */
+    interface IndexVisitor {
+        void record(Path file, IndexEntry entry) throws IOException;
+        void deleted(String pNo);
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Writes a customer as a record that starts with its length. A customer that isn't loaded is copied
+    // from the record the pager has.
+    private static IndexEntry writeRecord(Output out, Customer customer, CustomerPager pager) throws IOException {
+        if(pager != null && !pager.isLoaded(customer)) {
+            return copyRecord(out, pager.readRecord(customer));
+        }
+        long position = out.position();
+        out.putInt(0);
+        IndexEntry entry = writeCustomer(out, customer, position);
+        out.patchInt(position, (int) (out.position() - position - 4));
+        return entry;
+    }
+
+    // Writes a record that is already encoded
+    private static IndexEntry copyRecord(Output out, byte[] record) throws IOException {
+        long position = out.position();
+        out.putInt(record.length);
+        out.putBytes(record);
+        try(Input in = new Input(record)) {
+            return scanRecord(in, position);
+        }
+    }
+
+    private static IndexEntry writeCustomer(Output out, Customer customer, long position) throws IOException {
+        String firstName = customer.getFirstName();
+        String lastName = customer.getLastName();
+        out.putString(customer.getPNo());
+        out.putString(firstName);
+        out.putString(lastName);
+        List<Account> customerAccounts = customer.getAccounts();
+        int[] accountNumbers = new int[customerAccounts.size()];
+        out.putInt(customerAccounts.size());
+        for(int i = 0; i < accountNumbers.length; i++) {
+            Account account = customerAccounts.get(i);
+            accountNumbers[i] = account.getAccountNumber();
+            // the account is locked so the balance and the transactions belong together
+            synchronized(account) {
+                out.putInt(account.getAccountNumber());
+                out.putByte(account instanceof SavingsAccount ? SAVINGS_ACCOUNT : CREDIT_ACCOUNT);
+                out.putString(account.getAccountType());
+                out.putLong(account.getBalanceMinor());
+                out.putByte(account.isWithdrawalMade() ? WITHDRAWAL_MADE : 0);
+                account.transactionLog().writeTo(out);
+            }
+        }
+        return new IndexEntry(customer.getPNo(), firstName, lastName, position, accountNumbers);
+    }
+
+    private static Customer readCustomer(Input in, TransactionStore store) throws IOException {
+        String pNo = in.getString();
+        String firstName = in.getString();
+        String lastName = in.getString();
+        Customer customer = new Customer(firstName, lastName, pNo);
+        int numOfAccounts = in.getInt();
+        for(int i = 0; i < numOfAccounts; i++) {
+            int accountNumber = in.getInt();
+            byte type = in.getByte();
+            String accountType = in.getString();
+            Account account = type == SAVINGS_ACCOUNT
+                    ? new SavingsAccount(accountType, accountNumber)
+                    : new CreditAccount(accountType, accountNumber);
+            long balance = in.getLong();
+            boolean withdrawalMade = (in.getByte() & WITHDRAWAL_MADE) != 0;
+            account.restore(balance, TransactionLog.readFrom(in, store, accountNumber), withdrawalMade);
+            customer.addAccount(account);
+        }
+        return customer;
+    }
+
+    // Reads the names and account numbers of a record and skips the rest of it
+    private static IndexEntry scanRecord(Input in, long position) throws IOException {
+        String pNo = in.getString();
+        String firstName = in.getString();
+        String lastName = in.getString();
+        int[] accountNumbers = new int[in.getInt()];
+        for(int i = 0; i < accountNumbers.length; i++) {
+            accountNumbers[i] = in.getInt();
+            in.getByte();
+            in.getString();
+            in.getLong();
+            in.getByte();
+            TransactionLog.skip(in);
+        }
+        return new IndexEntry(pNo, firstName, lastName, position, accountNumbers);
+    }
+
+    private static void writeIndex(Output out, List<IndexEntry> index) throws IOException {
+        for(IndexEntry entry : index) {
+            out.putString(entry.pNo);
+            out.putString(entry.firstName);
+            out.putString(entry.lastName);
+            out.putLong(entry.position);
+            out.putInt(entry.accountNumbers.length);
+            for(int accountNumber : entry.accountNumbers) {
+                out.putInt(accountNumber);
+            }
+        }
+    }
+
+    private static IndexEntry readIndexEntry(Input in) throws IOException {
+        String pNo = in.getString();
+        String firstName = in.getString();
+        String lastName = in.getString();
+        long position = in.getLong();
+        int[] accountNumbers = new int[in.getInt()];
+        for(int i = 0; i < accountNumbers.length; i++) {
+            accountNumbers[i] = in.getInt();
+        }
+        return new IndexEntry(pNo, firstName, lastName, position, accountNumbers);
+    }
+
+    // Adds a customer to the registry in place of any earlier version of the customer
+    private static void applyCustomer(Customer customer, CustomerRegistry customers, AccountIndex accounts) {
+        Customer previous = customers.put(customer);
+        if(previous != null) {
+            removeAccounts(previous, accounts);
+        }
+        for(Account account : customer.getAccounts()) {
+            accounts.put(account, customer);
+        }
+    }
+
+    private static void removeAccounts(Customer customer, AccountIndex accounts) {
+        for(Account account : customer.getAccounts()) {
+            accounts.remove(account.getAccountNumber());
+        }
+    }
+
+    // Checks the start of a delta and returns its number
+    private static long readDeltaHeader(Input in, Path delta) throws IOException {
+        if(in.getInt() != DELTA_MAGIC) {
+            throw new IOException(delta + " is not a bank snapshot delta");
+        }
+        checkVersion(in.getShort());
+        return in.getLong();
+    }
+
+    private static void checkVersion(short version) throws IOException {
+        if(version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+    }
+
+    // A record starts with the personnummer of the customer
+    private static String pNoOf(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        return new String(record, 2, buffer.getShort(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("The snapshot ends in the middle of a record");
+            }
+        }
+    }
+
+    // Returns the number of the last delta of a base, which is the number of the last merged delta
+    // if there are no deltas after it
+    private static long lastDeltaNumber(Path file) throws IOException {
+        long lastMerged = lastMergedDelta(file);
+        List<Path> deltas = deltaFiles(file, lastMerged);
+        return deltas.isEmpty() ? lastMerged : deltaNumber(file, deltas.get(deltas.size() - 1));
+    }
+
+    // Reads the number of the last delta that is merged into the base, 0 if there is no base
+    private static long lastMergedDelta(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return 0;
+        }
+        try(Input in = new Input(file)) {
+            if(in.getInt() != MAGIC) {
+                return 0;
+            }
+            checkVersion(in.getShort());
+            in.getInt();
+            in.getInt();
+            in.getLong();
+            return in.getLong();
+        }
+    }
+
+    // Lists the deltas with a number after the specified one, in order
+    private static List<Path> deltaFiles(Path file, long after) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName() + DELTA_SUFFIX;
+        try(Stream<Path> files = Files.list(directory)) {
+            List<Path> deltas = new ArrayList<>();
+            files.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .filter(path -> deltaNumber(file, path) > after)
+                    .sorted(Comparator.comparingLong(path -> deltaNumber(file, path)))
+                    .forEach(deltas::add);
+            return deltas;
+        }
+    }
+
+    // Deletes the deltas up to and including the specified number
+    private static void deleteDeltas(Path file, long upTo) throws IOException {
+        for(Path delta : deltaFiles(file, 0)) {
+            if(deltaNumber(file, delta) <= upTo) {
+                Files.deleteIfExists(delta);
+            }
+        }
+    }
+
+    private static long deltaNumber(Path file, Path delta) {
+        String name = delta.getFileName().toString();
+        return Long.parseLong(name.substring(file.getFileName().toString().length() + DELTA_SUFFIX.length()));
+    }
+
+    private static Path deltaFile(Path file, long number) {
+        return file.resolveSibling(file.getFileName() + DELTA_SUFFIX + String.format("%08d", number));
+    }
+
+    private static Path temporaryFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Writes fields to a file through a buffer, used by the classes whose state is in the snapshot
+     */
+    static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final boolean owned;
+        private long drained = 0;
+
+        private Output(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.owned = true;
+        }
+
+        // Writes at the current position of a channel that stays open when the output is closed
+        private Output(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(64 * 1024);
+            this.owned = false;
+            this.drained = channel.position();
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+        void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if(bytes.length > Short.MAX_VALUE) {
+                throw new IOException("String is too long for the snapshot");
+            }
+            ensure(2 + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            if(bytes.length > buffer.capacity()) {
+                drain();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while(wrapped.hasRemaining()) {
+                    drained += channel.write(wrapped);
+                }
+                return;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        // Gets the position in the file of the next byte that is written
+        long position() {
+            return drained + buffer.position();
+        }
+
+        // Overwrites an int that was written earlier at the specified position
+        void patchInt(long position, int value) throws IOException {
+            if(position >= drained) {
+                buffer.putInt((int) (position - drained), value);
+                return;
+            }
+            ByteBuffer patch = ByteBuffer.allocate(4).putInt(value);
+            patch.flip();
+            while(patch.hasRemaining()) {
+                channel.write(patch, position + patch.position());
+            }
+        }
+
+        void patchLong(long position, long value) throws IOException {
+            if(position >= drained) {
+                buffer.putLong((int) (position - drained), value);
+                return;
+            }
+            ByteBuffer patch = ByteBuffer.allocate(8).putLong(value);
+            patch.flip();
+            while(patch.hasRemaining()) {
+                channel.write(patch, position + patch.position());
+            }
+        }
+
+        // Writes the first count values of the array as one column
+        void putLongs(long[] values, int count) throws IOException {
+            int written = 0;
+            while(written < count) {
+                ensure(8);
+                int chunk = Math.min(count - written, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(values, written, chunk);
+                buffer.position(buffer.position() + chunk * 8);
+                written += chunk;
+            }
+        }
+
+        // Writes what is left in the buffer and forces the file to disk, a channel that isn't owned
+        // is only written to
+        @Override
+        public void close() throws IOException {
+            if(!owned) {
+                drain();
+                return;
+            }
+            try {
+                drain();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if(buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                drained += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads fields from a file through a buffer, used by the classes whose state is in the snapshot
+     */
+    static final class Input implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long filled = 0;
+
+        private Input(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.buffer.flip();
+        }
+
+        // Reads a record that is already in memory
+        private Input(byte[] record) {
+            this.channel = null;
+            this.buffer = ByteBuffer.wrap(record);
+            this.filled = record.length;
+        }
+
+        // Gets the position in the file of the next byte that is read
+        long position() {
+            return filled - buffer.remaining();
+        }
+
+        // Moves to the specified position in the file
+        void seek(long position) throws IOException {
+            if(position <= filled && position >= filled - buffer.limit()) {
+                buffer.position(buffer.limit() - (int) (filled - position));
+                return;
+            }
+            channel.position(position);
+            filled = position;
+            buffer.clear().flip();
+        }
+
+        // Skips the specified number of bytes
+        void skip(long bytes) throws IOException {
+            seek(position() + bytes);
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+        short getShort() throws IOException {
+            require(2);
+            return buffer.getShort();
+        }
+        int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+        long getLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+        String getString() throws IOException {
+            int length = getShort();
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while(read < length) {
+                require(1);
+                int chunk = Math.min(length - read, buffer.remaining());
+                buffer.get(bytes, read, chunk);
+                read += chunk;
+            }
+            return bytes;
+        }
+
+        // Reads a column of count values into the array
+        void getLongs(long[] values, int count) throws IOException {
+            int read = 0;
+            while(read < count) {
+                require(8);
+                int chunk = Math.min(count - read, buffer.remaining() / 8);
+                buffer.asLongBuffer().get(values, read, chunk);
+                buffer.position(buffer.position() + chunk * 8);
+                read += chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(channel != null) {
+                channel.close();
+            }
+        }
+
+        // Makes sure that at least the given number of bytes are in the buffer
+        private void require(int bytes) throws IOException {
+            if(buffer.remaining() >= bytes) {
+                return;
+            }
+            if(channel == null) {
+                throw new EOFException("The snapshot ends in the middle of a record");
+            }
+            buffer.compact();
+            while(buffer.position() < bytes) {
+                int read = channel.read(buffer);
+                if(read < 0) {
+                    throw new EOFException("The snapshot ends in the middle of a record");
+                }
+                filled += read;
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Description
+ * This class exports the transactions of accounts as CSV, one row per transaction. The transactions are
+ * read from the account a page at a time and each row is written straight into a large buffer over a
+ * FileChannel, so the memory used is the same no matter how long the history is. Several accounts can be
+ * written to one file in one pass, or each account to its own file with the files written in parallel.
+ *
+ * Each row is laid out as: account number, date, amount, balance after the transaction, link id.
+ * Amounts are written in kronor with a decimal point and no thousands separator, and the link id is 0
+ * for transactions that aren't linked.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class TransactionExporter {
+
+    // Constants
+    public static final String HEADER = "account,date,amount,balance,link";
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int ROWS_PER_READ = 4096;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // each thread that exports reuses its buffer, so exporting many small accounts doesn't allocate one per file
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private TransactionExporter() {
+    }
+
+    /**
+     * Writes the transactions that were made in a time range to one file, the accounts one after the other
+     * @param file path of the CSV file, replaced if it exists
+     * @param accounts the accounts to export
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @return the number of transactions that were written
+     * @throws IOException if the file can't be written
+     */
+    static long export(Path file, List<Account> accounts, long fromTime, long toTime) throws IOException {
+        long rows = 0;
+        try(CsvOutput out = new CsvOutput(file)) {
+            for(Account account : accounts) {
+                rows += out.writeAccount(account, fromTime, toTime);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the transactions that were made in a time range to one file per account, named after the
+     * account number. The files are written in parallel.
+     * @param directory the directory of the files, created if it doesn't exist
+     * @param accounts the accounts to export
+     * @param fromTime the start of the range in milliseconds since the epoch, inclusive
+     * @param toTime the end of the range in milliseconds since the epoch, exclusive
+     * @return the number of transactions that were written
+     * @throws IOException if a file can't be written
+     */
+    static long exportEach(Path directory, List<Account> accounts, long fromTime, long toTime) throws IOException {
+        Files.createDirectories(directory);
+        LongAdder rows = new LongAdder();
+        try {
+            accounts.parallelStream().forEach(account -> {
+                try {
+                    rows.add(export(directory.resolve(account.getAccountNumber() + ".csv"), List.of(account), fromTime, toTime));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows.sum();
+    }
+
+    /**
+     * Writes rows to a file through the buffer of the current thread
+     */
+    private static final class CsvOutput implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = BUFFERS.get();
+        private final StringBuilder row = new StringBuilder(80);
+        private long lastSecond = Long.MIN_VALUE;
+        private String lastDate;
+
+        private CsvOutput(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer.clear();
+            row.append(HEADER).append('\n');
+            putRow();
+        }
+
+        // Writes the transactions of an account in the time range, reading them a page at a time. The number of
+        // transactions is fixed by the first page, so transactions made during the export are left out.
+        private long writeAccount(Account account, long fromTime, long toTime) throws IOException {
+            TransactionPage page = account.getTransactionPage(fromTime, toTime, 0, ROWS_PER_READ);
+            int total = page.getTotal();
+            int written = 0;
+            while(page.size() > 0) {
+                TransactionLog transactions = page.getTransactions();
+                for(int i = 0; i < transactions.size(); i++) {
+                    row.append(account.getAccountNumber()).append(',');
+                    row.append(formatDate(transactions.getTimestamp(i))).append(',');
+                    appendMinorUnits(transactions.getAmount(i));
+                    row.append(',');
+                    appendMinorUnits(transactions.getBalance(i));
+                    row.append(',').append(transactions.getLink(i)).append('\n');
+                    putRow();
+                }
+                written += transactions.size();
+                if(written >= total) {
+                    break;
+                }
+                page = account.getTransactionPage(fromTime, toTime, written, Math.min(ROWS_PER_READ, total - written));
+            }
+            return written;
+        }
+
+        // Consecutive transactions are often made in the same second, so the last date is reused
+        private String formatDate(long timestamp) {
+            long second = Math.floorDiv(timestamp, 1000);
+            if(second != lastSecond) {
+                lastSecond = second;
+                lastDate = DATE_FORMAT.format(Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault()));
+            }
+            return lastDate;
+        }
+
+        // Appends an amount in minor units as kronor with two decimals
+        private void appendMinorUnits(long minorUnits) {
+            if(minorUnits < 0) {
+                row.append('-');
+            }
+            long abs = Math.abs(minorUnits);
+            long fraction = abs % Money.MINOR_UNITS_PER_KRONA;
+            row.append(abs / Money.MINOR_UNITS_PER_KRONA).append('.');
+            if(fraction < 10) {
+                row.append('0');
+            }
+            row.append(fraction);
+        }
+
+        // Moves the row to the buffer, every character of a row is ASCII
+        private void putRow() throws IOException {
+            if(buffer.remaining() < row.length()) {
+                drain();
+            }
+            for(int i = 0; i < row.length(); i++) {
+                buffer.put((byte) row.charAt(i));
+            }
+            row.setLength(0);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * Description
+ * This class stores the transactions of an account. Each transaction is a compact record of when it
+ * was made, the amount and the resulting balance, kept column by column in growable primitive arrays.
+ * Amounts and balances are stored in minor units (öre). Nothing is formatted until a row is rendered.
+ * Transactions that belong together, like the two legs of a transfer, share a link id. The link
+ * column is only allocated once the first linked transaction is added.
+ * Transactions are added in time order, so a time range is found with a binary search over the
+ * timestamps and a page of the log can be copied without touching the rest of it.
+ * A log can also be backed by the history of the account in a TransactionStore, in which case the
+ * columns are read from the mapped store and a copy of the log is a view that shares it.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class TransactionLog {
+
+    // Instance variables
+    private long[] timestamps;
+    private long[] amounts;
+    private long[] balances;
+    private long[] links;
+    private int size = 0;
+    private final TransactionStore.History history;
+    private final boolean view;
+
+    // Constants
+    public static final long NO_LINK = 0;
+    private static final byte HAS_LINKS = 1;
+    private static final byte STORED = 2;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int DATE_LENGTH = 19;
+    private static final String BALANCE_LABEL = " Saldo: ";
+    private static final ThreadLocal<NumberFormat> CURRENCY_FORMAT =
+            ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(new Locale("sv","SE")));
+
+    /**
+     * Constructor
+     */
+    public TransactionLog() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private TransactionLog(int capacity) {
+        this.timestamps = new long[capacity];
+        this.amounts = new long[capacity];
+        this.balances = new long[capacity];
+        this.history = null;
+        this.view = false;
+    }
+
+    /**
+     * Constructor for a log that is backed by the history of an account in a transaction store
+     * @param history the history of the account
+     * @param size the number of transactions in the history that belong to the log
+     */
+    TransactionLog(TransactionStore.History history, int size) {
+        this(history, size, false);
+    }
+
+    private TransactionLog(TransactionStore.History history, int size, boolean view) {
+        this.history = history;
+        this.size = size;
+        this.view = view;
+    }
+
+    /**
+     * Getters for the number of transactions and the columns of a single transaction
+     */
+    public int size() {
+        return this.size;
+    }
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return this.history != null ? this.history.getTimestamp(index) : this.timestamps[index];
+    }
+    public long getAmount(int index) {
+        checkIndex(index);
+        return this.history != null ? this.history.getAmount(index) : this.amounts[index];
+    }
+    public long getBalance(int index) {
+        checkIndex(index);
+        return this.history != null ? this.history.getBalance(index) : this.balances[index];
+    }
+    public long getLink(int index) {
+        checkIndex(index);
+        if(this.history != null) {
+            return this.history.getLink(index);
+        }
+        return this.links == null ? NO_LINK : this.links[index];
+    }
+
+    /**
+     * Checks if the transactions are kept in a transaction store instead of on the heap
+     * @return true if the log is backed by a transaction store
+     */
+    public boolean isStored() {
+        return this.history != null;
+    }
+
+    /**
+     * Adds a transaction last in the log
+     * @param timestamp the time of the transaction in milliseconds since the epoch
+     * @param amount the amount in minor units, negative for withdrawals
+     * @param balance the balance after the transaction in minor units
+     */
+    public void add(long timestamp, long amount, long balance) {
+        add(timestamp, amount, balance, NO_LINK);
+    }
+
+    /**
+     * Adds a transaction last in the log that is linked to other transactions
+     * @param timestamp the time of the transaction in milliseconds since the epoch
+     * @param amount the amount in minor units, negative for withdrawals
+     * @param balance the balance after the transaction in minor units
+     * @param link the id shared by the linked transactions, or NO_LINK
+     */
+    public void add(long timestamp, long amount, long balance, long link) {
+        if(view) {
+            throw new UnsupportedOperationException("A copy of a stored transaction log can't be changed");
+        }
+        if(history != null) {
+            if(history.size() != size) {
+                // the history has transactions from after the account was saved
+                history.truncate(size);
+            }
+            history.append(timestamp, amount, balance, link);
+            size++;
+            return;
+        }
+        if(size == timestamps.length) {
+            int capacity = timestamps.length * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            balances = Arrays.copyOf(balances, capacity);
+            if(links != null) {
+                links = Arrays.copyOf(links, capacity);
+            }
+        }
+        if(link != NO_LINK && links == null) {
+            links = new long[timestamps.length];
+        }
+        timestamps[size] = timestamp;
+        amounts[size] = amount;
+        balances[size] = balance;
+        if(links != null) {
+            links[size] = link;
+        }
+        size++;
+    }
+
+    /**
+     * Makes a copy of the log that is trimmed to its size. A stored log is never copied, since its
+     * transactions don't change once they are added, the copy is a view of the first size transactions.
+     * @return the copy
+     */
+    public TransactionLog copy() {
+        if(history != null) {
+            return new TransactionLog(history, size, true);
+        }
+        TransactionLog copy = new TransactionLog(Math.max(size, 1));
+        System.arraycopy(timestamps, 0, copy.timestamps, 0, size);
+        System.arraycopy(amounts, 0, copy.amounts, 0, size);
+        System.arraycopy(balances, 0, copy.balances, 0, size);
+        if(links != null) {
+            copy.links = Arrays.copyOf(links, copy.timestamps.length);
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Copies the transactions from one index up to another into a new log on the heap
+     * @param from index of the first transaction to copy
+     * @param to index after the last transaction to copy
+     * @return the copy, with the first copied transaction at index 0
+     */
+    public TransactionLog copyRange(int from, int to) {
+        if(from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + " to " + to + ", Size: " + size);
+        }
+        int count = to - from;
+        TransactionLog copy = new TransactionLog(Math.max(count, 1));
+        if(history != null) {
+            for(int i = from; i < to; i++) {
+                copy.add(history.getTimestamp(i), history.getAmount(i), history.getBalance(i), history.getLink(i));
+            }
+            return copy;
+        }
+        System.arraycopy(timestamps, from, copy.timestamps, 0, count);
+        System.arraycopy(amounts, from, copy.amounts, 0, count);
+        System.arraycopy(balances, from, copy.balances, 0, count);
+        if(links != null) {
+            copy.links = new long[copy.timestamps.length];
+            System.arraycopy(links, from, copy.links, 0, count);
+        }
+        copy.size = count;
+        return copy;
+    }
+
+    /**
+     * Finds the first transaction that was made at or after the specified time with a binary search
+     * @param timestamp the time in milliseconds since the epoch
+     * @return the index of the transaction, or size() if all transactions were made before the time
+     */
+    public int indexOfTime(long timestamp) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            long middleTimestamp = history != null ? history.getTimestamp(middle) : timestamps[middle];
+            if(middleTimestamp < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the log to a snapshot as its size followed by one column at a time
+     * @param out the snapshot being written
+     */
+    void writeTo(Snapshot.Output out) throws IOException {
+        out.putInt(size);
+        if(history != null) {
+            // the transactions are already in the store, only the size is saved
+            out.putByte(STORED);
+            return;
+        }
+        out.putByte(links == null ? (byte) 0 : HAS_LINKS);
+        out.putLongs(timestamps, size);
+        out.putLongs(amounts, size);
+        out.putLongs(balances, size);
+        if(links != null) {
+            out.putLongs(links, size);
+        }
+    }
+
+    /**
+     * Reads a log that was written by writeTo. With a transaction store, the log is backed by the store.
+     * @param in the snapshot being read
+     * @param store the transaction store, or null if transactions are kept on the heap
+     * @param accountNumber the number of the account the log belongs to
+     * @return the log, trimmed to its size
+     */
+    static TransactionLog readFrom(Snapshot.Input in, TransactionStore store, int accountNumber) throws IOException {
+        int size = in.getInt();
+        byte flags = in.getByte();
+        if((flags & STORED) != 0) {
+            if(store == null) {
+                throw new IOException("The transactions of account " + accountNumber + " are in a transaction store that isn't open");
+            }
+            return store.open(accountNumber, size);
+        }
+        boolean hasLinks = (flags & HAS_LINKS) != 0;
+        TransactionLog log = new TransactionLog(Math.max(size, 1));
+        in.getLongs(log.timestamps, size);
+        in.getLongs(log.amounts, size);
+        in.getLongs(log.balances, size);
+        if(hasLinks) {
+            log.links = new long[log.timestamps.length];
+            in.getLongs(log.links, size);
+        }
+        log.size = size;
+        return store == null ? log : log.moveTo(store, accountNumber);
+    }
+
+    /**
+     * Skips a log that was written by writeTo without reading its transactions
+     * @param in the snapshot being read
+     */
+    static void skip(Snapshot.Input in) throws IOException {
+        int size = in.getInt();
+        byte flags = in.getByte();
+        if((flags & STORED) == 0) {
+            int columns = (flags & HAS_LINKS) != 0 ? 4 : 3;
+            in.skip((long) columns * size * Long.BYTES);
+        }
+    }
+
+    /**
+     * Adds all transactions of the log to a new log for the account in a transaction store
+     * @param store the transaction store
+     * @param accountNumber the number of the account the log belongs to
+     * @return the stored log
+     */
+    TransactionLog moveTo(TransactionStore store, int accountNumber) {
+        TransactionLog stored = store.create(accountNumber);
+        for(int i = 0; i < size; i++) {
+            stored.add(getTimestamp(i), getAmount(i), getBalance(i), getLink(i));
+        }
+        return stored;
+    }
+
+    /**
+     * Methods that format the columns of a transaction for display
+     */
+    public String formatDate(int index) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(getTimestamp(index)).atZone(ZoneId.systemDefault()));
+    }
+    public String formatAmount(int index) {
+        return formatMinorUnits(getAmount(index));
+    }
+    public String formatBalance(int index) {
+        return formatMinorUnits(getBalance(index));
+    }
+
+    /**
+     * Formats a transaction the way it is presented to the customer, with date, amount and balance
+     * @param index index of the transaction
+     * @return the formatted transaction
+     */
+    public String format(int index) {
+        return formatDate(index) + " " + formatAmount(index) + " Saldo: " + formatBalance(index);
+    }
+
+    /**
+     * Gets a view of the log where each transaction is formatted when it is read
+     * @return the formatted transactions
+     */
+    public List<String> asFormattedList() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return format(index);
+            }
+
+            @Override
+            public int size() {
+                return TransactionLog.this.size;
+            }
+        };
+    }
+
+    /**
+     * Reads the transactions of a bank file from the first release, which only kept each transaction
+     * formatted the way format() does. The amounts and balances are read back into öre and the date into
+     * a timestamp in the time zone of the system.
+     * @param formatted the formatted transactions in the order they were made
+     * @return the log
+     * @throws InvalidObjectException if a transaction isn't formatted like format() does
+     */
+    static TransactionLog parseFormatted(List<?> formatted) throws InvalidObjectException {
+        TransactionLog log = new TransactionLog(Math.max(formatted.size(), 1));
+        for(Object transaction : formatted) {
+            String text = String.valueOf(transaction);
+            int balanceStart = text.indexOf(BALANCE_LABEL);
+            if(text.length() < DATE_LENGTH + 1 || balanceStart < DATE_LENGTH) {
+                throw new InvalidObjectException("Unknown transaction: " + text);
+            }
+            try {
+                long timestamp = LocalDateTime.parse(text.substring(0, DATE_LENGTH), DATE_FORMAT)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                log.add(timestamp, parseMinorUnits(text.substring(DATE_LENGTH, balanceStart)),
+                        parseMinorUnits(text.substring(balanceStart + BALANCE_LABEL.length())));
+            } catch (DateTimeParseException | NumberFormatException | ArithmeticException e) {
+                throw new InvalidObjectException("Unknown transaction: " + text);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Reads an amount formatted as Swedish currency back into minor units. The digits are read without the
+    // grouping spaces and the currency, since the spaces and the minus sign differ between Java versions.
+    private static long parseMinorUnits(String formatted) {
+        StringBuilder number = new StringBuilder();
+        for(int i = 0; i < formatted.length(); i++) {
+            char c = formatted.charAt(i);
+            if(c >= '0' && c <= '9') {
+                number.append(c);
+            } else if(c == ',') {
+                number.append('.');
+            } else if((c == '-' || c == '\u2212') && number.length() == 0) {
+                number.append('-');
+            }
+        }
+        return Money.fromBigDecimal(new BigDecimal(number.toString()));
+    }
+
+    // Formats an amount in minor units as Swedish currency
+    private static String formatMinorUnits(long minorUnits) {
+        return CURRENCY_FORMAT.get().format(BigDecimal.valueOf(minorUnits, 2));
+    }
+
+    // Throws if the index is outside of the log
+    private int checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+}
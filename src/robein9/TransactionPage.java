@@ -0,0 +1,56 @@
+/**
+ * Description
+ * This class is one page of the transactions of an account, returned by the paginated transaction
+ * queries of BankLogic. It holds a copy of the transactions on the page, the position of the page
+ * and the number of transactions the whole query matched, so a table can tell how far it can scroll.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+public class TransactionPage {
+
+    // Instance variables
+    private final int total;
+    private final int offset;
+    private final TransactionLog transactions;
+
+    /**
+     * Constructor
+     * @param total the number of transactions the query matched
+     * @param offset the position of the first transaction on the page among the matched transactions
+     * @param transactions the transactions on the page
+     */
+    TransactionPage(int total, int offset, TransactionLog transactions) {
+        this.total = total;
+        this.offset = offset;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Getters for the number of matched transactions, the position of the page, the number of
+     * transactions on the page and the transactions themselves, where index 0 is the first
+     * transaction on the page
+     */
+    public int getTotal() {
+        return this.total;
+    }
+    public int getOffset() {
+        return this.offset;
+    }
+    public int size() {
+        return this.transactions.size();
+    }
+    public TransactionLog getTransactions() {
+        return this.transactions;
+    }
+
+    /**
+     * Checks if there are matched transactions after the page
+     * @return true if there is a next page
+     */
+    public boolean hasMore() {
+        return this.offset + this.transactions.size() < this.total;
+    }
+}
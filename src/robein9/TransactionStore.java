@@ -0,0 +1,324 @@
+/**
+ * Description
+ * This class keeps the transaction history of all accounts in memory-mapped segment files instead of
+ * on the heap. Each segment file is divided into fixed-size blocks and every account owns a list of
+ * blocks, so transaction i of an account is found with one division without scanning. Transactions
+ * are only ever appended, which lets a copy of a transaction log be a view of the mapped blocks that
+ * is limited to the size at the time of the copy, so reading history never copies it.
+ *
+ * Each block starts with a header of int account number, int number of the block within the account
+ * and int number of transactions in the block, followed by the transactions as four longs: timestamp,
+ * amount, balance and link. The headers are scanned when the store is opened to find the history of
+ * every account again, so history survives restarts without being written to the snapshot.
+ *
+ * Blocks that are freed, by an account that is closed or history that is thrown away, are kept in a free
+ * list and handed out again before the files grow. The blocks of closed accounts are freed by release()
+ * once a snapshot without the accounts has been saved, so a copy of the log of a closed account must not
+ * be read after that.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+public class TransactionStore implements Closeable {
+
+    // Instance variables
+    private final Path directory;
+    private final Map<Integer, History> histories = new HashMap<>();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long nextBlock = 0;
+    private final ArrayDeque<Long> freeBlocks = new ArrayDeque<>();
+
+    // Constants
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int BLOCK_SHIFT = 11;
+    private static final int BLOCKS_PER_SEGMENT = 1 << (SEGMENT_SHIFT - BLOCK_SHIFT);
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORDS_PER_BLOCK = ((1 << BLOCK_SHIFT) - HEADER_SIZE) / RECORD_SIZE;
+    private static final int FREE = 0;
+    private static final int TIMESTAMP = 0;
+    private static final int AMOUNT = 8;
+    private static final int BALANCE = 16;
+    private static final int LINK = 24;
+
+    /**
+     * Opens the store in a directory and finds the history of every account in its segment files
+     * @param directory the directory of the segment files, created if it doesn't exist
+     * @throws IOException if the segment files can't be opened
+     */
+    public TransactionStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        while(Files.exists(segmentFile(segments.length))) {
+            addSegment();
+        }
+        scanBlocks();
+    }
+
+    /**
+     * Gets the transaction log of an account with the history that is in the store. Transactions
+     * after the specified size are ignored, since the bank doesn't know about them, and are thrown
+     * away when the log is added to.
+     * @param accountNumber the account number
+     * @param size the number of transactions the account had when it was saved
+     * @return the transaction log of the account
+     * @throws IOException if the store has fewer transactions for the account than the size
+     */
+    public synchronized TransactionLog open(int accountNumber, int size) throws IOException {
+        History history = histories.computeIfAbsent(accountNumber, History::new);
+        if(history.size < size) {
+            throw new IOException("The transaction store is missing transactions of account " + accountNumber);
+        }
+        return new TransactionLog(history, size);
+    }
+
+    /**
+     * Gets an empty transaction log for a new account in the store, throwing away any history that
+     * was left behind by an account with the same number that was never saved
+     * @param accountNumber the account number
+     * @return the transaction log of the account
+     */
+    public synchronized TransactionLog create(int accountNumber) {
+        History history = histories.computeIfAbsent(accountNumber, History::new);
+        history.truncate(0);
+        return new TransactionLog(history, 0);
+    }
+
+    /**
+     * Frees the blocks of the accounts that aren't in the bank anymore, so they are used again by other
+     * accounts. Called once a snapshot without the accounts has been saved, since a snapshot that still
+     * has them needs their history.
+     * @param inBank tells if an account number belongs to an account in the bank
+     * @return the number of accounts whose history was freed
+     */
+    public synchronized int release(IntPredicate inBank) {
+        int released = 0;
+        for(Iterator<History> iterator = histories.values().iterator(); iterator.hasNext(); ) {
+            History history = iterator.next();
+            if(!inBank.test(history.accountNumber)) {
+                history.free();
+                iterator.remove();
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Getter for the number of free blocks that are handed out before the files grow
+     */
+    public synchronized int getFreeBlocks() {
+        return freeBlocks.size();
+    }
+
+    /**
+     * Forces all appended transactions to disk
+     */
+    public void force() {
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Forces all appended transactions to disk. The mappings are released when they are garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        force();
+        histories.clear();
+    }
+
+    /**
+     * The blocks of one account and the number of transactions in them
+     */
+    final class History {
+        private final int accountNumber;
+        private volatile long[] blocks = new long[1];
+        private volatile int size = 0;
+
+        private History(int accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+
+        // Getters for the number of transactions and the columns of a transaction,
+        // the index is checked by the transaction log
+        int size() {
+            return size;
+        }
+        long getTimestamp(int index) {
+            return getLong(index, TIMESTAMP);
+        }
+        long getAmount(int index) {
+            return getLong(index, AMOUNT);
+        }
+        long getBalance(int index) {
+            return getLong(index, BALANCE);
+        }
+        long getLink(int index) {
+            return getLong(index, LINK);
+        }
+
+        // Appends a transaction, the caller holds the lock of the account
+        void append(long timestamp, long amount, long balance, long link) {
+            int index = size;
+            int slot = index % RECORDS_PER_BLOCK;
+            if(slot == 0) {
+                addBlock(index / RECORDS_PER_BLOCK);
+            }
+            long block = blocks[index / RECORDS_PER_BLOCK];
+            MappedByteBuffer segment = segmentOf(block);
+            int offset = offsetOf(block) + HEADER_SIZE + slot * RECORD_SIZE;
+            segment.putLong(offset + TIMESTAMP, timestamp);
+            segment.putLong(offset + AMOUNT, amount);
+            segment.putLong(offset + BALANCE, balance);
+            segment.putLong(offset + LINK, link);
+            // the count in the header is what makes the transaction visible after a restart
+            segment.putInt(offsetOf(block) + 8, slot + 1);
+            size = index + 1;
+        }
+
+        private long getLong(int index, int column) {
+            long block = blocks[index / RECORDS_PER_BLOCK];
+            return segmentOf(block).getLong(offsetOf(block) + HEADER_SIZE + (index % RECORDS_PER_BLOCK) * RECORD_SIZE + column);
+        }
+
+        // Takes a new block from the store for the block number within the account
+        private void addBlock(int blockNumber) {
+            long block;
+            synchronized(TransactionStore.this) {
+                block = allocateBlock();
+            }
+            MappedByteBuffer segment = segmentOf(block);
+            segment.putInt(offsetOf(block) + 8, 0);
+            segment.putInt(offsetOf(block) + 4, blockNumber);
+            segment.putInt(offsetOf(block), accountNumber);
+            setBlock(blockNumber, block);
+        }
+
+        private void setBlock(int blockNumber, long block) {
+            long[] current = blocks;
+            if(blockNumber >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, blockNumber + 1));
+            }
+            current[blockNumber] = block;
+            blocks = current;
+        }
+
+        // Frees the blocks after the first size transactions, the caller holds the lock of the account
+        // or of the store
+        void truncate(int newSize) {
+            int keptBlocks = (newSize + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+            int usedBlocks = (size + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+            for(int i = keptBlocks; i < usedBlocks; i++) {
+                freeBlock(blocks[i]);
+            }
+            if(newSize % RECORDS_PER_BLOCK != 0) {
+                long last = blocks[keptBlocks - 1];
+                segmentOf(last).putInt(offsetOf(last) + 8, newSize % RECORDS_PER_BLOCK);
+            }
+            size = newSize;
+        }
+
+        // Frees all blocks of the account, the caller holds the lock of the store
+        private void free() {
+            truncate(0);
+            blocks = new long[1];
+        }
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Marks a block as free and puts it in the free list
+    private void freeBlock(long block) {
+        segmentOf(block).putInt(offsetOf(block), FREE);
+        synchronized(this) {
+            freeBlocks.push(block);
+        }
+    }
+
+    // Rebuilds the history of every account from the block headers, and the free list from the free
+    // blocks before the last block in use
+    private void scanBlocks() {
+        long totalBlocks = (long) segments.length * BLOCKS_PER_SEGMENT;
+        for(long block = 0; block < totalBlocks; block++) {
+            MappedByteBuffer segment = segmentOf(block);
+            int offset = offsetOf(block);
+            int accountNumber = segment.getInt(offset);
+            if(accountNumber == FREE) {
+                continue;
+            }
+            int blockNumber = segment.getInt(offset + 4);
+            int count = segment.getInt(offset + 8);
+            History history = histories.computeIfAbsent(accountNumber, History::new);
+            history.setBlock(blockNumber, block);
+            history.size = Math.max(history.size, blockNumber * RECORDS_PER_BLOCK + count);
+            nextBlock = block + 1;
+        }
+        for(long block = 0; block < nextBlock; block++) {
+            if(segmentOf(block).getInt(offsetOf(block)) == FREE) {
+                freeBlocks.push(block);
+            }
+        }
+    }
+
+    // Returns a free block, or the next unused block, mapping a new segment when the last one is full
+    private long allocateBlock() {
+        Long free = freeBlocks.poll();
+        if(free != null) {
+            return free;
+        }
+        if(nextBlock == (long) segments.length * BLOCKS_PER_SEGMENT) {
+            try {
+                addSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException("The transaction store couldn't grow", e);
+            }
+        }
+        return nextBlock++;
+    }
+
+    // Maps the next segment file, creating it if it doesn't exist
+    private void addSegment() throws IOException {
+        MappedByteBuffer[] current = segments;
+        try(FileChannel channel = FileChannel.open(segmentFile(current.length), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, 1L << SEGMENT_SHIFT);
+            MappedByteBuffer[] larger = Arrays.copyOf(current, current.length + 1);
+            larger[current.length] = segment;
+            segments = larger;
+        }
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve(String.format("transactions-%05d.seg", segment));
+    }
+
+    private MappedByteBuffer segmentOf(long block) {
+        return segments[(int) (block / BLOCKS_PER_SEGMENT)];
+    }
+
+    private static int offsetOf(long block) {
+        return (int) (block % BLOCKS_PER_SEGMENT) << BLOCK_SHIFT;
+    }
+}
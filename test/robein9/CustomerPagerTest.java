@@ -0,0 +1,139 @@
+/**
+ * Description
+ * Tests of paged customers. A customer that changed and is evicted must be written to the spill file and
+ * read back from it with the change, a save must write the customers that were evicted with their changes,
+ * a batch over more customers than fit in memory must load them a part at a time, and closing the bank must
+ * close the spill file, which deletes it.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerPagerTest {
+
+    // Constants
+    private static final int CUSTOMERS = 12;
+    private static final int MAX_LOADED_CUSTOMERS = 3;
+    private static final int START_BALANCE = 1000;
+    private static final Path FILES = Paths.get("robein9_files");
+
+    @BeforeEach
+    @AfterEach
+    void deleteBankFiles() throws IOException {
+        // the bank expects the directory of its files to exist
+        Files.createDirectories(FILES);
+        try(Stream<Path> saved = Files.list(FILES)) {
+            for(Path file : (Iterable<Path>) saved::iterator) {
+                String name = file.getFileName().toString();
+                if(name.startsWith("bank.dat")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void evictedChangesAreReadBackFromTheSpillFile() throws Exception {
+        saveBank();
+        BankLogic bank = openPagedBank();
+        assertTrue(bank.deposit(pNoOf(0), accountOf(0), 50));
+        assertTrue(bank.withdraw(pNoOf(1), accountOf(1), 20));
+        // using the other customers evicts the changed ones, which only exist in the spill file afterwards
+        for(int i = 2; i < CUSTOMERS; i++) {
+            assertEquals(Money.fromKronor(START_BALANCE + i), bank.getAccountView(pNoOf(i), accountOf(i)).getBalance());
+        }
+        assertTrue(bank.getPager().getSpillSize() > 0);
+        assertEquals(Money.fromKronor(START_BALANCE + 50), bank.getAccountView(pNoOf(0), accountOf(0)).getBalance());
+        assertEquals(Money.fromKronor(START_BALANCE + 1 - 20), bank.getAccountView(pNoOf(1), accountOf(1)).getBalance());
+        bank.close();
+    }
+
+    @Test
+    void batchLoadsNoMoreCustomersThanThePagerKeeps() throws Exception {
+        saveBank();
+        BankLogic bank = openPagedBank();
+        List<BatchOperation> operations = new ArrayList<>();
+        for(int i = 0; i < CUSTOMERS; i++) {
+            operations.add(BatchOperation.deposit(pNoOf(i), accountOf(i), 10));
+            operations.add(BatchOperation.withdrawal(pNoOf(CUSTOMERS - 1 - i), accountOf(CUSTOMERS - 1 - i), 5));
+        }
+        byte[] results = bank.applyBatch(operations);
+        for(byte result : results) {
+            assertEquals(BatchOperation.APPLIED, result);
+        }
+        assertTrue(bank.getPager().getLoadedCount() <= MAX_LOADED_CUSTOMERS);
+        for(int i = 0; i < CUSTOMERS; i++) {
+            assertEquals(Money.fromKronor(START_BALANCE + i + 5), bank.getAccountView(pNoOf(i), accountOf(i)).getBalance());
+        }
+        bank.close();
+    }
+
+    @Test
+    void saveWritesEvictedCustomersAndCloseDeletesTheSpillFile() throws Exception {
+        saveBank();
+        BankLogic bank = openPagedBank();
+        for(int i = 0; i < CUSTOMERS; i++) {
+            assertTrue(bank.deposit(pNoOf(i), accountOf(i), 10));
+        }
+        assertTrue(bank.writeCustomersToFile());
+        CustomerPager pager = bank.getPager();
+        bank.close();
+        assertNull(bank.getPager());
+        // the spill file is deleted when its channel is closed
+        assertThrows(ClosedChannelException.class, pager::getSpillSize);
+
+        BankLogic reopened = openPagedBank();
+        for(int i = 0; i < CUSTOMERS; i++) {
+            assertEquals(Money.fromKronor(START_BALANCE + i + 10), reopened.getAccountView(pNoOf(i), accountOf(i)).getBalance());
+        }
+        reopened.close();
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Saves a bank with every customer in memory, customer i has START_BALANCE + i kr
+    private static void saveBank() throws IOException {
+        BankLogic bank = new BankLogic();
+        for(int i = 0; i < CUSTOMERS; i++) {
+            assertTrue(bank.createCustomer("Kund", "Nummer" + i, pNoOf(i)));
+            assertEquals(accountOf(i), bank.createCreditAccount(pNoOf(i)));
+            assertTrue(bank.deposit(pNoOf(i), accountOf(i), START_BALANCE + i));
+        }
+        assertTrue(bank.writeCustomersToFile());
+        bank.close();
+    }
+
+    private static BankLogic openPagedBank() throws Exception {
+        BankLogic bank = new BankLogic();
+        bank.usePagedCustomers(MAX_LOADED_CUSTOMERS);
+        assertTrue(bank.loadCustomerFromFile());
+        return bank;
+    }
+
+    private static String pNoOf(int customer) {
+        return String.format("1985%08d", customer);
+    }
+
+    private static int accountOf(int customer) {
+        return AccountNumberAllocator.FIRST_ACCOUNT_NUMBER + customer;
+    }
+}
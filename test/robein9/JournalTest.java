@@ -0,0 +1,221 @@
+/**
+ * Description
+ * Tests of the journal file. Replay must stop at the first record that doesn't match its checksum, a
+ * record that was cut off by a crash must not hide the records appended after the journal is opened
+ * again, and emptying the journal must start its next generation. A journal that was already saved in the
+ * snapshot when the bank stopped must not be replayed on top of it.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+
+    // Instance variables
+    @TempDir
+    Path directory;
+
+    // Constants
+    private static final String PNO = "199001011234";
+    private static final int ACCOUNT_NUMBER = 1001;
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final Path FILES = Paths.get("robein9_files");
+    private static final Path JOURNAL_FILE = FILES.resolve("bank.journal");
+
+    @Test
+    void appendedRecordsAreReplayedInOrder() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try(Journal journal = new Journal(file)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            journal.accountOpened(PNO, ACCOUNT_NUMBER, Journal.CREDIT_ACCOUNT);
+            journal.awaitDurable(journal.transaction(ACCOUNT_NUMBER, Journal.DEPOSIT, 500, TIMESTAMP, 7));
+        }
+        assertEquals(Arrays.asList(
+                "created " + PNO + " Anna Svensson",
+                "opened " + PNO + " " + ACCOUNT_NUMBER + " " + Journal.CREDIT_ACCOUNT,
+                "transaction " + ACCOUNT_NUMBER + " " + Journal.DEPOSIT + " 500 " + TIMESTAMP + " 7"), replay(file));
+    }
+
+    @Test
+    void replayStopsAtARecordWithTheWrongChecksum() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try(Journal journal = new Journal(file)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            journal.transaction(ACCOUNT_NUMBER, Journal.DEPOSIT, 500, TIMESTAMP, 0);
+            journal.transaction(ACCOUNT_NUMBER, Journal.DEPOSIT, 600, TIMESTAMP, 0);
+        }
+        // change the last byte of the link of the first transaction, just before its checksum
+        byte[] contents = Files.readAllBytes(file);
+        int firstTransactionEnd = contents.length - transactionRecordSize();
+        contents[firstTransactionEnd - 5] ^= 1;
+        Files.write(file, contents);
+        assertEquals(Arrays.asList("created " + PNO + " Anna Svensson"), replay(file));
+    }
+
+    @Test
+    void recordsAfterATornTailAreReplayed() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try(Journal journal = new Journal(file)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            journal.transaction(ACCOUNT_NUMBER, Journal.DEPOSIT, 500, TIMESTAMP, 0);
+        }
+        // the bank stopped while the transaction was written
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertEquals(1, Journal.replay(file, new Recorder()));
+        try(Journal journal = new Journal(file)) {
+            journal.transaction(ACCOUNT_NUMBER, Journal.WITHDRAWAL, -200, TIMESTAMP, 0);
+        }
+        assertEquals(Arrays.asList(
+                "created " + PNO + " Anna Svensson",
+                "transaction " + ACCOUNT_NUMBER + " " + Journal.WITHDRAWAL + " -200 " + TIMESTAMP + " 0"), replay(file));
+    }
+
+    @Test
+    void truncateStartsTheNextGeneration() throws IOException {
+        Path file = directory.resolve("journal.log");
+        assertEquals(-1, Journal.generationOf(file));
+        try(Journal journal = new Journal(file, 5)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            assertEquals(5, journal.getGeneration());
+            journal.truncate();
+            assertEquals(6, journal.getGeneration());
+            journal.customerDeleted(PNO);
+        }
+        assertEquals(6, Journal.generationOf(file));
+        assertEquals(Arrays.asList("deleted " + PNO), replay(file));
+        // an existing journal keeps its own generation
+        try(Journal journal = new Journal(file, 9)) {
+            assertEquals(6, journal.getGeneration());
+        }
+    }
+
+    @Test
+    void journalSavedInTheSnapshotIsNotReplayedAgain() throws Exception {
+        deleteBankFiles();
+        try {
+            BankLogic bank = new BankLogic();
+            bank.openJournal();
+            assertTrue(bank.createCustomer("Anna", "Svensson", PNO));
+            int account = bank.createSavingsAccount(PNO);
+            assertTrue(bank.deposit(PNO, account, 100));
+            assertTrue(bank.writeCustomersToFile());
+            // the journal now only has the deposit after the first save
+            assertTrue(bank.deposit(PNO, account, 50));
+            byte[] beforeSave = Files.readAllBytes(JOURNAL_FILE);
+            assertTrue(bank.writeCustomersToFile());
+            // the bank stopped after the snapshot was moved in place and before the journal was emptied
+            Files.write(JOURNAL_FILE, beforeSave);
+            bank.close();
+
+            BankLogic recovered = new BankLogic();
+            assertTrue(recovered.openJournal());
+            assertEquals(Arrays.asList(Money.fromKronor(100), Money.fromKronor(150)), balances(recovered, account));
+            // the stale journal is replaced, so the changes after the recovery are replayed the next time
+            assertTrue(recovered.deposit(PNO, account, 25));
+            recovered.close();
+            BankLogic reopened = new BankLogic();
+            assertTrue(reopened.openJournal());
+            assertEquals(Arrays.asList(Money.fromKronor(100), Money.fromKronor(150), Money.fromKronor(175)),
+                    balances(reopened, account));
+            assertEquals(account + 1, reopened.createCreditAccount(PNO));
+            reopened.close();
+        } finally {
+            deleteBankFiles();
+        }
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // The balance after every transaction of an account of the customer
+    private static List<Long> balances(BankLogic bank, int account) {
+        TransactionLog log = bank.getTransactionLog(PNO, account);
+        List<Long> balances = new ArrayList<>();
+        for(int i = 0; i < log.size(); i++) {
+            balances.add(log.getBalance(i));
+        }
+        return balances;
+    }
+
+    // Deletes the snapshot and the journal the bank saves in the working directory
+    private static void deleteBankFiles() throws IOException {
+        // the bank expects the directory of its files to exist
+        Files.createDirectories(FILES);
+        try(Stream<Path> saved = Files.list(FILES)) {
+            for(Path file : (Iterable<Path>) saved::iterator) {
+                String name = file.getFileName().toString();
+                if(name.startsWith("bank.dat") || name.startsWith("bank.journal")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Replays a journal file into a readable line per record
+    private static List<String> replay(Path file) throws IOException {
+        Recorder recorder = new Recorder();
+        Journal.replay(file, recorder);
+        return recorder.records;
+    }
+
+    // The size of a transaction record: length, type, time, payload and checksum
+    private static int transactionRecordSize() {
+        return 4 + 1 + 8 + (4 + 1 + 8 + 8) + 4;
+    }
+
+    // Keeps every replayed record as a line of text
+    private static class Recorder implements Journal.Handler {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void customerCreated(String pNo, String firstName, String lastName) {
+            records.add("created " + pNo + " " + firstName + " " + lastName);
+        }
+
+        @Override
+        public void customerRenamed(String pNo, String firstName, String lastName) {
+            records.add("renamed " + pNo + " " + firstName + " " + lastName);
+        }
+
+        @Override
+        public void customerDeleted(String pNo) {
+            records.add("deleted " + pNo);
+        }
+
+        @Override
+        public void accountOpened(String pNo, int accountNumber, byte accountType) {
+            records.add("opened " + pNo + " " + accountNumber + " " + accountType);
+        }
+
+        @Override
+        public void accountClosed(String pNo, int accountNumber) {
+            records.add("closed " + pNo + " " + accountNumber);
+        }
+
+        @Override
+        public void transaction(int accountNumber, byte kind, long amount, long timestamp, long link) {
+            records.add("transaction " + accountNumber + " " + kind + " " + amount + " " + timestamp + " " + link);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Description
+ * Tests of recovering the bank from the journal. Replay in parallel partitions must rebuild the same bank
+ * that wrote the journal, stateAsOf() must rebuild the bank as it was at a point in time, and an event on
+ * an account or customer that doesn't exist when it is replayed, such as interest journaled after its
+ * account was closed, must be skipped and counted instead of stopping the recovery, like an event that
+ * creates a customer who already exists.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayTest {
+
+    // Constants
+    private static final int CUSTOMERS = 60;
+    private static final String PNO = "199001011234";
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final Path FILES = Paths.get("robein9_files");
+    private static final Path JOURNAL_FILE = FILES.resolve("bank.journal");
+
+    @BeforeEach
+    @AfterEach
+    void deleteBankFiles() throws IOException {
+        // the bank expects the directory of its files to exist
+        Files.createDirectories(FILES);
+        try(Stream<Path> saved = Files.list(FILES)) {
+            for(Path file : (Iterable<Path>) saved::iterator) {
+                String name = file.getFileName().toString();
+                if(name.startsWith("bank.dat") || name.startsWith("bank.journal") || name.equals("history")) {
+                    deleteTree(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void partitionedReplayRebuildsTheSameBank() throws Exception {
+        BankLogic bank = new BankLogic();
+        bank.openJournal();
+        int[] savings = new int[CUSTOMERS];
+        int[] credit = new int[CUSTOMERS];
+        for(int i = 0; i < CUSTOMERS; i++) {
+            assertTrue(bank.createCustomer("Kund", "Nummer" + i, pNoOf(i)));
+            savings[i] = bank.createSavingsAccount(pNoOf(i));
+            credit[i] = bank.createCreditAccount(pNoOf(i));
+            assertTrue(bank.deposit(pNoOf(i), savings[i], 1000 + i));
+        }
+        // transfers cross the partitions, and closed accounts and deleted customers are dropped from them
+        for(int i = 0; i < CUSTOMERS; i++) {
+            int other = (i + 7) % CUSTOMERS;
+            assertTrue(bank.transfer(pNoOf(i), savings[i], pNoOf(other), credit[other], 100 + i));
+            assertTrue(bank.withdraw(pNoOf(i), credit[i], 50));
+        }
+        bank.postInterest();
+        for(int i = 0; i < CUSTOMERS; i += 5) {
+            assertNotNull(bank.closeAccount(pNoOf(i), credit[i]));
+            assertTrue(bank.changeCustomerName("Ny", "Kund" + i, pNoOf(i + 1)));
+        }
+        for(int i = 2; i < CUSTOMERS; i += 10) {
+            assertNotNull(bank.deleteCustomer(pNoOf(i)));
+        }
+        List<List<String>> expected = describe(bank);
+        bank.close();
+
+        BankLogic recovered = new BankLogic();
+        assertTrue(recovered.openJournal());
+        assertEquals(expected, describe(recovered));
+        assertEquals(0, recovered.getSkippedEvents());
+        assertEquals(credit[CUSTOMERS - 1] + 1, recovered.createSavingsAccount(pNoOf(1)));
+        recovered.close();
+    }
+
+    @Test
+    void stateAsOfRebuildsThePast() throws Exception {
+        BankLogic bank = new BankLogic();
+        bank.openJournal();
+        bank.openHistory();
+        assertTrue(bank.createCustomer("Anna", "Svensson", PNO));
+        int account = bank.createCreditAccount(PNO);
+        assertTrue(bank.deposit(PNO, account, 100));
+        // the first save writes the base the history starts with
+        assertTrue(bank.writeCustomersToFile());
+        long afterBase = nextMillisecond();
+        assertTrue(bank.deposit(PNO, account, 200));
+        long inSegment = nextMillisecond();
+        assertTrue(bank.deposit(PNO, account, 300));
+        // the second save archives the deposits above as a segment
+        assertTrue(bank.writeCustomersToFile());
+        long inJournal = nextMillisecond();
+        assertTrue(bank.deposit(PNO, account, 400));
+        long beforeClose = nextMillisecond();
+        assertNotNull(bank.closeAccount(PNO, account));
+        long end = nextMillisecond();
+
+        assertEquals(Money.fromKronor(100), balanceAt(bank, afterBase, account));
+        assertEquals(Money.fromKronor(300), balanceAt(bank, inSegment, account));
+        assertEquals(Money.fromKronor(600), balanceAt(bank, inJournal, account));
+        assertEquals(Money.fromKronor(1000), balanceAt(bank, beforeClose, account));
+        assertNull(bank.stateAsOf(end).getAccountView(PNO, account));
+        bank.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void interestAfterTheAccountWasClosedIsSkipped(boolean paged) throws Exception {
+        try(Journal journal = new Journal(JOURNAL_FILE)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            journal.accountOpened(PNO, 1001, Journal.SAVINGS_ACCOUNT);
+            journal.accountOpened(PNO, 1002, Journal.CREDIT_ACCOUNT);
+            journal.transaction(1001, Journal.DEPOSIT, 50_000, TIMESTAMP, 0);
+            journal.accountClosed(PNO, 1001);
+            // an interest run that didn't hold the registry lock could journal interest after the close
+            journal.transaction(1001, Journal.INTEREST, 120, TIMESTAMP, 0);
+            journal.transaction(1002, Journal.DEPOSIT, 30_000, TIMESTAMP, 0);
+        }
+        BankLogic bank = new BankLogic();
+        if(paged) {
+            bank.usePagedCustomers(1);
+        }
+        assertTrue(bank.openJournal());
+        assertEquals(1, bank.getSkippedEvents());
+        assertNull(bank.getAccountView(PNO, 1001));
+        assertEquals(30_000, bank.getAccountView(PNO, 1002).getBalance());
+        bank.close();
+    }
+
+    @Test
+    void interestAfterASavedAccountWasClosedIsSkipped() throws Exception {
+        BankLogic saved = new BankLogic();
+        assertTrue(saved.createCustomer("Anna", "Svensson", PNO));
+        int account = saved.createSavingsAccount(PNO);
+        assertTrue(saved.deposit(PNO, account, 500));
+        assertTrue(saved.writeCustomersToFile());
+        saved.close();
+        try(Journal journal = new Journal(JOURNAL_FILE)) {
+            journal.accountClosed(PNO, account);
+            journal.transaction(account, Journal.INTEREST, 120, TIMESTAMP, 0);
+        }
+        BankLogic bank = new BankLogic();
+        assertTrue(bank.openJournal());
+        assertEquals(1, bank.getSkippedEvents());
+        assertNull(bank.getAccountView(PNO, account));
+        bank.close();
+    }
+
+    @Test
+    void eventsOnUnknownAccountsAndCustomersAreSkipped() throws Exception {
+        try(Journal journal = new Journal(JOURNAL_FILE)) {
+            journal.customerCreated(PNO, "Anna", "Svensson");
+            journal.transaction(4711, Journal.DEPOSIT, 100, TIMESTAMP, 0);
+            journal.customerRenamed("198502021234", "Erik", "Ek");
+            journal.accountOpened("198502021234", 1001, Journal.CREDIT_ACCOUNT);
+            journal.transaction(1001, Journal.DEPOSIT, 100, TIMESTAMP, 0);
+        }
+        BankLogic bank = new BankLogic();
+        assertTrue(bank.openJournal());
+        assertEquals(4, bank.getSkippedEvents());
+        assertEquals(List.of(PNO + " Anna Svensson"), bank.getAllCustomers());
+        bank.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void customerThatExistsIsNotCreatedAgain(boolean paged) throws Exception {
+        BankLogic saved = new BankLogic();
+        assertTrue(saved.createCustomer("Anna", "Svensson", PNO));
+        assertTrue(saved.writeCustomersToFile());
+        saved.close();
+        try(Journal journal = new Journal(JOURNAL_FILE)) {
+            journal.customerCreated(PNO, "Anna", "Dubblett");
+            journal.accountOpened(PNO, 1500, Journal.CREDIT_ACCOUNT);
+        }
+        BankLogic bank = new BankLogic();
+        if(paged) {
+            bank.usePagedCustomers(1);
+        }
+        assertTrue(bank.openJournal());
+        assertEquals(1, bank.getSkippedEvents());
+        assertEquals("Svensson", bank.getCustomerView(PNO).getLastName());
+        assertNotNull(bank.getAccountView(PNO, 1500));
+        bank.close();
+    }
+
+    /**
+     * Helper methods
+     */
+
+    private static String pNoOf(int customer) {
+        return String.format("1975%08d", customer);
+    }
+
+    // Every customer with their accounts and balances, and the number of transactions of each account
+    private static List<List<String>> describe(BankLogic bank) {
+        List<List<String>> lines = new ArrayList<>();
+        // the registry doesn't keep the customers in the order they were created
+        List<String> customers = new ArrayList<>(bank.getAllCustomers());
+        customers.sort(null);
+        lines.add(customers);
+        for(int i = 0; i < CUSTOMERS; i++) {
+            CustomerView customer = bank.getCustomerView(pNoOf(i));
+            if(customer == null) {
+                continue;
+            }
+            List<String> accountLines = new ArrayList<>(bank.getCustomer(pNoOf(i)));
+            for(AccountView account : customer.getAccounts()) {
+                accountLines.add(account.getAccountNumber() + " " + bank.getTransactionLog(pNoOf(i), account.getAccountNumber()).size());
+            }
+            lines.add(accountLines);
+        }
+        return lines;
+    }
+
+    private static long balanceAt(BankLogic bank, long time, int account) throws IOException {
+        return bank.stateAsOf(time).getAccountView(PNO, account).getBalance();
+    }
+
+    // Waits until the clock has moved past the events so far, and returns a time after them and before the next
+    private static long nextMillisecond() throws InterruptedException {
+        Thread.sleep(2);
+        long time = System.currentTimeMillis();
+        Thread.sleep(2);
+        return time;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try(Stream<Path> paths = Files.walk(root)) {
+            for(Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
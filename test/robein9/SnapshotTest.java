@@ -0,0 +1,279 @@
+/**
+ * Description
+ * Tests of the snapshot files. A bank written as a base must read back the same, and a delta must be
+ * applied on top of its base. Deltas that are written while the deltas before them are merged must be
+ * kept, and a merge must never replace a base that a full save wrote while it ran. A bank file saved with
+ * Java serialization by the first release must still load, with its balances and transactions converted
+ * to öre.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+
+    // Instance variables
+    @TempDir
+    Path directory;
+
+    // Constants
+    private static final int LAST_ACCOUNT_NUMBER = 1003;
+    private static final int BANK_CUSTOMERS = 40;
+    // the bank merges the deltas in the background once there are this many
+    private static final int MERGE_AFTER_DELTAS = 8;
+
+    @Test
+    void baseReadsBackTheSame() throws IOException {
+        CustomerRegistry written = createCustomers();
+        Path base = directory.resolve("bank.dat");
+        Snapshot.write(base, written, LAST_ACCOUNT_NUMBER, 4, null);
+        assertEquals(4, Snapshot.journalGeneration(base));
+
+        CustomerRegistry read = new CustomerRegistry();
+        AccountIndex accounts = new AccountIndex();
+        assertEquals(LAST_ACCOUNT_NUMBER, Snapshot.read(base, read, accounts, null));
+        assertEquals(describe(written), describe(read));
+        assertEquals(3, accounts.size());
+        assertEquals("199001011234", accounts.getOwner(1002).getPNo());
+    }
+
+    @Test
+    void deltaIsAppliedOnTopOfTheBase() throws IOException {
+        CustomerRegistry customers = createCustomers();
+        Path base = directory.resolve("bank.dat");
+        Snapshot.write(base, customers, LAST_ACCOUNT_NUMBER, 1, null);
+
+        Customer changed = customers.get("199001011234");
+        changed.getAccounts().get(0).depositMinor(Money.fromKronor(25));
+        customers.remove("198502021234");
+        Customer created = new Customer("Maja", "Öberg", "200003031234");
+        created.addAccount(new CreditAccount("Kreditkonto", 1004));
+        customers.add(created);
+        Snapshot.writeDelta(base, Arrays.asList(changed, created), Collections.singletonList("198502021234"), 1004, 2, null);
+        assertEquals(1, Snapshot.countDeltas(base));
+        assertEquals(2, Snapshot.journalGeneration(base));
+
+        CustomerRegistry read = new CustomerRegistry();
+        AccountIndex accounts = new AccountIndex();
+        assertEquals(1004, Snapshot.read(base, read, accounts, null));
+        assertEquals(describe(customers), describe(read));
+        assertNull(accounts.get(1003));
+    }
+
+    @Test
+    void deltaWrittenDuringAMergeIsKept() throws IOException {
+        CustomerRegistry customers = createCustomers();
+        Path base = directory.resolve("bank.dat");
+        Snapshot.write(base, customers, LAST_ACCOUNT_NUMBER, 1, null);
+        Customer anna = customers.get("199001011234");
+        Customer erik = customers.get("198502021234");
+        anna.getAccounts().get(0).depositMinor(Money.fromKronor(10));
+        Snapshot.writeDelta(base, Collections.singletonList(anna), Collections.emptyList(), LAST_ACCOUNT_NUMBER, 2, null);
+        erik.setLastName("Ek");
+        Snapshot.writeDelta(base, Collections.singletonList(erik), Collections.emptyList(), LAST_ACCOUNT_NUMBER, 3, null);
+
+        Path merged = directory.resolve("bank.dat.merge");
+        assertEquals(2, Snapshot.merge(base, merged));
+        // the merged base keeps the generation of the last delta in it
+        assertEquals(3, Snapshot.journalGeneration(merged));
+        // a save while the merge runs writes the next delta
+        anna.getAccounts().get(1).depositMinor(Money.fromKronor(20));
+        Snapshot.writeDelta(base, Collections.singletonList(anna), Collections.emptyList(), LAST_ACCOUNT_NUMBER, 4, null);
+        Snapshot.replaceWithMerged(base, merged, 2);
+
+        assertEquals(1, Snapshot.countDeltas(base));
+        assertEquals(4, Snapshot.journalGeneration(base));
+        CustomerRegistry read = new CustomerRegistry();
+        Snapshot.read(base, read, new AccountIndex(), null);
+        assertEquals(describe(customers), describe(read));
+    }
+
+    @Test
+    void mergeAfterTheDeltasLoadsTheSame() throws Exception {
+        deleteBankFiles();
+        try {
+            BankLogic bank = createBank();
+            bank.awaitMerges();
+            // the merged base is replaced by the full save
+            bank.postInterest();
+            assertTrue(bank.writeCustomersToFile());
+            assertNull(bank.getMergeFailure());
+            assertLoadsTheSame(bank);
+        } finally {
+            deleteBankFiles();
+        }
+    }
+
+    @Test
+    void mergeDuringAFullSaveLoadsTheSame() throws Exception {
+        deleteBankFiles();
+        try {
+            BankLogic bank = createBank();
+            // the interest changes every account, so this save writes a new base while the merge of the
+            // deltas may still run. The merge must then be thrown away instead of replacing the new base.
+            bank.postInterest();
+            assertTrue(bank.writeCustomersToFile());
+            bank.deposit(pNoOf(0), AccountNumberAllocator.FIRST_ACCOUNT_NUMBER, 5);
+            assertTrue(bank.writeCustomersToFile());
+            bank.awaitMerges();
+            assertNull(bank.getMergeFailure());
+            assertLoadsTheSame(bank);
+        } finally {
+            deleteBankFiles();
+        }
+    }
+
+    @Test
+    void bankFileOfTheFirstReleaseLoads() throws Exception {
+        Path file = Paths.get("robein9_files", "bank.dat");
+        Files.createDirectories(file.getParent());
+        try(InputStream legacy = getClass().getResourceAsStream("/bank.dat")) {
+            assertNotNull(legacy, "bank.dat of the first release is missing");
+            Files.copy(legacy, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            BankLogic bank = new BankLogic();
+            assertTrue(bank.loadCustomerFromFile());
+            assertEquals(5, bank.getAllCustomers().size());
+            // a deposit of 2 000 kr and one of 3 000 kr, a withdrawal of 200 kr and one of 347 kr
+            TransactionLog log = bank.getTransactionLog("198109153010", 1001);
+            assertEquals(4, log.size());
+            assertEquals(Money.fromKronor(2000), log.getAmount(0));
+            assertEquals(-Money.fromKronor(200), log.getAmount(2));
+            assertEquals(Money.fromKronor(4453), log.getBalance(3));
+            assertEquals(Money.fromKronor(4453), bank.getAccountView("198109153010", 1001).getBalance());
+            // new accounts continue after the last account number of the file
+            assertEquals(1012, bank.createSavingsAccount("198109153010"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void serializedAccountKeepsItsTransactions() throws Exception {
+        Customer customer = createCustomers().get("199001011234");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(customer);
+        }
+        Customer read;
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (Customer) in.readObject();
+        }
+        // the first release only kept the formatted transactions, so the times are to the second and the links are lost
+        assertEquals(customer.getAccounts().get(0).getTransactions(), read.getAccounts().get(0).getTransactions());
+        assertEquals(customer.getAccounts().get(1).getBalanceMinor(), read.getAccounts().get(1).getBalanceMinor());
+        assertTrue(read.getAccounts().get(0).isWithdrawalMade());
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Two customers with a savings account that had a withdrawal and two credit accounts, one in debt
+    private static CustomerRegistry createCustomers() {
+        Customer anna = new Customer("Anna", "Svensson", "199001011234");
+        Account savings = new SavingsAccount("Sparkonto", 1001);
+        savings.depositMinor(Money.fromKronor(1000));
+        savings.withdrawMinor(12_345);
+        Account credit = new CreditAccount("Kreditkonto", 1002);
+        credit.depositMinor(Money.fromKronor(300), 42);
+        anna.addAccount(savings);
+        anna.addAccount(credit);
+        Customer erik = new Customer("Erik", "Åström", "198502021234");
+        Account debt = new CreditAccount("Kreditkonto", 1003);
+        debt.withdrawMinor(Money.fromKronor(4000));
+        debt.postInterest();
+        erik.addAccount(debt);
+        CustomerRegistry customers = new CustomerRegistry();
+        customers.add(anna);
+        customers.add(erik);
+        return customers;
+    }
+
+    // A bank in the working directory that was saved whole and then as enough deltas to schedule a merge
+    private static BankLogic createBank() throws IOException {
+        BankLogic bank = new BankLogic();
+        for(int i = 0; i < BANK_CUSTOMERS; i++) {
+            assertTrue(bank.createCustomer("Kund", "Nummer" + i, pNoOf(i)));
+            int accountNumber = bank.createCreditAccount(pNoOf(i));
+            assertTrue(bank.deposit(pNoOf(i), accountNumber, 1000 + i));
+        }
+        assertTrue(bank.writeCustomersToFile());
+        for(int i = 0; i < MERGE_AFTER_DELTAS; i++) {
+            assertTrue(bank.deposit(pNoOf(i), AccountNumberAllocator.FIRST_ACCOUNT_NUMBER + i, 100));
+            assertTrue(bank.writeCustomersToFile());
+        }
+        return bank;
+    }
+
+    private static String pNoOf(int customer) {
+        return String.format("1990%08d", customer);
+    }
+
+    // Loads the saved bank into a new bank and compares the balances with the bank that saved it
+    private static void assertLoadsTheSame(BankLogic bank) throws Exception {
+        BankLogic loaded = new BankLogic();
+        assertTrue(loaded.loadCustomerFromFile());
+        assertEquals(bank.getAllCustomers(), loaded.getAllCustomers());
+        for(int i = 0; i < BANK_CUSTOMERS; i++) {
+            int accountNumber = AccountNumberAllocator.FIRST_ACCOUNT_NUMBER + i;
+            assertEquals(bank.getAccountView(pNoOf(i), accountNumber).getBalance(),
+                    loaded.getAccountView(pNoOf(i), accountNumber).getBalance());
+        }
+    }
+
+    // Deletes the base and the deltas the bank saves in the working directory
+    private static void deleteBankFiles() throws IOException {
+        Path files = Paths.get("robein9_files");
+        // the bank expects the directory of its files to exist
+        Files.createDirectories(files);
+        try(Stream<Path> saved = Files.list(files)) {
+            for(Path file : (Iterable<Path>) saved::iterator) {
+                if(file.getFileName().toString().startsWith("bank.dat")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Everything a snapshot keeps about the customers, as text that can be compared
+    private static List<String> describe(CustomerRegistry customers) {
+        List<String> lines = new ArrayList<>();
+        for(Customer customer : customers) {
+            lines.add(customer.getPNo() + " " + customer.getFirstName() + " " + customer.getLastName());
+            for(Account account : customer.getAccounts()) {
+                lines.add("  " + account.getAccountNumber() + " " + account.getClass().getSimpleName() + " "
+                        + account.getAccountType() + " " + account.getBalanceMinor() + " " + account.isWithdrawalMade());
+                TransactionLog log = account.copyTransactionLog();
+                for(int i = 0; i < log.size(); i++) {
+                    lines.add("    " + log.getTimestamp(i) + " " + log.getAmount(i) + " " + log.getBalance(i) + " " + log.getLink(i));
+                }
+            }
+        }
+        return lines;
+    }
+}
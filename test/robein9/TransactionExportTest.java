@@ -0,0 +1,85 @@
+/**
+ * Description
+ * Tests of saving the transactions of an account. The text file must keep the format it had before the
+ * CSV export, and the CSV file must have a header and one row per transaction.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionExportTest {
+
+    // Instance variables
+    private BankLogic bank;
+    private int account;
+
+    // Constants
+    private static final String PNO = "199001011234";
+    private static final Path FILES = Paths.get("robein9_files");
+    private static final Path TEXT_FILE = FILES.resolve("transactions.txt");
+    private static final Path CSV_FILE = FILES.resolve("transactions.csv");
+
+    @BeforeEach
+    void createBank() throws IOException {
+        // the bank expects the directory of its files to exist
+        Files.createDirectories(FILES);
+        bank = new BankLogic();
+        assertTrue(bank.createCustomer("Anna", "Svensson", PNO));
+        account = bank.createSavingsAccount(PNO);
+        assertTrue(bank.deposit(PNO, account, 500));
+        assertTrue(bank.withdraw(PNO, account, 120));
+    }
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(TEXT_FILE);
+        Files.deleteIfExists(CSV_FILE);
+    }
+
+    @Test
+    void textFileKeepsTheFormatOfTheFirstRelease() throws IOException {
+        bank.saveTransactionsToFile(PNO, account);
+        // the file is written in the default charset, like the first release wrote it
+        List<String> lines = Files.readAllLines(TEXT_FILE, Charset.defaultCharset());
+        assertEquals(Arrays.asList(
+                "Transactions saved: " + LocalDate.now(),
+                inDefaultCharset(bank.getTransactions(PNO, account).toString()),
+                "Current balance: " + bank.findCustomer(PNO).getAccounts().get(0).getBalance() + "kr"), lines);
+    }
+
+    @Test
+    void csvFileHasOneRowPerTransaction() throws IOException {
+        bank.saveTransactionsToCsvFile(PNO, account);
+        List<String> lines = Files.readAllLines(CSV_FILE);
+        assertEquals(3, lines.size());
+        assertEquals(TransactionExporter.HEADER, lines.get(0));
+        assertTrue(lines.get(2).startsWith(account + ","));
+        assertTrue(lines.get(2).contains(",-120.00,380.00,"));
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // The text as it reads back from a file written in the default charset
+    private static String inDefaultCharset(String text) {
+        return new String(text.getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+    }
+}
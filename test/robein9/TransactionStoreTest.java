@@ -0,0 +1,90 @@
+/**
+ * Description
+ * Tests of the transaction store. The blocks of accounts that are released must be handed out again
+ * before the files grow, also after the store is opened again, and the history of the other accounts
+ * must stay as it was.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionStoreTest {
+
+    // Instance variables
+    @TempDir
+    Path directory;
+
+    // Constants
+    // 63 transactions fit in a block, so these take four and two blocks
+    private static final int LONG_HISTORY = 200;
+    private static final int SHORT_HISTORY = 100;
+
+    @Test
+    void blocksOfReleasedAccountsAreUsedAgain() throws IOException {
+        TransactionStore store = new TransactionStore(directory);
+        append(store.create(1001), LONG_HISTORY);
+        append(store.create(1002), SHORT_HISTORY);
+        assertEquals(0, store.getFreeBlocks());
+
+        assertEquals(1, store.release(accountNumber -> accountNumber != 1001));
+        assertEquals(4, store.getFreeBlocks());
+        append(store.create(1003), LONG_HISTORY);
+        assertEquals(0, store.getFreeBlocks());
+        store.close();
+
+        TransactionStore reopened = new TransactionStore(directory);
+        assertHistory(reopened.open(1002, SHORT_HISTORY), SHORT_HISTORY);
+        assertHistory(reopened.open(1003, LONG_HISTORY), LONG_HISTORY);
+        assertThrows(IOException.class, () -> reopened.open(1001, 1));
+        reopened.close();
+    }
+
+    @Test
+    void freeBlocksAreFoundWhenOpenedAgain() throws IOException {
+        TransactionStore store = new TransactionStore(directory);
+        append(store.create(1001), LONG_HISTORY);
+        append(store.create(1002), SHORT_HISTORY);
+        // the blocks after the last one in use aren't in the free list, they are handed out in order anyway
+        append(store.create(1003), SHORT_HISTORY);
+        store.release(accountNumber -> accountNumber != 1001);
+        // history that is thrown away frees its blocks as well
+        store.create(1002);
+        store.close();
+
+        TransactionStore reopened = new TransactionStore(directory);
+        assertEquals(6, reopened.getFreeBlocks());
+        append(reopened.create(1004), SHORT_HISTORY);
+        assertEquals(4, reopened.getFreeBlocks());
+        assertHistory(reopened.open(1003, SHORT_HISTORY), SHORT_HISTORY);
+        reopened.close();
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Appends transactions of 1 kr each, so transaction i leaves the balance at i + 1 kr
+    private static void append(TransactionLog log, int count) {
+        for(int i = 0; i < count; i++) {
+            log.add(1_000L * i, Money.fromKronor(1), Money.fromKronor(i + 1), TransactionLog.NO_LINK);
+        }
+    }
+
+    private static void assertHistory(TransactionLog log, int count) {
+        assertEquals(count, log.size());
+        for(int i = 0; i < count; i++) {
+            assertEquals(1_000L * i, log.getTimestamp(i));
+            assertEquals(Money.fromKronor(i + 1), log.getBalance(i));
+        }
+    }
+}
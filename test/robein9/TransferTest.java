@@ -0,0 +1,150 @@
+/**
+ * Description
+ * Tests of transfers between accounts. Transfers lock both accounts in the order of their account
+ * numbers, so transfers in opposite directions between the same accounts must never deadlock, and no
+ * money may be created or lost while they run.
+ *
+ * @author Robert Einer, robein-9
+ */
+
+package robein9;
+
+// Imports
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferTest {
+
+    // Instance variables
+    private BankLogic bank;
+    private int first;
+    private int second;
+    private int third;
+
+    // Constants
+    private static final String OWNER = "199001011234";
+    private static final String OTHER_OWNER = "198502021234";
+    private static final int START_BALANCE = 1_000_000;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 20_000;
+
+    @BeforeEach
+    void createAccounts() {
+        bank = new BankLogic();
+        bank.createCustomer("Anna", "Svensson", OWNER);
+        bank.createCustomer("Erik", "Ek", OTHER_OWNER);
+        // credit accounts have no withdrawal fee, so the money in the bank only moves between them
+        first = bank.createCreditAccount(OWNER);
+        second = bank.createCreditAccount(OTHER_OWNER);
+        third = bank.createCreditAccount(OTHER_OWNER);
+        assertTrue(bank.deposit(OWNER, first, START_BALANCE));
+        assertTrue(bank.deposit(OTHER_OWNER, second, START_BALANCE));
+        assertTrue(bank.deposit(OTHER_OWNER, third, START_BALANCE));
+    }
+
+    @Test
+    void opposingTransfersDoNotDeadlock() throws Exception {
+        List<Runnable> transfers = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            transfers.add(i % 2 == 0
+                    ? () -> bank.transfer(OWNER, first, OTHER_OWNER, second, 1)
+                    : () -> bank.transfer(OTHER_OWNER, second, OWNER, first, 1));
+        }
+        runConcurrently(transfers);
+        assertEquals(Money.fromKronor(3 * START_BALANCE), totalBalance());
+    }
+
+    @Test
+    void transfersAroundARingDoNotDeadlock() throws Exception {
+        // each thread locks two of three accounts, in an order that would deadlock without a global order
+        List<Runnable> transfers = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            switch(i % 3) {
+                case 0:
+                    transfers.add(() -> bank.transfer(OWNER, first, OTHER_OWNER, second, 1));
+                    break;
+                case 1:
+                    transfers.add(() -> bank.transfer(OTHER_OWNER, second, OTHER_OWNER, third, 1));
+                    break;
+                default:
+                    transfers.add(() -> bank.transfer(OTHER_OWNER, third, OWNER, first, 1));
+                    break;
+            }
+        }
+        runConcurrently(transfers);
+        assertEquals(Money.fromKronor(3 * START_BALANCE), totalBalance());
+    }
+
+    @Test
+    void transferLinksBothTransactions() {
+        assertTrue(bank.transfer(OWNER, first, OTHER_OWNER, second, 100));
+        TransactionLog from = bank.getTransactionLog(OWNER, first);
+        TransactionLog to = bank.getTransactionLog(OTHER_OWNER, second);
+        long link = from.getLink(from.size() - 1);
+        assertNotEquals(TransactionLog.NO_LINK, link);
+        assertEquals(link, to.getLink(to.size() - 1));
+        assertEquals(-Money.fromKronor(100), from.getAmount(from.size() - 1));
+        assertEquals(Money.fromKronor(100), to.getAmount(to.size() - 1));
+    }
+
+    @Test
+    void rejectedTransferChangesNothing() {
+        int transactionsBefore = bank.getTransactionLog(OWNER, first).size();
+        // more than the balance and the credit limit together
+        assertFalse(bank.transfer(OWNER, first, OTHER_OWNER, second, START_BALANCE + 5001));
+        assertFalse(bank.transfer(OWNER, first, OWNER, first, 1));
+        assertFalse(bank.transfer(OWNER, first, OTHER_OWNER, -1, 1));
+        assertFalse(bank.transfer(OWNER, first, OTHER_OWNER, second, 0));
+        // the account belongs to the other customer
+        assertFalse(bank.transfer(OTHER_OWNER, first, OTHER_OWNER, second, 1));
+        assertEquals(Money.fromKronor(START_BALANCE), bank.getAccountView(OWNER, first).getBalance());
+        assertEquals(Money.fromKronor(START_BALANCE), bank.getAccountView(OTHER_OWNER, second).getBalance());
+        assertEquals(transactionsBefore, bank.getTransactionLog(OWNER, first).size());
+    }
+
+    /**
+     * Helper methods
+     */
+
+    // Runs each transfer many times on its own thread, all starting together, and fails if they don't finish
+    private void runConcurrently(List<Runnable> transfers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(transfers.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(Runnable transfer : transfers) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for(int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    transfer.run();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        boolean finished = executor.awaitTermination(60, TimeUnit.SECONDS);
+        if(!finished) {
+            executor.shutdownNow();
+        }
+        assertTrue(finished, "The transfers deadlocked");
+        for(Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private long totalBalance() {
+        return bank.getAccountView(OWNER, first).getBalance()
+                + bank.getAccountView(OTHER_OWNER, second).getBalance()
+                + bank.getAccountView(OTHER_OWNER, third).getBalance();
+    }
+}